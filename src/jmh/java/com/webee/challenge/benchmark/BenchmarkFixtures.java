@@ -0,0 +1,66 @@
+package com.webee.challenge.benchmark;
+
+import com.webee.challenge.configuration.Configurations;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.marshaller.MarshallerService;
+import com.webee.challenge.services.marshaller.impl.MarshallerServiceImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the services and the data used by the benchmarks, without starting the Spring context.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * MarshallerServiceImpl with the same mappers the application registers for every format.
+     */
+    static MarshallerService marshallerService() {
+        Configurations configurations = new Configurations();
+        MarshallerServiceImpl marshallerService = new MarshallerServiceImpl();
+        ReflectionTestUtils.setField(marshallerService, "mapper", configurations.jsonMarshaller());
+        ReflectionTestUtils.setField(marshallerService, "xmlMapper", configurations.xmlMarshaller());
+        ReflectionTestUtils.setField(marshallerService, "smileMapper", configurations.smileMarshaller());
+        ReflectionTestUtils.setField(marshallerService, "cborMapper", configurations.cborMarshaller());
+        return marshallerService;
+    }
+
+    static DeviceRequest deviceRequest(int index) {
+        return DeviceRequest.builder()
+                .date("21042020")
+                .macAddress(MacAddress.format(index))
+                .build();
+    }
+
+    /**
+     * Valid device ID (ten lower case letters) that is different for every index.
+     */
+    static String deviceId(int index) {
+        char[] id = new char[10];
+        int remaining = index;
+        for (int position = id.length - 1; position >= 0; position--) {
+            id[position] = (char) ('a' + remaining % 26);
+            remaining /= 26;
+        }
+        return new String(id);
+    }
+
+    static List<Device> devices(int size) {
+        List<Device> devices = new ArrayList<>(size);
+        for (int index = 0; index < size; index++) {
+            devices.add(Device.builder()
+                    .date("21042020")
+                    .ID(deviceId(index))
+                    .macAddress(MacAddress.format(index))
+                    .build());
+        }
+        return devices;
+    }
+}
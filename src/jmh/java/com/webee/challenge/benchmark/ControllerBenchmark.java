@@ -0,0 +1,104 @@
+package com.webee.challenge.benchmark;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.controllers.DeviceMonitoringController;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.cache.impl.DevicePayloadCacheImpl;
+import com.webee.challenge.services.changes.impl.DeviceChangeFeedImpl;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import com.webee.challenge.services.limits.impl.RequestLimiterImpl;
+import com.webee.challenge.services.validations.impl.DeviceValidationServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end calls to DeviceMonitoringController (validation, database and marshalling) against the
+ * in-memory database, so the numbers do not depend on the network. The database is loaded with
+ * deviceCount devices before measuring, and the responses are marshalled in the format of accept.
+ * With responseCache the lookups by ID and MAC after the first one are served from DevicePayloadCache.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ControllerBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ControllerBenchmark {
+
+    private DataBaseService dataBaseService;
+    private DeviceMonitoringController controller;
+    private DeviceRequest deviceRequest;
+    private String deviceId;
+    private String deviceMac;
+    private ByteArrayOutputStream responseBody;
+
+    @Param({"1", "100", "1000"})
+    public int deviceCount;
+
+    @Param({"application/json", "application/xml"})
+    public String accept;
+
+    @Param({"false", "true"})
+    public boolean responseCache;
+
+    @Setup
+    public void setUp() throws FirebaseException {
+        dataBaseService = new InMemoryDataBaseServiceImpl();
+        for (int index = 0; index < deviceCount; index++) {
+            dataBaseService.registerDevice(BenchmarkFixtures.deviceRequest(index));
+        }
+
+        controller = new DeviceMonitoringController(new DeviceValidationServiceImpl(), dataBaseService,
+                BenchmarkFixtures.marshallerService(),
+                new DevicePayloadCacheImpl(responseCache, 60, 10000, new SimpleMeterRegistry()),
+                new DeviceChangeFeedImpl(dataBaseService, 256, 4),
+                new RequestLimiterImpl(false, 50, 5, 1000, 0.9, 500, 1, new SimpleMeterRegistry()),
+                ForkJoinPool.commonPool());
+        deviceRequest = BenchmarkFixtures.deviceRequest(deviceCount);
+        responseBody = new ByteArrayOutputStream();
+
+        List<Device> devices = dataBaseService.searchAllDevices();
+        Device device = devices.get(devices.size() / 2);
+        deviceId = device.getID();
+        deviceMac = device.getMacAddress();
+    }
+
+    @Benchmark
+    public ResponseEntity<String> getDeviceById() {
+        return controller.getDeviceById(deviceId, accept, null).join();
+    }
+
+    @Benchmark
+    public ResponseEntity<String> getDeviceByMac() {
+        return controller.getDeviceByMac(deviceMac, accept, null).join();
+    }
+
+    @Benchmark
+    public int getDevices() throws IOException {
+        responseBody.reset();
+        controller.getDevices(false, accept).join().getBody().writeTo(responseBody);
+        return responseBody.size();
+    }
+
+    /**
+     * Registers a device through the controller and deletes it straight from the database, so the
+     * size of the database does not change between invocations.
+     */
+    @Benchmark
+    public ResponseEntity<String> registerDevice() throws FirebaseException {
+        ResponseEntity<String> response = controller.registerDevice(deviceRequest).join();
+        dataBaseService.deleteDevice(dataBaseService.searchDeviceByMac(deviceRequest.getMacAddress()).getID());
+        return response;
+    }
+}
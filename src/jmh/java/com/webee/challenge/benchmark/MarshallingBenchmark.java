@@ -0,0 +1,81 @@
+package com.webee.challenge.benchmark;
+
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.marshaller.MarshallerService;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocations (with the gc profiler the profile enables) of MarshallerServiceImpl, for a
+ * single device and for lists of several sizes.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=MarshallingBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarshallingBenchmark {
+
+    private MarshallerService marshallerService;
+    private DeviceRequest deviceRequest;
+    private Device device;
+    private List<Device> deviceList;
+    private ByteArrayOutputStream outputStream;
+
+    @Param({"1", "10", "100", "1000"})
+    public int listSize;
+
+    @Setup
+    public void setUp() {
+        marshallerService = BenchmarkFixtures.marshallerService();
+        deviceRequest = BenchmarkFixtures.deviceRequest(0);
+        deviceList = BenchmarkFixtures.devices(listSize);
+        device = deviceList.get(0);
+        outputStream = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public String marshallDeviceRequest() {
+        return marshallerService.marshallDeviceRequest(deviceRequest);
+    }
+
+    @Benchmark
+    public String marshallDevice() {
+        return marshallerService.marshallDevice(device);
+    }
+
+    @Benchmark
+    public String marshallDeviceList() {
+        return marshallerService.marshallDeviceList(deviceList);
+    }
+
+    @Benchmark
+    public int writeDeviceList() throws IOException {
+        outputStream.reset();
+        marshallerService.writeDeviceList(deviceList, outputStream, false);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int writeXmlDeviceList() throws IOException {
+        outputStream.reset();
+        marshallerService.writeDeviceList(deviceList, outputStream, MarshallingFormat.XML, false);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int writePrettyDeviceList() throws IOException {
+        outputStream.reset();
+        marshallerService.writeDeviceList(deviceList, outputStream, true);
+        return outputStream.size();
+    }
+}
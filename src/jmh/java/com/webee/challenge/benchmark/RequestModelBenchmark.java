@@ -0,0 +1,168 @@
+package com.webee.challenge.benchmark;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.controllers.DeviceMonitoringController;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.cache.impl.DevicePayloadCacheImpl;
+import com.webee.challenge.services.changes.impl.DeviceChangeFeedImpl;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.impl.BoundedDataBaseService;
+import com.webee.challenge.services.database.impl.ForwardingDataBaseService;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import com.webee.challenge.services.limits.impl.RequestLimiterImpl;
+import com.webee.challenge.services.validations.impl.DeviceValidationServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the request model: the lookups per second sustained when every lookup waits
+ * latencyMillis for the database, as a blocking ApiFuture.get() does. Each invocation is a burst of
+ * clientThreads lookups, one per client thread (the request threads of the server), sent through the
+ * controller at the same time; the invocation ends when every response arrived. The lookups
+ * answered with 200 are counted in the "lookups" result, in lookups per second.
+ *
+ * With mode=request-thread the wait happens on the client thread, as without database.executor, so
+ * every client has a lookup waiting on the database. With mode=executor the lookups run on a
+ * BoundedDataBaseService of executorThreads platform threads, and with mode=virtual-thread on one
+ * virtual thread per lookup (Java 21, the setup fails on older versions). Both use the shipped limits
+ * (256 lookups at a time, 1000 queued), so with more clients than executorThreads the executor mode
+ * measures the pool as the bottleneck, not only the cost of handing the lookup over.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RequestModelBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestModelBenchmark {
+
+    private static final int LOOKUP_LIMIT = 256;
+    private static final int MAX_QUEUED = 1000;
+
+    private DataBaseService dataBaseService;
+    private DeviceMonitoringController controller;
+    private ExecutorService clients;
+    private String deviceId;
+
+    @Param({"request-thread", "executor", "virtual-thread"})
+    public String mode;
+
+    @Param({"64", "256", "1024"})
+    public int clientThreads;
+
+    @Param({"5"})
+    public int latencyMillis;
+
+    @Param({"64"})
+    public int executorThreads;
+
+    /**
+     * Lookups answered, reported by JMH per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Lookups {
+
+        public long lookups;
+    }
+
+    @Setup
+    public void setUp() throws FirebaseException, ReflectiveOperationException {
+        InMemoryDataBaseServiceImpl backend = new InMemoryDataBaseServiceImpl();
+        for (int index = 0; index < 1000; index++) {
+            backend.registerDevice(BenchmarkFixtures.deviceRequest(index));
+        }
+        List<Device> devices = backend.searchAllDevices();
+        deviceId = devices.get(devices.size() / 2).getID();
+
+        dataBaseService = new BlockingDataBaseService(backend, latencyMillis);
+        if ("executor".equals(mode)) {
+            dataBaseService = new BoundedDataBaseService(dataBaseService, Executors.newFixedThreadPool(executorThreads),
+                    LOOKUP_LIMIT, LOOKUP_LIMIT, LOOKUP_LIMIT, MAX_QUEUED, new SimpleMeterRegistry());
+        } else if ("virtual-thread".equals(mode)) {
+            ExecutorService virtualThreads = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            dataBaseService = new BoundedDataBaseService(dataBaseService, virtualThreads,
+                    LOOKUP_LIMIT, LOOKUP_LIMIT, LOOKUP_LIMIT, MAX_QUEUED, new SimpleMeterRegistry());
+        }
+
+        controller = new DeviceMonitoringController(new DeviceValidationServiceImpl(), dataBaseService,
+                BenchmarkFixtures.marshallerService(),
+                new DevicePayloadCacheImpl(false, 60, 10000, new SimpleMeterRegistry()),
+                new DeviceChangeFeedImpl(dataBaseService, 256, 4),
+                new RequestLimiterImpl(false, 50, 5, 1000, 0.9, 500, 1, new SimpleMeterRegistry()),
+                ForkJoinPool.commonPool());
+
+        ThreadPoolExecutor clientPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(clientThreads);
+        clientPool.prestartAllCoreThreads();
+        clients = clientPool;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        clients.shutdownNow();
+        if (dataBaseService instanceof BoundedDataBaseService) {
+            ((BoundedDataBaseService) dataBaseService).close();
+        }
+    }
+
+    @Benchmark
+    public int getDevicesById(Lookups lookups) throws InterruptedException, ExecutionException {
+        List<Future<ResponseEntity<String>>> responses = new ArrayList<>(clientThreads);
+        for (int client = 0; client < clientThreads; client++) {
+            responses.add(clients.submit(() -> controller.getDeviceById(deviceId, "application/json", null).join()));
+        }
+
+        int found = 0;
+        for (Future<ResponseEntity<String>> response : responses) {
+            if (response.get().getStatusCode() == HttpStatus.OK) {
+                found++;
+            }
+        }
+        lookups.lookups += found;
+        return found;
+    }
+
+    /**
+     * Lookups by ID that hold the calling thread for the latency of a database round trip.
+     */
+    private static final class BlockingDataBaseService extends ForwardingDataBaseService {
+
+        private final int latencyMillis;
+
+        private BlockingDataBaseService(DataBaseService delegate, int latencyMillis) {
+            super(delegate);
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+            return DataBaseFutures.supply(() -> {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                return delegate.searchDeviceById(id);
+            });
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.webee.challenge.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.validations.DeviceValidationService;
+import com.webee.challenge.services.validations.impl.DeviceValidationServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.ValidationException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of DeviceValidationServiceImpl against the previous implementation (the "legacy"
+ * benchmarks), which matched regular expressions with String.matches, built a DateTimeFormatter
+ * and the minimum date on every call, and logged two INFO lines per check (plus two more per device).
+ * The legacy logger is at INFO with the console pattern of the API, but its appender writes to a
+ * stream that discards the bytes: the comparison includes building and encoding the log lines, not
+ * the console I/O. DeviceValidationServiceImpl logs the valid values at DEBUG, which is off.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ValidationBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    private static final String LEGACY_REGEX_MAC = "^([0-9A-Fa-f]{2}[:]){5}([0-9A-Fa-f]{2})$";
+    private static final String LEGACY_REGEX_ID = "[a-z]{10}";
+
+    private DeviceValidationService deviceValidationService;
+    private DeviceRequest deviceRequest;
+    private org.slf4j.Logger legacyLog;
+
+    @Param({"FF:02:FF:00:24:FF", "ff:02:ff:00:24:ff"})
+    public String macAddress;
+
+    @Setup
+    public void setUp() {
+        deviceValidationService = new DeviceValidationServiceImpl();
+        deviceRequest = DeviceRequest.builder()
+                .date("21042020")
+                .macAddress("FF:02:FF:00:24:FF")
+                .build();
+        legacyLog = legacyLogger();
+    }
+
+    /**
+     * Logger at INFO writing the lines the legacy validator wrote, without the cost of the console
+     */
+    private static org.slf4j.Logger legacyLogger() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5p --- [%t] %-40.40logger{39} : %m%n");
+        encoder.start();
+
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(context);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        appender.start();
+
+        ch.qos.logback.classic.Logger logger = context.getLogger(DeviceValidationServiceImpl.class.getName() + ".legacy");
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+        logger.detachAndStopAllAppenders();
+        logger.addAppender(appender);
+        return logger;
+    }
+
+    @Benchmark
+    public boolean validateMac() {
+        try {
+            deviceValidationService.validateMac(macAddress);
+            return true;
+        } catch (ValidationException validationException) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean legacyValidateMac() {
+        return legacyMatchesMac(macAddress);
+    }
+
+    private boolean legacyMatchesMac(String macAddress) {
+        legacyLog.info("Validating MAC Address: {}", macAddress);
+        if (!macAddress.matches(LEGACY_REGEX_MAC)) {
+            return false;
+        }
+        legacyLog.info("{} is a valid MAC Address", macAddress);
+        return true;
+    }
+
+    @Benchmark
+    public boolean validateId() {
+        try {
+            deviceValidationService.validateId("qwertyuiop");
+            return true;
+        } catch (ValidationException validationException) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean legacyValidateId() {
+        String id = "qwertyuiop";
+        legacyLog.info("Validating ID: {}", id);
+        if (id.length() != 10 || !id.matches(LEGACY_REGEX_ID)) {
+            return false;
+        }
+        legacyLog.info("{} is a valid ID", id);
+        return true;
+    }
+
+    @Benchmark
+    public boolean validateDeviceRequest() {
+        try {
+            deviceValidationService.validateDeviceRequest(deviceRequest);
+            return true;
+        } catch (ValidationException validationException) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean legacyValidateDeviceRequest() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("ddMMyyyy");
+        legacyLog.info("Validating device");
+        LocalDate date = LocalDate.parse(deviceRequest.getDate(), formatter);
+        if (!legacyMatchesMac(deviceRequest.getMacAddress())) {
+            return false;
+        }
+
+        legacyLog.info("Validating date: {}", date);
+        if (date.compareTo(LocalDate.of(2020, 1, 1)) < 0) {
+            return false;
+        }
+        legacyLog.info("{} is a valid date", date);
+        legacyLog.info("Device validated");
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package com.webee.challenge.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webee.challenge.configuration.Configurations;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.marshaller.MarshallerService;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the device list in JSON with its Smile and CBOR encodings: the time to write it (server
+ * side) and the time to read it back (what the services pulling the list pay). The size of every
+ * payload is printed when the trial starts.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=WireFormatBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    private MarshallerService marshallerService;
+    private ObjectMapper reader;
+    private List<Device> deviceList;
+    private ByteArrayOutputStream outputStream;
+    private byte[] payload;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public MarshallingFormat format;
+
+    @Param({"100", "1000"})
+    public int listSize;
+
+    @Setup
+    public void setUp() throws IOException {
+        Configurations configurations = new Configurations();
+        marshallerService = BenchmarkFixtures.marshallerService();
+        deviceList = BenchmarkFixtures.devices(listSize);
+        outputStream = new ByteArrayOutputStream();
+
+        switch (format) {
+            case SMILE:
+                reader = configurations.smileMarshaller();
+                break;
+            case CBOR:
+                reader = configurations.cborMarshaller();
+                break;
+            default:
+                reader = configurations.jsonMarshaller();
+        }
+
+        marshallerService.writeDeviceList(deviceList, outputStream, format, false);
+        payload = outputStream.toByteArray();
+        System.out.println(format + " payload with " + listSize + " devices: " + payload.length + " bytes");
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        outputStream.reset();
+        marshallerService.writeDeviceList(deviceList, outputStream, format, false);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public Device[] read() throws IOException {
+        return reader.readValue(payload, Device[].class);
+    }
+}
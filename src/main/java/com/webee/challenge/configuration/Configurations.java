@@ -4,19 +4,46 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 @Configuration
 public class Configurations {
 
 
     @Bean(name = "jsonMarshaller")
+    @Primary
     public ObjectMapper jsonMarshaller() {
-        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectMapper objectMapper = configure(new ObjectMapper());
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        return objectMapper;
+    }
+
+    @Bean(name = "xmlMarshaller")
+    public XmlMapper xmlMarshaller() {
+        return configure(new XmlMapper());
+    }
+
+    @Bean(name = "smileMarshaller")
+    public ObjectMapper smileMarshaller() {
+        return configure(new ObjectMapper(new SmileFactory()));
+    }
+
+    @Bean(name = "cborMarshaller")
+    public ObjectMapper cborMarshaller() {
+        return configure(new ObjectMapper(new CBORFactory()));
+    }
+
+    /**
+     * Settings shared by the mappers of every format
+     */
+    private static <T extends ObjectMapper> T configure(T objectMapper) {
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
         return objectMapper;
     }
 }
@@ -0,0 +1,233 @@
+package com.webee.challenge.configuration;
+
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.impl.BoundedDataBaseService;
+import com.webee.challenge.services.database.impl.CachingDataBaseService;
+import com.webee.challenge.services.database.impl.CircuitBreakingDataBaseService;
+import com.webee.challenge.services.database.impl.CoalescingDataBaseService;
+import com.webee.challenge.services.database.impl.DeadlineDataBaseService;
+import com.webee.challenge.services.database.impl.HedgingDataBaseService;
+import com.webee.challenge.services.database.impl.JournalingDataBaseService;
+import com.webee.challenge.services.database.impl.ReplicatedDataBaseService;
+import com.webee.challenge.services.database.impl.TimedDataBaseService;
+import com.webee.challenge.services.database.impl.WriteAheadLog;
+import com.webee.challenge.services.database.impl.WriteBehindDataBaseService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the DataBaseService used by the API: the selected backend (dataBaseBackend) wrapped with
+ * the decorators enabled in application.properties.
+ */
+@Configuration
+public class DataBaseConfiguration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataBaseConfiguration.class);
+
+    @Value("${database.backend:firestore}")
+    private String backendName;
+
+    @Value("${database.executor.enabled:false}")
+    private boolean executorEnabled;
+
+    @Value("${database.executor.threads:64}")
+    private int executorThreads;
+
+    @Value("${database.executor.virtual-threads:false}")
+    private boolean executorVirtualThreads;
+
+    @Value("${database.executor.max-concurrent-lookups:256}")
+    private int executorMaxConcurrentLookups;
+
+    @Value("${database.executor.max-concurrent-scans:8}")
+    private int executorMaxConcurrentScans;
+
+    @Value("${database.executor.max-concurrent-writes:128}")
+    private int executorMaxConcurrentWrites;
+
+    @Value("${database.executor.max-queued:1000}")
+    private int executorMaxQueued;
+
+    @Value("${database.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${database.hedging.percentile:95}")
+    private double hedgingPercentile;
+
+    @Value("${database.hedging.min-delay-millis:5}")
+    private long hedgingMinDelayMillis;
+
+    @Value("${database.deadlines.enabled:true}")
+    private boolean deadlinesEnabled;
+
+    @Value("${database.deadlines.lookup-millis:2000}")
+    private long deadlinesLookupMillis;
+
+    @Value("${database.deadlines.scan-millis:10000}")
+    private long deadlinesScanMillis;
+
+    @Value("${database.deadlines.write-millis:5000}")
+    private long deadlinesWriteMillis;
+
+    @Value("${database.circuit-breaker.enabled:false}")
+    private boolean circuitBreakerEnabled;
+
+    @Value("${database.circuit-breaker.window-size:20}")
+    private int circuitBreakerWindowSize;
+
+    @Value("${database.circuit-breaker.failure-rate-threshold:50}")
+    private int circuitBreakerFailureRateThreshold;
+
+    @Value("${database.circuit-breaker.open-millis:10000}")
+    private long circuitBreakerOpenMillis;
+
+    @Value("${database.circuit-breaker.fallback-entries:10000}")
+    private long circuitBreakerFallbackEntries;
+
+    @Value("${database.circuit-breaker.fallback-ttl-seconds:300}")
+    private long circuitBreakerFallbackTtlSeconds;
+
+    @Value("${database.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    @Value("${database.write-behind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    @Value("${database.write-behind.queue-size:10000}")
+    private int writeBehindQueueSize;
+
+    @Value("${database.write-behind.batch-size:500}")
+    private int writeBehindBatchSize;
+
+    @Value("${database.write-behind.max-delay-millis:10}")
+    private long writeBehindMaxDelayMillis;
+
+    @Value("${database.write-behind.ack:commit}")
+    private String writeBehindAck;
+
+    @Value("${database.wal.enabled:false}")
+    private boolean walEnabled;
+
+    @Value("${database.wal.directory:wal}")
+    private String walDirectory;
+
+    @Value("${database.wal.segment-size-mb:16}")
+    private int walSegmentSizeMb;
+
+    @Value("${database.wal.retry-millis:500}")
+    private long walRetryMillis;
+
+    @Value("${database.wal.max-retry-millis:30000}")
+    private long walMaxRetryMillis;
+
+    @Value("${database.wal.max-attempts:20}")
+    private int walMaxAttempts;
+
+    @Value("${database.replica.enabled:false}")
+    private boolean replicaEnabled;
+
+    @Value("${database.replica.max-staleness-seconds:30}")
+    private long replicaMaxStalenessSeconds;
+
+    @Value("${database.replica.retry-seconds:5}")
+    private long replicaRetrySeconds;
+
+    @Value("${database.cache.enabled:false}")
+    private boolean cacheEnabled;
+
+    @Value("${database.cache.ttl-seconds:60}")
+    private long cacheTtlSeconds;
+
+    @Value("${database.cache.max-entries:10000}")
+    private long cacheMaxEntries;
+
+    @Bean
+    @Primary
+    public DataBaseService dataBaseService(@Qualifier("dataBaseBackend") DataBaseService backend,
+                                           MeterRegistry meterRegistry) throws IOException {
+        DataBaseService dataBaseService = new TimedDataBaseService(backend, backendName, meterRegistry);
+
+        if (executorEnabled) {
+            dataBaseService = new BoundedDataBaseService(dataBaseService, databaseExecutor(),
+                    executorMaxConcurrentLookups, executorMaxConcurrentScans, executorMaxConcurrentWrites,
+                    executorMaxQueued, meterRegistry);
+        }
+        if (hedgingEnabled) {
+            dataBaseService = new HedgingDataBaseService(dataBaseService, hedgingPercentile,
+                    Duration.ofMillis(hedgingMinDelayMillis), meterRegistry);
+        }
+        if (deadlinesEnabled) {
+            dataBaseService = new DeadlineDataBaseService(dataBaseService, Duration.ofMillis(deadlinesLookupMillis),
+                    Duration.ofMillis(deadlinesScanMillis), Duration.ofMillis(deadlinesWriteMillis), meterRegistry);
+        }
+        if (circuitBreakerEnabled) {
+            dataBaseService = new CircuitBreakingDataBaseService(dataBaseService, circuitBreakerWindowSize,
+                    circuitBreakerFailureRateThreshold, Duration.ofMillis(circuitBreakerOpenMillis),
+                    circuitBreakerFallbackEntries, Duration.ofSeconds(circuitBreakerFallbackTtlSeconds), meterRegistry);
+        }
+        if (coalescingEnabled) {
+            dataBaseService = new CoalescingDataBaseService(dataBaseService, meterRegistry);
+        }
+
+        if (writeBehindEnabled) {
+            dataBaseService = new WriteBehindDataBaseService(dataBaseService, writeBehindQueueSize,
+                    writeBehindBatchSize, Duration.ofMillis(writeBehindMaxDelayMillis),
+                    WriteBehindDataBaseService.Acknowledgement.valueOf(writeBehindAck.toUpperCase()), meterRegistry);
+        }
+        if (walEnabled) {
+            WriteAheadLog writeAheadLog = WriteAheadLog.open(Paths.get(walDirectory), walSegmentSizeMb * 1024 * 1024);
+            dataBaseService = new JournalingDataBaseService(dataBaseService, writeAheadLog,
+                    Duration.ofMillis(walRetryMillis), Duration.ofMillis(walMaxRetryMillis), walMaxAttempts, meterRegistry);
+        }
+
+        if (replicaEnabled) {
+            ReplicatedDataBaseService replica = new ReplicatedDataBaseService(dataBaseService,
+                    Duration.ofSeconds(replicaMaxStalenessSeconds), Duration.ofSeconds(replicaRetrySeconds),
+                    meterRegistry);
+            replica.start();
+            dataBaseService = replica;
+        }
+        if (cacheEnabled) {
+            dataBaseService = new CachingDataBaseService(dataBaseService, Duration.ofSeconds(cacheTtlSeconds),
+                    cacheMaxEntries, meterRegistry);
+        }
+        return dataBaseService;
+    }
+
+    /**
+     * Virtual threads need Java 21, the API is built for Java 8, so they are looked up at runtime and
+     * the fixed pool of platform threads is used when they are not available.
+     */
+    private ExecutorService databaseExecutor() {
+        if (executorVirtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException exc) {
+                LOG.warn("Virtual threads are not available in Java {}, using {} platform threads",
+                        System.getProperty("java.version"), executorThreads);
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "device-database-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(executorThreads, threadFactory);
+    }
+}
@@ -2,11 +2,21 @@ package com.webee.challenge.constants;
 
 public class Constants {
 
-    public static final String REGEXPMAC = "^([0-9A-Fa-f]{2}[:]){5}([0-9A-Fa-f]{2})$";
+    public static final String COLLECTION = "device";
 
-    public static final String REGEXID = "[a-z]{10}";
+    public static final String MAC_INDEX_COLLECTION = "device-mac";
 
-    public static final String COLLECTION = "device";
+    public static final String LAYOUT_DEVICE_ID = "device-id";
 
     public static final String NULL = "null";
+
+    public static final int BULK_LOOKUP_CHUNK = 100;
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static final int STREAM_PAGE_SIZE = 500;
+
+    public static final long CHANGE_FEED_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
 }
@@ -1,22 +1,64 @@
 package com.webee.challenge.controllers;
 
 import com.google.firebase.FirebaseException;
+import com.webee.challenge.constants.Constants;
 import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
 import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.cache.DevicePayload;
+import com.webee.challenge.services.cache.DevicePayloadCache;
+import com.webee.challenge.services.changes.DeviceChangeFeed;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
 import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseTimeoutException;
+import com.webee.challenge.services.database.DataBaseUnavailableException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.limits.RequestLimiter;
+import com.webee.challenge.services.limits.RequestLimiter.EndpointGroup;
+import com.webee.challenge.services.marshaller.DeviceListWriter;
 import com.webee.challenge.services.marshaller.MarshallerService;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
 import com.webee.challenge.services.validations.DeviceValidationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.xml.bind.ValidationException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
+/**
+ * The database operations complete on whatever thread answered them (Firestore completes them on its
+ * gRPC callback threads), so the responses are built (marshalled, cached) on the application task
+ * executor, see spring.task.execution.pool.*.
+ */
 @RestController
 @RequestMapping("device-monitoring")
 public class DeviceMonitoringController {
@@ -26,44 +68,259 @@ public class DeviceMonitoringController {
     private DeviceValidationService deviceValidationService;
     private DataBaseService dataBaseService;
     private MarshallerService marshallerService;
+    private DevicePayloadCache devicePayloadCache;
+    private DeviceChangeFeed deviceChangeFeed;
+    private RequestLimiter requestLimiter;
+    private Executor responseExecutor;
 
     @Autowired
     public DeviceMonitoringController(DeviceValidationService deviceValidationService,
                                       DataBaseService dataBaseService,
-                                      MarshallerService marshallerService) {
+                                      MarshallerService marshallerService,
+                                      DevicePayloadCache devicePayloadCache,
+                                      DeviceChangeFeed deviceChangeFeed,
+                                      RequestLimiter requestLimiter,
+                                      @Qualifier("applicationTaskExecutor") Executor responseExecutor) {
         this.deviceValidationService = deviceValidationService;
         this.dataBaseService = dataBaseService;
         this.marshallerService = marshallerService;
+        this.devicePayloadCache = devicePayloadCache;
+        this.deviceChangeFeed = deviceChangeFeed;
+        this.requestLimiter = requestLimiter;
+        this.responseExecutor = responseExecutor;
     }
 
     /**
-     * Returns a JSON formatted List of saved devices, when receiving a GET request in the
-     * endpoint: /device-monitoring/get-devices-list.
+     * Returns the saved devices, when receiving a GET request in the endpoint:
+     * /device-monitoring/get-devices-list. The list is written straight to the response, as a JSON
+     * array (or its Smile or CBOR encoding) or as a devices XML element depending on the Accept header,
+     * compact unless pretty=true is requested.
      *
-     * @return ResponseEntity<String> there are two possible responses when a request reaches this
-     *          endpoint:
+     * @param pretty true to indent the list
+     * @param accept Accept header of the request, JSON is returned unless it prefers XML, Smile or CBOR
+     *
+     * @return CompletableFuture<ResponseEntity<StreamingResponseBody>> completed without blocking the
+     *          request thread, there are two possible responses when a request reaches this endpoint:
      *
-     *          1) HttpStatus = 200, the body of the response has a marshall list of all registered
-     *          devices.
+     *          1) HttpStatus = 200, the body of the response is the list of all registered devices.
      *
      *          2) HttpStatus = 500, the body of the response has a message with the problem, related
      *          to the database.
+     *
+     *          3) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          4) HttpStatus = 504, the database did not answer before the deadline.
      */
-    @GetMapping(path = "/get-devices-list", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
-    public ResponseEntity<String> getDevices() {
+    @GetMapping(path = "/get-devices-list", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE,
+            Constants.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> getDevices(@RequestParam(defaultValue = "false") boolean pretty,
+                                                                               @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         LOG.info("GET Request received, endpoint: /device-monitoring/get-devices-list");
-        List<Device> deviceList = null;
+        MarshallingFormat format = MarshallingFormat.negotiate(accept);
+
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.SCAN);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(streamingOverloaded(EndpointGroup.SCAN));
+        }
+
+        return permit.track(() -> dataBaseService.searchAllDevicesAsync()).handleAsync((deviceList, throwable) -> {
+            if (throwable != null) {
+                return streamingDatabaseError("Problem while searching in the database: ", throwable);
+            }
+
+            LOG.info("Devices found: {}", deviceList.size());
+            StreamingResponseBody body = outputStream -> marshallerService.writeDeviceList(deviceList, outputStream, format, pretty);
+            return ResponseEntity.ok().contentType(format.getMediaType()).body(body);
+        }, responseExecutor);
+    }
+
+    /**
+     * Returns a page of the saved devices, when receiving a GET request in the endpoint:
+     * /device-monitoring/get-devices-list?limit=100&pageToken=token. The first page is requested
+     * without pageToken, and each page has the token of the next one (null on the last page).
+     *
+     * @param limit maximum number of devices of the page, between 1 and 1000
+     * @param pageToken nextPageToken of the previous page
+     *
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are three possible responses when a request reaches this endpoint:
+     *
+     *          1) HttpStatus = 200, the body of the response has the marshall page of devices.
+     *
+     *          2) HttpStatus = 400, the body of the response has a message with the problem, related
+     *          to the limit.
+     *
+     *          3) HttpStatus = 500, the body of the response has a message with the problem, related
+     *          to the database.
+     *
+     *          4) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          5) HttpStatus = 504, the database did not answer before the deadline.
+     */
+    @GetMapping(path = "/get-devices-list", params = "limit", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public CompletableFuture<ResponseEntity<String>> getDevicesPage(@RequestParam int limit,
+                                                                    @RequestParam(required = false) String pageToken) {
+        LOG.info("GET Request received, endpoint: /device-monitoring/get-devices-list, limit {}, page token {}", limit, pageToken);
+
+        if (limit < 1 || limit > Constants.MAX_PAGE_SIZE) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(
+                    "Not a valid limit (it has to be between 1 and " + Constants.MAX_PAGE_SIZE + ")", HttpStatus.BAD_REQUEST));
+        }
 
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.SCAN);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(overloaded(EndpointGroup.SCAN));
+        }
+
+        return permit.track(() -> dataBaseService.searchDevicesPageAsync(limit, pageToken)).handleAsync((devicePage, throwable) -> {
+            if (throwable != null) {
+                return databaseError("Problem while searching in the database: ", throwable);
+            }
+
+            LOG.info("Devices found: {}, next page token {}", devicePage.getDevices().size(), devicePage.getNextPageToken());
+            return new ResponseEntity<>(marshallerService.marshallDevicePage(devicePage), HttpStatus.OK);
+        }, responseExecutor);
+    }
+
+    /**
+     * Streams all the saved devices, when receiving a GET request in the endpoint:
+     * /device-monitoring/stream-devices-list. The devices are read from the database page by page and
+     * written as each page arrives, so the list is never kept in memory. The list is a JSON array (or
+     * its Smile or CBOR encoding) or a devices XML element depending on the Accept header. When the
+     * database fails in the middle of the list, it is left unfinished. The request keeps its SCAN
+     * permit until the whole list is written, or until the request ends without writing it (timed
+     * out or failed).
+     *
+     * @param pretty true to indent the list
+     * @param accept Accept header of the request, JSON is returned unless it prefers XML, Smile or CBOR
+     * @param webRequest the request, to release the permit when its async processing ends
+     *
+     * @return CompletableFuture<ResponseEntity<StreamingResponseBody>> there are two possible responses
+     *          when a request reaches this endpoint:
+     *
+     *          1) HttpStatus = 200, the body of the response is the list of devices.
+     *
+     *          2) HttpStatus = 500, the first page could not be read, the body of the response has a
+     *          message with the problem, related to the database.
+     *
+     *          3) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          4) HttpStatus = 504, the database did not answer before the deadline.
+     */
+    @GetMapping(path = "/stream-devices-list", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE,
+            Constants.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamDevices(@RequestParam(defaultValue = "false") boolean pretty,
+                                                                                  @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                                                  NativeWebRequest webRequest) {
+        LOG.info("GET Request received, endpoint: /device-monitoring/stream-devices-list");
+        MarshallingFormat format = MarshallingFormat.negotiate(accept);
+
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.SCAN);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(streamingOverloaded(EndpointGroup.SCAN));
+        }
+
+        CompletableFuture<Void> streamed = new CompletableFuture<>();
+        StreamRelease streamRelease = new StreamRelease(streamed);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(webRequest);
+        asyncManager.registerDeferredResultInterceptor(StreamRelease.class, streamRelease);
+        asyncManager.registerCallableInterceptor(StreamRelease.class, streamRelease);
+
+        return permit.holdUntil(streamed)
+                .track(() -> dataBaseService.searchDevicesPageAsync(Constants.STREAM_PAGE_SIZE, null))
+                .handleAsync((firstPage, throwable) -> {
+                    if (throwable != null) {
+                        streamed.complete(null);
+                        return streamingDatabaseError("Problem while searching in the database: ", throwable);
+                    }
+
+                    StreamingResponseBody body = outputStream -> {
+                        try {
+                            writeDevicePages(firstPage, outputStream, format, pretty);
+                        } finally {
+                            streamed.complete(null);
+                        }
+                    };
+                    return ResponseEntity.ok().contentType(format.getMediaType()).body(body);
+                }, responseExecutor);
+    }
+
+    private void writeDevicePages(DevicePage firstPage, OutputStream outputStream, MarshallingFormat format,
+                                  boolean pretty) throws IOException {
+        DeviceListWriter writer = marshallerService.openDeviceListWriter(outputStream, format, pretty);
+        DevicePage devicePage = firstPage;
+        int devices = 0;
+
+        while (true) {
+            for (Device device : devicePage.getDevices()) {
+                writer.write(device);
+            }
+            writer.flush();
+            devices += devicePage.getDevices().size();
+
+            if (devicePage.getNextPageToken() == null) {
+                break;
+            }
+
+            try {
+                devicePage = dataBaseService.searchDevicesPage(Constants.STREAM_PAGE_SIZE, devicePage.getNextPageToken());
+            } catch (FirebaseException firebaseException) {
+                LOG.error("Problem while searching in the database, stream stopped after {} devices: ", devices, firebaseException);
+                throw new IOException(firebaseException.getMessage(), firebaseException);
+            }
+        }
+
+        writer.close();
+        LOG.info("Devices streamed: {}", devices);
+    }
+
+    /**
+     * Sends the devices added and removed from now on as server-sent events, when receiving a GET
+     * request in the endpoint: /device-monitoring/device-changes. Each event is named ADDED or
+     * REMOVED and its data is the change, for example:
+     * event:ADDED
+     * data:{"type":"ADDED","device":{"date":"21042020","macAddress":"FF:AA:FF:24:24:FF","id":"qwertyuiop"}}
+     *
+     * A client that does not keep up gets a "closed" event and the stream ends, it has to read the
+     * devices again before subscribing again.
+     *
+     * @return ResponseEntity<SseEmitter> there are two possible responses when a request reaches this
+     *          endpoint:
+     *
+     *          1) HttpStatus = 200, the body of the response is the stream of changes.
+     *
+     *          2) HttpStatus = 500, the database listener could not be started, the stream has a
+     *          "closed" event with the problem.
+     */
+    @GetMapping(path = "/device-changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamDeviceChanges() {
+        LOG.info("GET Request received, endpoint: /device-monitoring/device-changes");
+
+        SseEmitter emitter = new SseEmitter(Constants.CHANGE_FEED_TIMEOUT_MILLIS);
+        SseDeviceChangeSubscriber subscriber = new SseDeviceChangeSubscriber(emitter, marshallerService);
+        Closeable subscription;
         try {
-            deviceList = dataBaseService.searchAllDevices();
+            subscription = deviceChangeFeed.subscribe(subscriber);
         } catch (FirebaseException firebaseException) {
-            LOG.error("Problem while searching in the database: ", firebaseException);
-            return new ResponseEntity<>(firebaseException.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            LOG.error("Problem while listening to the database: ", firebaseException);
+            subscriber.onClose(firebaseException.getMessage());
+            return new ResponseEntity<>(emitter, HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        String marshalledDevice = marshallerService.marshallDeviceList(deviceList);
-        LOG.info("Devices found: {}", deviceList);
-        return new ResponseEntity<>(marshalledDevice, HttpStatus.OK);
+        Runnable unsubscribe = () -> {
+            try {
+                subscription.close();
+            } catch (IOException ioException) {
+                LOG.error("Problem while closing the change feed subscription: ", ioException);
+            }
+        };
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(throwable -> unsubscribe.run());
+        return new ResponseEntity<>(emitter, HttpStatus.OK);
     }
 
     /**
@@ -71,40 +328,67 @@ public class DeviceMonitoringController {
      * /device-monitoring/get-device-by-mac/macAddress.
      *
      * @param deviceMac MAC Address of the device
+     * @param accept Accept header of the request, the device is returned as JSON unless it prefers XML
+     * @param ifNoneMatch If-None-Match header of the request, with the ETag of a previous response
      *
-     * @return ResponseEntity<String> there are three possible responses when a request reaches this
-     *          endpoint:
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are four possible responses when a request reaches this endpoint:
      *
-     *          1) HttpStatus = 200, the body of the response has the marshall device that was found.
+     *          1) HttpStatus = 200, the body of the response has the marshall device that was found, and its ETag.
      *
      *          2) HttpStatus = 400, the body of the response has a message with the problem, related
      *          to a validation of the MAC Address.
      *
-     *          3) HttpStatus = 500, the body of the response has a message with the problem, related
+     *          3) HttpStatus = 304, the device did not change since the response with the ETag of
+     *          If-None-Match, the body is empty.
+     *
+     *          4) HttpStatus = 500, the body of the response has a message with the problem, related
      *          to the database.
+     *
+     *          5) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          6) HttpStatus = 504, the database did not answer before the deadline.
      */
     @GetMapping(path = "/get-device-by-mac/{deviceMac}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
-    public ResponseEntity<String> getDeviceByMac(@PathVariable String deviceMac) {
+    public CompletableFuture<ResponseEntity<String>> getDeviceByMac(@PathVariable String deviceMac,
+                                                                    @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         LOG.info("GET Request received, endpoint: /device-monitoring/get-device-by-mac/{}", deviceMac);
-        Device device = null;
 
         try {
             deviceValidationService.validateMac(deviceMac);
-            device = dataBaseService.searchDeviceByMac(deviceMac);
 
         } catch (ValidationException validationException) {
 
             LOG.error("Invalid MAC address: ", validationException);
-            return new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(
+                    new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST));
+        }
 
-        } catch (FirebaseException firebaseException) {
-            LOG.error("Problem while searching in the database: ", firebaseException);
-            return new ResponseEntity<>(firebaseException.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        MarshallingFormat format = MarshallingFormat.negotiate(accept, MarshallingFormat.TEXT_FORMATS);
+        DevicePayload cachedPayload = devicePayloadCache.getByMac(deviceMac, format);
+        if (cachedPayload != null) {
+            LOG.info("Device with {} MAC Address found in the response cache: {}", deviceMac, cachedPayload.getDeviceId());
+            return CompletableFuture.completedFuture(payloadResponse(cachedPayload, format, ifNoneMatch));
         }
 
-        String marshalledDevice = marshallerService.marshallDevice(device);
-        LOG.info("Device with {} MAC Address found: {}", deviceMac, marshalledDevice);
-        return new ResponseEntity<>(marshalledDevice, HttpStatus.OK);
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.LOOKUP);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(overloaded(EndpointGroup.LOOKUP));
+        }
+
+        long generation = devicePayloadCache.getGeneration();
+        return permit.track(() -> dataBaseService.searchDeviceByMacAsync(deviceMac)).handleAsync((device, throwable) -> {
+            if (throwable != null) {
+                return databaseError("Problem while searching in the database: ", throwable);
+            }
+
+            DevicePayload payload = devicePayloadCache.putByMac(deviceMac, format, device.getID(),
+                    marshallerService.marshallDevice(device, format), generation);
+            LOG.info("Device with {} MAC Address found: {}", deviceMac, device.getID());
+            return payloadResponse(payload, format, ifNoneMatch);
+        }, responseExecutor);
     }
 
     /**
@@ -112,39 +396,180 @@ public class DeviceMonitoringController {
      * /device-monitoring/get-device-by-id/deviceID.
      *
      * @param deviceID ID of the device
+     * @param accept Accept header of the request, the device is returned as JSON unless it prefers XML
+     * @param ifNoneMatch If-None-Match header of the request, with the ETag of a previous response
      *
-     * @return ResponseEntity<String> there are three possible responses when a request reaches this
-     *          endpoint:
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are four possible responses when a request reaches this endpoint:
      *
-     *          1) HttpStatus = 200, the body of the response has the marshall device that was found.
+     *          1) HttpStatus = 200, the body of the response has the marshall device that was found, and its ETag.
      *
      *          2) HttpStatus = 400, the body of the response has a message with the problem, related
      *          to a validation of the ID.
      *
-     *          3) HttpStatus = 500, the body of the response has a message with the problem, related
+     *          3) HttpStatus = 304, the device did not change since the response with the ETag of
+     *          If-None-Match, the body is empty.
+     *
+     *          4) HttpStatus = 500, the body of the response has a message with the problem, related
      *          to the database.
+     *
+     *          5) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          6) HttpStatus = 504, the database did not answer before the deadline.
      */
     @GetMapping(path = "/get-device-by-id/{deviceID}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
-    public ResponseEntity<String> getDeviceById(@PathVariable String deviceID) {
+    public CompletableFuture<ResponseEntity<String>> getDeviceById(@PathVariable String deviceID,
+                                                                   @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         LOG.info("GET Request received, endpoint: /device-monitoring/get-device-by-id/{}", deviceID);
-        Device device = null;
 
         try {
             deviceValidationService.validateId(deviceID);
-            device = dataBaseService.searchDeviceById(deviceID);
 
         } catch (ValidationException validationException) {
             LOG.error("Invalid ID: ", validationException);
-            return new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(
+                    new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST));
+        }
 
-        } catch (FirebaseException firebaseException) {
-            LOG.error("Problem while searching in the database: ", firebaseException);
-            return new ResponseEntity<>(firebaseException.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        MarshallingFormat format = MarshallingFormat.negotiate(accept, MarshallingFormat.TEXT_FORMATS);
+        DevicePayload cachedPayload = devicePayloadCache.getById(deviceID, format);
+        if (cachedPayload != null) {
+            LOG.info("Device with {} ID found in the response cache", deviceID);
+            return CompletableFuture.completedFuture(payloadResponse(cachedPayload, format, ifNoneMatch));
+        }
+
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.LOOKUP);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(overloaded(EndpointGroup.LOOKUP));
+        }
+
+        long generation = devicePayloadCache.getGeneration();
+        return permit.track(() -> dataBaseService.searchDeviceByIdAsync(deviceID)).handleAsync((device, throwable) -> {
+            if (throwable != null) {
+                return databaseError("Problem while searching in the database: ", throwable);
+            }
+
+            DevicePayload payload = devicePayloadCache.putById(deviceID, format, device.getID(),
+                    marshallerService.marshallDevice(device, format), generation);
+            LOG.info("Device with {} ID found", deviceID);
+            return payloadResponse(payload, format, ifNoneMatch);
+        }, responseExecutor);
+    }
+
+    /**
+     * Returns the devices of a list of IDs, when receiving a POST request in the endpoint:
+     * /device-monitoring/get-devices-by-id. It expects a body message like:
+     * ["qwertyuiop", "asdfghjklz"]
+     *
+     * @param deviceIDs IDs of the devices
+     *
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are two possible responses when a request reaches this endpoint:
+     *
+     *          1) HttpStatus = 200, the body of the response has one entry per ID, telling whether the
+     *          device was found, and the device or the problem found.
+     *
+     *          2) HttpStatus = 400, the body of the request has no IDs or has null entries.
+     *
+     *          3) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          4) HttpStatus = 504, the database did not answer before the deadline.
+     */
+    @PostMapping(path = "/get-devices-by-id", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public CompletableFuture<ResponseEntity<String>> getDevicesByIds(@RequestBody List<String> deviceIDs) {
+        LOG.info("POST Request received, endpoint: /device-monitoring/get-devices-by-id, {} IDs",
+                (deviceIDs == null) ? 0 : deviceIDs.size());
+        return searchDevices(deviceIDs, deviceValidationService::validateId, dataBaseService::searchDevicesByIdsAsync);
+    }
+
+    /**
+     * Returns the devices of a list of MAC addresses, when receiving a POST request in the endpoint:
+     * /device-monitoring/get-devices-by-mac. It expects a body message like:
+     * ["FF:AA:FF:24:24:FF", "FF:AA:FF:24:24:AA"]
+     *
+     * @param deviceMacs MAC addresses of the devices
+     *
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are two possible responses when a request reaches this endpoint:
+     *
+     *          1) HttpStatus = 200, the body of the response has one entry per MAC address, telling
+     *          whether the device was found, and the device or the problem found.
+     *
+     *          2) HttpStatus = 400, the body of the request has no MAC addresses or has null entries.
+     *
+     *          3) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          4) HttpStatus = 504, the database did not answer before the deadline.
+     */
+    @PostMapping(path = "/get-devices-by-mac", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public CompletableFuture<ResponseEntity<String>> getDevicesByMacs(@RequestBody List<String> deviceMacs) {
+        LOG.info("POST Request received, endpoint: /device-monitoring/get-devices-by-mac, {} MAC addresses",
+                (deviceMacs == null) ? 0 : deviceMacs.size());
+        return searchDevices(deviceMacs, deviceValidationService::validateMac, dataBaseService::searchDevicesByMacsAsync);
+    }
+
+    /**
+     * Validates every key, and looks up only the valid ones with a single bulk call to the database.
+     * The invalid keys are answered as invalid with the validation message, and a list with null
+     * entries is rejected.
+     */
+    private CompletableFuture<ResponseEntity<String>> searchDevices(
+            List<String> keys, KeyValidator validator,
+            Function<List<String>, CompletableFuture<Map<String, DeviceLookupResult>>> bulkLookup) {
+        if (keys == null || keys.isEmpty()) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>("No devices to search", HttpStatus.BAD_REQUEST));
         }
 
-        String marshalledDevice = marshallerService.marshallDevice(device);
-        LOG.info("Device with {} ID found: {}", deviceID, marshalledDevice);
-        return new ResponseEntity<>(marshalledDevice, HttpStatus.OK);
+        if (keys.contains(null)) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>("The list has null entries", HttpStatus.BAD_REQUEST));
+        }
+
+        Map<String, DeviceLookupResult> results = new LinkedHashMap<>();
+        List<String> validKeys = new ArrayList<>(keys.size());
+
+        for (String key : keys) {
+            try {
+                validator.validate(key);
+                results.put(key, null);
+                validKeys.add(key);
+            } catch (ValidationException validationException) {
+                results.put(key, DeviceLookupResult.invalid(validationException.getMessage()));
+            }
+        }
+
+        CompletableFuture<Map<String, DeviceLookupResult>> lookup;
+        if (validKeys.isEmpty()) {
+            lookup = CompletableFuture.completedFuture(new LinkedHashMap<>());
+        } else {
+            RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.LOOKUP);
+            if (permit == null) {
+                return CompletableFuture.completedFuture(overloaded(EndpointGroup.LOOKUP));
+            }
+            lookup = permit.track(() -> bulkLookup.apply(validKeys));
+        }
+
+        return lookup.handleAsync((found, throwable) -> {
+            if (throwable != null) {
+                return databaseError("Problem while searching in the database: ", throwable);
+            }
+
+            results.putAll(found);
+            return new ResponseEntity<>(marshallerService.marshallLookupResults(results), HttpStatus.OK);
+        }, responseExecutor);
+    }
+
+    /**
+     * Validation applied to each key received by the bulk lookups
+     */
+    @FunctionalInterface
+    private interface KeyValidator {
+        void validate(String key) throws ValidationException;
     }
 
     /**
@@ -157,8 +582,8 @@ public class DeviceMonitoringController {
      *
      * @param device Device parameter (date and MAC address only)
      *
-     * @return ResponseEntity<String> there are three possible responses when a request reaches this
-     *          endpoint:
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are three possible responses when a request reaches this endpoint:
      *
      *          1) HttpStatus = 200, the body of the response has a message "device registered".
      *
@@ -167,37 +592,145 @@ public class DeviceMonitoringController {
      *
      *          3) HttpStatus = 500, the body of the response has a message with the problem, related
      *          to the database.
+     *
+     *          4) HttpStatus = 429, too many devices are waiting to be saved (write-behind mode).
+     *
+     *          5) HttpStatus = 409, there is already a device with that MAC Address
+     *          (database.unique-mac=true).
+     *
+     *          6) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          7) HttpStatus = 504, the database did not answer before the deadline.
      */
     @PostMapping(path = "/register-device", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
             produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
-    public ResponseEntity<String> registerDevice(@RequestBody DeviceRequest device) {
+    public CompletableFuture<ResponseEntity<String>> registerDevice(@RequestBody DeviceRequest device) {
         LOG.info("Post request received, device: {}", device);
 
         try {
             deviceValidationService.validateDeviceRequest(device);
-            dataBaseService.registerDevice(device);
 
         } catch (ValidationException validationException) {
             LOG.error("Invalid device: ", validationException);
-            return new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(
+                    new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST));
+        }
 
-        } catch (FirebaseException firebaseException) {
-            LOG.error("Device not inserted: ", firebaseException);
-            return new ResponseEntity<>(firebaseException.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.WRITE);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(overloaded(EndpointGroup.WRITE));
         }
 
-        LOG.info("Device registered: {}", marshallerService.marshallDeviceRequest(device));
-        return new ResponseEntity<>("Device registered", HttpStatus.CREATED);
+        return permit.track(() -> dataBaseService.registerDeviceAsync(device)).handleAsync((result, throwable) -> {
+            devicePayloadCache.invalidateMac(device.getMacAddress());
+            if (throwable != null) {
+                return databaseError("Device not inserted: ", throwable);
+            }
+
+            LOG.info("Device registered: {}", device);
+            return new ResponseEntity<>("Device registered", HttpStatus.CREATED);
+        }, responseExecutor);
     }
 
+    /**
+     * Register a list of devices, when receiving a POST request in the endpoint:
+     * /device-monitoring/register-devices. Every device is validated first, and the valid ones are
+     * saved with batched writes. It expects a body message like:
+     * [
+     *    {"date": "21042020", "macAddress": "FF:AA:FF:24:24:FF"},
+     *    {"date": "22042020", "macAddress": "FF:AA:FF:24:24:AA"}
+     * ]
+     *
+     * @param devices list of devices (date and MAC address only)
+     *
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are three possible responses when a request reaches this endpoint:
+     *
+     *          1) HttpStatus = 201, every device was registered. The body of the response has one
+     *          result per device, in the same order, with the generated ID.
+     *
+     *          2) HttpStatus = 207, some devices were not registered. The body of the response has one
+     *          result per device, the ones not registered have the message with the problem.
+     *
+     *          3) HttpStatus = 400, the body of the request has no devices.
+     *
+     *          4) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          5) HttpStatus = 504, the database did not answer before the deadline.
+     */
+    @PostMapping(path = "/register-devices", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public CompletableFuture<ResponseEntity<String>> registerDevices(@RequestBody List<DeviceRequest> devices) {
+        LOG.info("Post request received, {} devices", (devices == null) ? 0 : devices.size());
+
+        if (devices == null || devices.isEmpty()) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>("No devices to register", HttpStatus.BAD_REQUEST));
+        }
+
+        List<DeviceRegistrationResult> results = new ArrayList<>(devices.size());
+        List<DeviceRequest> validDevices = new ArrayList<>(devices.size());
+        List<Integer> validIndexes = new ArrayList<>(devices.size());
+
+        for (int index = 0; index < devices.size(); index++) {
+            DeviceRequest device = devices.get(index);
+            DeviceRegistrationResult result = DeviceRegistrationResult.builder()
+                    .index(index)
+                    .macAddress((device == null) ? null : device.getMacAddress())
+                    .build();
+            try {
+                if (device == null) {
+                    throw new ValidationException("Not a valid device");
+                }
+                deviceValidationService.validateDeviceRequest(device);
+                validDevices.add(device);
+                validIndexes.add(index);
+            } catch (ValidationException validationException) {
+                LOG.error("Invalid device at position {}: {}", index, validationException.getMessage());
+                result.setMessage(validationException.getMessage());
+            }
+            results.add(result);
+        }
+
+        CompletableFuture<List<DeviceRegistrationResult>> registered;
+        if (validDevices.isEmpty()) {
+            registered = CompletableFuture.completedFuture(new ArrayList<>());
+        } else {
+            RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.WRITE);
+            if (permit == null) {
+                return CompletableFuture.completedFuture(overloaded(EndpointGroup.WRITE));
+            }
+            registered = permit.track(() -> dataBaseService.registerDevicesAsync(validDevices));
+        }
+
+        return registered.handleAsync((savedResults, throwable) -> {
+            validDevices.forEach(device -> devicePayloadCache.invalidateMac(device.getMacAddress()));
+            if (throwable != null) {
+                return databaseError("Devices not inserted: ", throwable);
+            }
+
+            for (int position = 0; position < savedResults.size(); position++) {
+                DeviceRegistrationResult savedResult = savedResults.get(position);
+                savedResult.setIndex(validIndexes.get(position));
+                results.set(validIndexes.get(position), savedResult);
+            }
+
+            boolean allRegistered = results.stream().allMatch(DeviceRegistrationResult::isRegistered);
+            LOG.info("Devices registered: {} of {}",
+                    results.stream().filter(DeviceRegistrationResult::isRegistered).count(), results.size());
+            return new ResponseEntity<>(marshallerService.marshallRegistrationResults(results),
+                    allRegistered ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+        }, responseExecutor);
+    }
 
     /**
      * Delete a device based on its ID, if exists.
      *
      * @param deviceID ID of the device
      *
-     * @return ResponseEntity<String> there are three possible responses when a request reaches this
-     *          endpoint:
+     * @return CompletableFuture<ResponseEntity<String>> completed without blocking the request thread,
+     *          there are three possible responses when a request reaches this endpoint:
      *
      *          1) HttpStatus = 200, the body of the response has a message "device deleted".
      *
@@ -206,24 +739,137 @@ public class DeviceMonitoringController {
      *
      *          3) HttpStatus = 500, the body of the response has a message with the problem, related
      *          to the database.
+     *
+     *          4) HttpStatus = 503, too many requests are waiting for the database (the Retry-After header
+     *          has the seconds to wait before trying again) or the database is failing and is not called.
+     *
+     *          5) HttpStatus = 504, the database did not answer before the deadline.
      */
     @DeleteMapping(path = "/delete-device/{deviceID}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
-    public ResponseEntity<String> deleteDeviceByID(@PathVariable String deviceID) {
+    public CompletableFuture<ResponseEntity<String>> deleteDeviceByID(@PathVariable String deviceID) {
         LOG.info("Delete request received, ID: {}", deviceID);
 
         try {
             deviceValidationService.validateId(deviceID);
-            dataBaseService.deleteDevice(deviceID);
 
         } catch (ValidationException validationException) {
             LOG.error("Invalid ID: ", validationException);
-            return new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(
+                    new ResponseEntity<>(validationException.getMessage(), HttpStatus.BAD_REQUEST));
+        }
 
-        } catch (FirebaseException firebaseException) {
-            LOG.error("Device not deleted: ", firebaseException);
-            return new ResponseEntity<>(firebaseException.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        RequestLimiter.Permit permit = requestLimiter.tryAcquire(EndpointGroup.WRITE);
+        if (permit == null) {
+            return CompletableFuture.completedFuture(overloaded(EndpointGroup.WRITE));
+        }
+
+        return permit.track(() -> dataBaseService.deleteDeviceAsync(deviceID)).handleAsync((result, throwable) -> {
+            devicePayloadCache.invalidateId(deviceID);
+            if (throwable != null) {
+                return databaseError("Device not deleted: ", throwable);
+            }
+
+            return new ResponseEntity<>("Device deleted", HttpStatus.OK);
+        }, responseExecutor);
+    }
+
+    /**
+     * Builds the 500 response for a database operation that completed exceptionally, the 429
+     * response when the database rejected it for lack of room, the 409 response when the MAC
+     * Address is already registered, the 504 response when the database did not answer before the
+     * deadline or the 503 response when it was not called because it is failing.
+     *
+     * @param logMessage message logged along with the exception
+     * @param throwable exception the database future was completed with
+     *
+     * @return ResponseEntity<String> with HttpStatus = 500 (429 when overloaded, 409 for a duplicated
+     *          MAC Address, 504 on timeout, 503 with the circuit open) and the message of the exception
+     *          as body
+     */
+    private ResponseEntity<String> databaseError(String logMessage, Throwable throwable) {
+        Throwable cause = DataBaseFutures.unwrap(throwable);
+        if (cause instanceof DataBaseOverloadedException) {
+            LOG.warn(logMessage + cause.getMessage());
+            return new ResponseEntity<>(cause.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        }
+        if (cause instanceof DuplicateMacException) {
+            LOG.warn(logMessage + cause.getMessage());
+            return new ResponseEntity<>(cause.getMessage(), HttpStatus.CONFLICT);
+        }
+        if (cause instanceof DataBaseTimeoutException) {
+            LOG.warn(logMessage + cause.getMessage());
+            return new ResponseEntity<>(cause.getMessage(), HttpStatus.GATEWAY_TIMEOUT);
         }
+        if (cause instanceof DataBaseUnavailableException) {
+            LOG.warn(logMessage + cause.getMessage());
+            return new ResponseEntity<>(cause.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        LOG.error(logMessage, cause);
+        return new ResponseEntity<>(cause.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+    }
 
-        return new ResponseEntity<>("Device deleted", HttpStatus.OK);
+    private ResponseEntity<StreamingResponseBody> streamingDatabaseError(String logMessage, Throwable throwable) {
+        ResponseEntity<String> response = databaseError(logMessage, throwable);
+        String message = response.getBody();
+        StreamingResponseBody errorBody = outputStream -> outputStream.write(message.getBytes(StandardCharsets.UTF_8));
+        return new ResponseEntity<>(errorBody, response.getStatusCode());
+    }
+
+    /**
+     * Builds the 503 response of a request shed by the RequestLimiter, with the seconds to wait
+     * before trying again in Retry-After.
+     */
+    private ResponseEntity<String> overloaded(EndpointGroup group) {
+        LOG.warn("Request shed, too many {} requests waiting for the database", group);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(requestLimiter.getRetryAfterSeconds()))
+                .body("Too many requests waiting for the database, try again later");
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamingOverloaded(EndpointGroup group) {
+        ResponseEntity<String> response = overloaded(group);
+        String message = response.getBody();
+        StreamingResponseBody errorBody = outputStream -> outputStream.write(message.getBytes(StandardCharsets.UTF_8));
+        return new ResponseEntity<>(errorBody, response.getHeaders(), response.getStatusCode());
+    }
+
+    /**
+     * 304 when If-None-Match has the ETag of the payload, otherwise 200 with the payload
+     */
+    private ResponseEntity<String> payloadResponse(DevicePayload payload, MarshallingFormat format, String ifNoneMatch) {
+        if (payload.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(payload.getEtag()).build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(format.getMediaType());
+        if (payload.getEtag() != null) {
+            response.eTag(payload.getEtag());
+        }
+        return response.body(payload.getBody());
+    }
+
+    /**
+     * Completes the stream once the async processing of the request ends for any reason: the permit
+     * of a stream is held until then, and a request that timed out or whose client went away before
+     * the body was written would otherwise never release it.
+     */
+    private static final class StreamRelease implements DeferredResultProcessingInterceptor,
+            CallableProcessingInterceptor {
+
+        private final CompletableFuture<Void> streamed;
+
+        private StreamRelease(CompletableFuture<Void> streamed) {
+            this.streamed = streamed;
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, DeferredResult<T> deferredResult) {
+            streamed.complete(null);
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+            streamed.complete(null);
+        }
     }
 }
@@ -0,0 +1,41 @@
+package com.webee.challenge.controllers;
+
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.services.changes.DeviceChangeSubscriber;
+import com.webee.challenge.services.marshaller.MarshallerService;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+/**
+ * Sends the changes of the feed as server-sent events. Each event is named after the type of the
+ * change (ADDED or REMOVED), and a "closed" event with the reason is sent when the feed ends the
+ * subscription.
+ */
+class SseDeviceChangeSubscriber implements DeviceChangeSubscriber {
+
+    private final SseEmitter emitter;
+    private final MarshallerService marshallerService;
+
+    SseDeviceChangeSubscriber(SseEmitter emitter, MarshallerService marshallerService) {
+        this.emitter = emitter;
+        this.marshallerService = marshallerService;
+    }
+
+    @Override
+    public void send(DeviceChange change) throws IOException {
+        emitter.send(SseEmitter.event()
+                .name(change.getType().name())
+                .data(marshallerService.marshallDeviceChange(change)));
+    }
+
+    @Override
+    public void onClose(String reason) {
+        try {
+            emitter.send(SseEmitter.event().name("closed").data(reason));
+            emitter.complete();
+        } catch (IOException ioException) {
+            emitter.completeWithError(ioException);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.webee.challenge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A device added to or removed from the database, as published by the change feed
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceChange {
+
+    public enum Type {
+        ADDED,
+        REMOVED
+    }
+
+    private Type type;
+    private Device device;
+
+    /**
+     * Epoch milliseconds when the change was committed to the database
+     */
+    private long committedAt;
+}
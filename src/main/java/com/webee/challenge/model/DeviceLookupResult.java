@@ -0,0 +1,36 @@
+package com.webee.challenge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Class used as a model for the outcome of each ID or MAC address sent to the bulk lookups
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceLookupResult {
+
+    private boolean found;
+    private boolean invalid;
+    private Device device;
+    private String message;
+
+    public static DeviceLookupResult found(Device device) {
+        return new DeviceLookupResult(true, false, device, null);
+    }
+
+    public static DeviceLookupResult notFound(String message) {
+        return new DeviceLookupResult(false, false, null, message);
+    }
+
+    /**
+     * The ID or MAC address is not valid, so it was not looked up
+     */
+    public static DeviceLookupResult invalid(String message) {
+        return new DeviceLookupResult(false, true, null, message);
+    }
+}
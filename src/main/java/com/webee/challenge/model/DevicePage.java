@@ -0,0 +1,22 @@
+package com.webee.challenge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Class used as a model for a page of devices. The nextPageToken is the cursor of the next page, and
+ * it is null on the last one.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DevicePage {
+
+    private List<Device> devices;
+    private String nextPageToken;
+}
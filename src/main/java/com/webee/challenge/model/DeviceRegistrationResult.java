@@ -0,0 +1,22 @@
+package com.webee.challenge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Class used as a model for the outcome of each device sent to the batch registration
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceRegistrationResult {
+
+    private int index;
+    private String macAddress;
+    private String ID;
+    private boolean registered;
+    private String message;
+}
@@ -0,0 +1,134 @@
+package com.webee.challenge.model;
+
+/**
+ * MAC Address packed in the lower 48 bits of a long. The text format is FF:FF:FF:FF:FF:FF, and the
+ * hexadecimal digits are accepted in upper or lower case, so "ff:02:..." and "FF:02:..." are the
+ * same address. The canonical text uses upper case digits.
+ */
+public final class MacAddress implements Comparable<MacAddress> {
+
+    /**
+     * Value returned by pack when the text is not a valid MAC Address
+     */
+    public static final long INVALID = -1L;
+
+    private static final int TEXT_LENGTH = 17;
+    private static final long MAX_VALUE = 0xFFFFFFFFFFFFL;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final long value;
+
+    private MacAddress(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Parses the text in a single pass, without allocating.
+     *
+     * @param text MAC Address with FF:FF:FF:FF:FF:FF format
+     * @return the packed address, or INVALID when the text does not have the valid format
+     */
+    public static long pack(CharSequence text) {
+        if (text == null || text.length() != TEXT_LENGTH) {
+            return INVALID;
+        }
+
+        long packed = 0;
+        for (int index = 0; index < TEXT_LENGTH; index++) {
+            char character = text.charAt(index);
+            if (index % 3 == 2) {
+                if (character != ':') {
+                    return INVALID;
+                }
+                continue;
+            }
+
+            int digit = hexDigit(character);
+            if (digit < 0) {
+                return INVALID;
+            }
+            packed = (packed << 4) | digit;
+        }
+        return packed;
+    }
+
+    private static int hexDigit(char character) {
+        if (character >= '0' && character <= '9') {
+            return character - '0';
+        }
+        if (character >= 'A' && character <= 'F') {
+            return character - 'A' + 10;
+        }
+        if (character >= 'a' && character <= 'f') {
+            return character - 'a' + 10;
+        }
+        return -1;
+    }
+
+    public static boolean isValid(CharSequence text) {
+        return pack(text) != INVALID;
+    }
+
+    public static MacAddress parse(String text) {
+        long packed = pack(text);
+        if (packed == INVALID) {
+            throw new IllegalArgumentException(text + " is not a valid MAC Address");
+        }
+        return new MacAddress(packed);
+    }
+
+    public static MacAddress of(long packed) {
+        if (packed < 0 || packed > MAX_VALUE) {
+            throw new IllegalArgumentException(packed + " is not a 48 bits MAC Address");
+        }
+        return new MacAddress(packed);
+    }
+
+    /**
+     * Formats a packed address with the canonical FF:FF:FF:FF:FF:FF text.
+     */
+    public static String format(long packed) {
+        char[] text = new char[TEXT_LENGTH];
+        for (int octet = 0; octet < 6; octet++) {
+            int octetValue = (int) (packed >>> (40 - octet * 8)) & 0xFF;
+            text[octet * 3] = HEX_DIGITS[octetValue >>> 4];
+            text[octet * 3 + 1] = HEX_DIGITS[octetValue & 0xF];
+            if (octet < 5) {
+                text[octet * 3 + 2] = ':';
+            }
+        }
+        return new String(text);
+    }
+
+    /**
+     * Returns the canonical text of a MAC Address, or the same text when it is not a valid one.
+     */
+    public static String canonical(String text) {
+        long packed = pack(text);
+        return (packed == INVALID) ? text : format(packed);
+    }
+
+    public long toLong() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(MacAddress other) {
+        return Long.compare(value, other.value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof MacAddress) && ((MacAddress) other).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return format(value);
+    }
+}
@@ -0,0 +1,39 @@
+package com.webee.challenge.services.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Marshalled device ready to be sent, with the ETag of that body
+ */
+@Data
+@AllArgsConstructor
+public class DevicePayload {
+
+    private String deviceId;
+    private String body;
+    private String etag;
+
+    /**
+     * Tells whether the If-None-Match header of a request has the ETag of this payload (or is "*"),
+     * weak ETags are compared by their value.
+     *
+     * @param ifNoneMatch value of the If-None-Match header, it can be null
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+package com.webee.challenge.services.cache;
+
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+
+/**
+ * Marshalled devices kept by ID and by MAC Address, per format, so repeated lookups are answered
+ * (or answered with 304 Not Modified) without reading the database nor marshalling again.
+ */
+public interface DevicePayloadCache {
+
+    /**
+     * @return the cached payload, or null when there is none
+     */
+    DevicePayload getById(String id, MarshallingFormat format);
+
+    /**
+     * @return the cached payload, or null when there is none
+     */
+    DevicePayload getByMac(String macAddress, MarshallingFormat format);
+
+    /**
+     * @return the current generation, read before looking a device up and handed to the put of its
+     * payload
+     */
+    long getGeneration();
+
+    /**
+     * Builds the payload of a marshalled device with its ETag, and keeps it under the ID unless an
+     * invalidation happened after the generation was read.
+     */
+    DevicePayload putById(String id, MarshallingFormat format, String deviceId, String body, long generation);
+
+    /**
+     * Builds the payload of a marshalled device with its ETag, and keeps it under the MAC Address
+     * unless an invalidation happened after the generation was read.
+     */
+    DevicePayload putByMac(String macAddress, MarshallingFormat format, String deviceId, String body,
+                           long generation);
+
+    /**
+     * Drops every payload of the device, the ones kept by ID and by MAC Address.
+     */
+    void invalidateId(String id);
+
+    /**
+     * Drops the payloads kept under the MAC Address, a new device with that MAC Address changes the
+     * result of the lookup.
+     */
+    void invalidateMac(String macAddress);
+}
@@ -0,0 +1,184 @@
+package com.webee.challenge.services.cache.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.cache.DevicePayload;
+import com.webee.challenge.services.cache.DevicePayloadCache;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caffeine backed payload cache, enabled with response.cache.enabled=true. Entries expire after the
+ * configured TTL, so a device deleted through another instance is not served for longer than that.
+ * When it is disabled nothing is kept, but the payloads still get their ETag.
+ *
+ * Every invalidation bumps the generation, and a payload put with an older one is removed again
+ * right after being kept, so a lookup that read the device before it was deleted can not put it
+ * back. The MAC Address of each device kept by MAC is indexed by device ID, so invalidating an ID
+ * does not scan the cache.
+ */
+@Service
+public class DevicePayloadCacheImpl implements DevicePayloadCache {
+
+    private final Cache<String, DevicePayload> payloadsById;
+    private final Cache<String, DevicePayload> payloadsByMac;
+    private final Map<String, String> macKeyById = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public DevicePayloadCacheImpl(@Value("${response.cache.enabled:false}") boolean enabled,
+                                  @Value("${response.cache.ttl-seconds:60}") long ttlSeconds,
+                                  @Value("${response.cache.max-entries:10000}") long maxEntries,
+                                  MeterRegistry meterRegistry) {
+        if (enabled) {
+            this.payloadsById = Caffeine.newBuilder()
+                    .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                    .maximumSize(maxEntries)
+                    .recordStats()
+                    .build();
+            this.payloadsByMac = Caffeine.newBuilder()
+                    .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                    .maximumSize(maxEntries)
+                    .recordStats()
+                    .executor(Runnable::run)
+                    .removalListener(this::onMacPayloadRemoved)
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, payloadsById, "payloadsById");
+            CaffeineCacheMetrics.monitor(meterRegistry, payloadsByMac, "payloadsByMac");
+        } else {
+            this.payloadsById = null;
+            this.payloadsByMac = null;
+        }
+    }
+
+    /**
+     * Drops the index entry of the device once none of its formats is kept under that MAC Address
+     */
+    private void onMacPayloadRemoved(String key, DevicePayload payload, RemovalCause cause) {
+        if (key == null || payload == null || payload.getDeviceId() == null) {
+            return;
+        }
+        String macKey = key.substring(0, key.lastIndexOf('/'));
+        for (MarshallingFormat format : MarshallingFormat.values()) {
+            DevicePayload current = payloadsByMac.asMap().get(key(macKey, format));
+            if (current != null && payload.getDeviceId().equals(current.getDeviceId())) {
+                return;
+            }
+        }
+        macKeyById.remove(payload.getDeviceId(), macKey);
+    }
+
+    @Override
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    @Override
+    public DevicePayload getById(String id, MarshallingFormat format) {
+        return (payloadsById == null) ? null : payloadsById.getIfPresent(key(id, format));
+    }
+
+    @Override
+    public DevicePayload getByMac(String macAddress, MarshallingFormat format) {
+        String macKey = macKey(macAddress);
+        return (payloadsByMac == null || macKey == null) ? null : payloadsByMac.getIfPresent(key(macKey, format));
+    }
+
+    @Override
+    public DevicePayload putById(String id, MarshallingFormat format, String deviceId, String body,
+                                 long generation) {
+        DevicePayload payload = payload(deviceId, body);
+        if (payloadsById != null && payload.getBody() != null) {
+            String key = key(id, format);
+            payloadsById.put(key, payload);
+            if (this.generation.get() != generation) {
+                payloadsById.asMap().remove(key, payload);
+            }
+        }
+        return payload;
+    }
+
+    @Override
+    public DevicePayload putByMac(String macAddress, MarshallingFormat format, String deviceId, String body,
+                                  long generation) {
+        DevicePayload payload = payload(deviceId, body);
+        String macKey = macKey(macAddress);
+        if (payloadsByMac != null && macKey != null && payload.getBody() != null) {
+            String key = key(macKey, format);
+            payloadsByMac.put(key, payload);
+            if (deviceId != null) {
+                macKeyById.put(deviceId, macKey);
+            }
+            if (this.generation.get() != generation) {
+                payloadsByMac.asMap().remove(key, payload);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * The generation is bumped before the payloads are dropped, so a put either sees it changed or
+     * keeps its payload before they are dropped.
+     */
+    @Override
+    public void invalidateId(String id) {
+        if (payloadsById == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        for (MarshallingFormat format : MarshallingFormat.values()) {
+            payloadsById.invalidate(key(id, format));
+        }
+        String macKey = macKeyById.remove(id);
+        if (macKey != null) {
+            for (MarshallingFormat format : MarshallingFormat.values()) {
+                payloadsByMac.asMap().computeIfPresent(key(macKey, format),
+                        (key, payload) -> id.equals(payload.getDeviceId()) ? null : payload);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateMac(String macAddress) {
+        String macKey = macKey(macAddress);
+        if (payloadsByMac == null || macKey == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        for (MarshallingFormat format : MarshallingFormat.values()) {
+            payloadsByMac.invalidate(key(macKey, format));
+        }
+    }
+
+    private static DevicePayload payload(String deviceId, String body) {
+        String etag = (body == null) ? null
+                : "\"" + DigestUtils.md5DigestAsHex(body.getBytes(StandardCharsets.UTF_8)) + "\"";
+        return new DevicePayload(deviceId, body, etag);
+    }
+
+    private static String key(String key, MarshallingFormat format) {
+        return key + '/' + format.name();
+    }
+
+    /**
+     * Canonical text of the MAC Address, so any letter case hits the same entry, or null when it is
+     * not a valid one
+     */
+    private static String macKey(String macAddress) {
+        long packedMac = MacAddress.pack(macAddress);
+        return (packedMac == MacAddress.INVALID) ? null : MacAddress.format(packedMac);
+    }
+}
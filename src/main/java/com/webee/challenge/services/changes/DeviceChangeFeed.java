@@ -0,0 +1,22 @@
+package com.webee.challenge.services.changes;
+
+import com.google.firebase.FirebaseException;
+
+import java.io.Closeable;
+
+/**
+ * Fans out the devices added and removed in the database to any number of subscribers, through a
+ * single listener on the database.
+ */
+public interface DeviceChangeFeed {
+
+    /**
+     * Starts sending the changes to the subscriber, in order. Closing the returned handle ends the
+     * subscription.
+     *
+     * @throws FirebaseException exception thrown when the database listener could not be started
+     */
+    Closeable subscribe(DeviceChangeSubscriber subscriber) throws FirebaseException;
+
+    int getSubscriberCount();
+}
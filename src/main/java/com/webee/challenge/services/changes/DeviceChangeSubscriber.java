@@ -0,0 +1,22 @@
+package com.webee.challenge.services.changes;
+
+import com.webee.challenge.model.DeviceChange;
+
+import java.io.IOException;
+
+/**
+ * Client of the change feed, for example an open server-sent events response
+ */
+public interface DeviceChangeSubscriber {
+
+    /**
+     * Sends a change to the client. Throwing IOException (the client went away) ends the subscription.
+     */
+    void send(DeviceChange change) throws IOException;
+
+    /**
+     * The feed ended the subscription, because the client did not keep up or because the database
+     * stopped sending changes. The client has to read the devices again and subscribe again.
+     */
+    void onClose(String reason);
+}
@@ -0,0 +1,202 @@
+package com.webee.challenge.services.changes.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.services.changes.DeviceChangeFeed;
+import com.webee.challenge.services.changes.DeviceChangeSubscriber;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The database listener is started with the first subscriber and closed when the last one leaves,
+ * so no reads are spent while nobody is listening. Every subscriber has its own buffer of
+ * changes.buffer-size changes, drained by one of the changes.sender-threads sender threads, so a
+ * slow client never delays the database listener nor the other clients. A subscriber whose buffer
+ * fills up is dropped, it already missed changes, and it is told so from a sender thread too. Each
+ * subscriber has at most one task waiting for the senders, so their queue is bounded by the number
+ * of subscribers.
+ */
+@Service
+public class DeviceChangeFeedImpl implements DeviceChangeFeed, DeviceChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceChangeFeedImpl.class);
+
+    private final DataBaseService dataBaseService;
+    private final int bufferSize;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+
+    private Closeable databaseListener;
+
+    @Autowired
+    public DeviceChangeFeedImpl(DataBaseService dataBaseService,
+                                @Value("${changes.buffer-size:256}") int bufferSize,
+                                @Value("${changes.sender-threads:4}") int senderThreads) {
+        this.dataBaseService = dataBaseService;
+        this.bufferSize = bufferSize;
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "device-change-sender-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.senders = executor;
+    }
+
+    @Override
+    public synchronized Closeable subscribe(DeviceChangeSubscriber subscriber) throws FirebaseException {
+        if (databaseListener == null) {
+            databaseListener = dataBaseService.listenToChanges(this);
+        }
+
+        Subscription subscription = new Subscription(subscriber);
+        subscriptions.add(subscription);
+        LOG.info("Change feed subscriber added, {} subscribers", subscriptions.size());
+        return subscription;
+    }
+
+    @Override
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void onChange(DeviceChange change) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    @Override
+    public void onError(FirebaseException firebaseException) {
+        synchronized (this) {
+            databaseListener = null;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.drop(firebaseException.getMessage());
+        }
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        LOG.info("Change feed subscriber removed, {} subscribers", subscriptions.size());
+
+        if (subscriptions.isEmpty() && databaseListener != null) {
+            try {
+                databaseListener.close();
+            } catch (IOException ioException) {
+                LOG.error("Problem while closing the database listener: ", ioException);
+            }
+            databaseListener = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscriptions.forEach(subscription -> subscription.drop("The server is shutting down"));
+        senders.shutdown();
+    }
+
+    private final class Subscription implements Closeable {
+
+        private final DeviceChangeSubscriber subscriber;
+        private final BlockingQueue<DeviceChange> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean dropped = new AtomicBoolean();
+        private final AtomicReference<String> closeReason = new AtomicReference<>();
+        private volatile boolean closed;
+
+        private Subscription(DeviceChangeSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void offer(DeviceChange change) {
+            if (closed) {
+                return;
+            }
+            if (!buffer.offer(change)) {
+                LOG.error("Change feed subscriber dropped, {} changes were pending", bufferSize);
+                drop("Too many pending changes, read the devices again and subscribe again");
+                return;
+            }
+            scheduleSend();
+        }
+
+        private void scheduleSend() {
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::send);
+                } catch (RejectedExecutionException rejectedExecutionException) {
+                    sending.set(false);
+                    LOG.warn("Change feed sender stopped, subscriber not notified");
+                }
+            }
+        }
+
+        /**
+         * Sends the buffered changes and, once the subscriber was dropped, the reason. Only one send
+         * runs at a time, so the reason never overlaps a change being sent.
+         */
+        private void send() {
+            try {
+                DeviceChange change;
+                while (!closed && (change = buffer.poll()) != null) {
+                    subscriber.send(change);
+                }
+                String reason = closeReason.getAndSet(null);
+                if (reason != null) {
+                    subscriber.onClose(reason);
+                }
+            } catch (IOException | RuntimeException exc) {
+                LOG.info("Change feed subscriber gone: {}", exc.getMessage());
+                close();
+            } finally {
+                sending.set(false);
+            }
+
+            if ((!closed && !buffer.isEmpty()) || closeReason.get() != null) {
+                scheduleSend();
+            }
+        }
+
+        private void drop(String reason) {
+            if (!closed && dropped.compareAndSet(false, true)) {
+                close();
+                closeReason.set(reason);
+                scheduleSend();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            buffer.clear();
+            unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.webee.challenge.services.database;
+
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of the database operations. Every future completes when the database answers,
+ * and it is completed exceptionally with a FirebaseException when the operation fails.
+ */
+public interface AsyncDataBaseService {
+
+    CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest);
+
+    CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests);
+
+    CompletableFuture<Void> deleteDeviceAsync(String id);
+
+    CompletableFuture<Device> searchDeviceByIdAsync(String id);
+
+    CompletableFuture<Device> searchDeviceByMacAsync(String macAddress);
+
+    CompletableFuture<List<Device>> searchAllDevicesAsync();
+
+    CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken);
+
+    /**
+     * Looks up every ID of the list, the result has one entry per distinct ID, in the same order,
+     * telling whether the device was found.
+     */
+    CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids);
+
+    /**
+     * Looks up every MAC address of the list, the result has one entry per distinct MAC address, in
+     * the same order, telling whether the device was found.
+     */
+    CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses);
+}
@@ -0,0 +1,177 @@
+package com.webee.challenge.services.database;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Helpers used to move between the blocking and the non-blocking database operations.
+ */
+public final class DataBaseFutures {
+
+    private DataBaseFutures() {
+    }
+
+    /**
+     * Database operation that may throw a FirebaseException
+     */
+    @FunctionalInterface
+    public interface DataBaseCall<T> {
+        T call() throws FirebaseException;
+    }
+
+    /**
+     * Runs a blocking operation in the calling thread and returns its outcome as a completed future.
+     */
+    public static <T> CompletableFuture<T> supply(DataBaseCall<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.call());
+        } catch (FirebaseException firebaseException) {
+            return failed(firebaseException);
+        }
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    /**
+     * Bridges a Firestore ApiFuture into a CompletableFuture, completed by the ApiFuture callback
+     * instead of parking a thread on get().
+     */
+    public static <T> CompletableFuture<T> fromApiFuture(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Waits for the future, rethrowing the FirebaseException it was completed with.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws FirebaseException {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException exc) {
+            Throwable cause = unwrap(exc);
+            if (cause instanceof FirebaseException) {
+                throw (FirebaseException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new FirebaseException(cause.toString(), cause);
+        }
+    }
+
+    /**
+     * Builds the exception used to complete a stage with a FirebaseException from inside a lambda.
+     */
+    public static CompletionException failure(String message, Throwable cause) {
+        return new CompletionException(new FirebaseException(message, unwrap(cause)));
+    }
+
+    public static CompletionException failure(String message) {
+        return new CompletionException(new FirebaseException(message));
+    }
+
+    /**
+     * Runs one lookup per distinct key, at most chunkSize of them at the same time, and returns the
+     * outcome of every key in the order they were received. A lookup failed with a
+     * DeviceNotFoundException is reported as not found, and a null key or one the lookup rejects with
+     * an IllegalArgumentException as invalid, both with the message of the exception. Any other
+     * failure fails the whole lookup, since the keys it did not answer are unknown.
+     */
+    public static CompletableFuture<Map<String, DeviceLookupResult>> lookupAll(
+            List<String> keys, Function<String, CompletableFuture<Device>> lookup, int chunkSize) {
+        List<String> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+        Map<String, DeviceLookupResult> results = new LinkedHashMap<>();
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+
+        for (int from = 0; from < distinctKeys.size(); from += chunkSize) {
+            List<String> chunk = distinctKeys.subList(from, Math.min(from + chunkSize, distinctKeys.size()));
+            chain = chain.thenCompose(done -> lookupChunk(chunk, lookup, results));
+        }
+        return chain.thenApply(done -> results);
+    }
+
+    private static CompletableFuture<Void> lookupChunk(List<String> chunk,
+                                                       Function<String, CompletableFuture<Device>> lookup,
+                                                       Map<String, DeviceLookupResult> results) {
+        List<CompletableFuture<DeviceLookupResult>> futures = new ArrayList<>(chunk.size());
+
+        for (String key : chunk) {
+            futures.add(lookupKey(key, lookup));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            synchronized (results) {
+                for (int index = 0; index < chunk.size(); index++) {
+                    results.put(chunk.get(index), futures.get(index).join());
+                }
+            }
+        });
+    }
+
+    private static CompletableFuture<DeviceLookupResult> lookupKey(
+            String key, Function<String, CompletableFuture<Device>> lookup) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(DeviceLookupResult.invalid("The key is null"));
+        }
+
+        CompletableFuture<Device> device;
+        try {
+            device = lookup.apply(key);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return CompletableFuture.completedFuture(DeviceLookupResult.invalid(illegalArgumentException.getMessage()));
+        }
+        return device.handle((found, throwable) -> {
+            if (throwable == null) {
+                return DeviceLookupResult.found(found);
+            }
+            Throwable cause = unwrap(throwable);
+            if (cause instanceof DeviceNotFoundException) {
+                return DeviceLookupResult.notFound(cause.getMessage());
+            }
+            if (cause instanceof IllegalArgumentException) {
+                return DeviceLookupResult.invalid(cause.getMessage());
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    public static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,14 @@
+package com.webee.challenge.services.database;
+
+import com.google.firebase.FirebaseException;
+
+/**
+ * The operation was rejected without reaching the database, because there is no room for it. The
+ * caller can try again later.
+ */
+public class DataBaseOverloadedException extends FirebaseException {
+
+    public DataBaseOverloadedException(String message) {
+        super(message);
+    }
+}
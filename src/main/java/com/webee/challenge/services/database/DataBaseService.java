@@ -2,14 +2,31 @@ package com.webee.challenge.services.database;
 
 import com.google.firebase.FirebaseException;
 import com.webee.challenge.model.Device;
+import com.webee.challenge.constants.Constants;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
 import com.webee.challenge.model.DeviceRequest;
 
+import java.io.Closeable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public interface DataBaseService {
+/**
+ * Database operations. The non-blocking variants default to running the blocking operation in the
+ * calling thread, backends that talk to a remote database override them.
+ */
+public interface DataBaseService extends AsyncDataBaseService {
 
     void registerDevice(DeviceRequest deviceRequest) throws FirebaseException;
 
+    /**
+     * Registers every device of the list, returning one result per device in the same order. Each
+     * result has the generated ID, or the message of the problem when the device was not saved.
+     */
+    List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException;
+
     void deleteDevice(String id) throws FirebaseException;
 
     Device searchDeviceById(String id) throws FirebaseException;
@@ -17,4 +34,89 @@ public interface DataBaseService {
     Device searchDeviceByMac(String macAddress) throws FirebaseException;
 
     List<Device> searchAllDevices() throws FirebaseException;
+
+    /**
+     * Returns at most limit devices, ordered by the key they are stored with, starting after the
+     * cursor pageToken (null for the first page).
+     */
+    DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException;
+
+    /**
+     * Starts sending the devices added and removed from now on to the listener, the devices that
+     * already exist are not sent. Closing the returned handle stops it.
+     */
+    default Closeable listenToChanges(DeviceChangeListener listener) throws FirebaseException {
+        return listenToChanges(listener, false);
+    }
+
+    /**
+     * Same as listenToChanges(listener), but with includeExisting the devices that already exist are
+     * sent first as ADDED changes, followed by a call to onSynced.
+     */
+    Closeable listenToChanges(DeviceChangeListener listener, boolean includeExisting) throws FirebaseException;
+
+    default Map<String, DeviceLookupResult> searchDevicesByIds(List<String> ids) throws FirebaseException {
+        return DataBaseFutures.await(searchDevicesByIdsAsync(ids));
+    }
+
+    default Map<String, DeviceLookupResult> searchDevicesByMacs(List<String> macAddresses) throws FirebaseException {
+        return DataBaseFutures.await(searchDevicesByMacsAsync(macAddresses));
+    }
+
+    @Override
+    default CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return DataBaseFutures.supply(() -> {
+            registerDevice(deviceRequest);
+            return null;
+        });
+    }
+
+    @Override
+    default CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return DataBaseFutures.supply(() -> registerDevices(deviceRequests));
+    }
+
+    @Override
+    default CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return DataBaseFutures.supply(() -> {
+            deleteDevice(id);
+            return null;
+        });
+    }
+
+    @Override
+    default CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return DataBaseFutures.supply(() -> searchDeviceById(id));
+    }
+
+    @Override
+    default CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return DataBaseFutures.supply(() -> searchDeviceByMac(macAddress));
+    }
+
+    @Override
+    default CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return DataBaseFutures.supply(this::searchAllDevices);
+    }
+
+    @Override
+    default CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return DataBaseFutures.supply(() -> searchDevicesPage(limit, pageToken));
+    }
+
+    /**
+     * Runs the lookups by ID in parallel, in chunks of Constants.BULK_LOOKUP_CHUNK
+     */
+    @Override
+    default CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return DataBaseFutures.lookupAll(ids, this::searchDeviceByIdAsync, Constants.BULK_LOOKUP_CHUNK);
+    }
+
+    /**
+     * Runs the lookups by MAC address in parallel, in chunks of Constants.BULK_LOOKUP_CHUNK
+     */
+    @Override
+    default CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return DataBaseFutures.lookupAll(macAddresses, this::searchDeviceByMacAsync, Constants.BULK_LOOKUP_CHUNK);
+    }
 }
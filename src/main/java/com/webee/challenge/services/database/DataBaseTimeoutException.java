@@ -0,0 +1,14 @@
+package com.webee.challenge.services.database;
+
+import com.google.firebase.FirebaseException;
+
+/**
+ * The database did not answer before the deadline of the operation. A write may still be applied
+ * after this.
+ */
+public class DataBaseTimeoutException extends FirebaseException {
+
+    public DataBaseTimeoutException(String message) {
+        super(message);
+    }
+}
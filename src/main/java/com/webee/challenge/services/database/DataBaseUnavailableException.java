@@ -0,0 +1,15 @@
+package com.webee.challenge.services.database;
+
+import com.google.firebase.FirebaseException;
+
+/**
+ * The operation was rejected without reaching the database, because the database has been failing
+ * and the circuit breaker is open, or because it continues a page of the device replica while the
+ * replica is not serving. The caller can try again later.
+ */
+public class DataBaseUnavailableException extends FirebaseException {
+
+    public DataBaseUnavailableException(String message) {
+        super(message);
+    }
+}
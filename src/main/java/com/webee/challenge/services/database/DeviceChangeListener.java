@@ -0,0 +1,25 @@
+package com.webee.challenge.services.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.DeviceChange;
+
+/**
+ * Receives the devices added to and removed from the database, in the order they happen
+ */
+public interface DeviceChangeListener {
+
+    void onChange(DeviceChange change);
+
+    /**
+     * Called after every batch of changes, once they were all sent to onChange.
+     *
+     * @param readTime epoch milliseconds of the database state the listener is up to date with
+     */
+    default void onSynced(long readTime) {
+    }
+
+    /**
+     * The database stopped sending changes, no other call is made to the listener after this one
+     */
+    void onError(FirebaseException firebaseException);
+}
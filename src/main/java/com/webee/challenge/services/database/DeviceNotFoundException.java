@@ -0,0 +1,14 @@
+package com.webee.challenge.services.database;
+
+import com.google.firebase.FirebaseException;
+
+/**
+ * The database answered, and there is no device with the ID or the MAC Address looked up. Finding
+ * more than one is still a plain FirebaseException, since it means the stored data is inconsistent.
+ */
+public class DeviceNotFoundException extends FirebaseException {
+
+    public DeviceNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package com.webee.challenge.services.database;
+
+import com.google.firebase.FirebaseException;
+
+/**
+ * The device was not registered because there is already one with its MAC Address
+ */
+public class DuplicateMacException extends FirebaseException {
+
+    public static final String MESSAGE = "A device with that MAC Address is already registered";
+
+    public DuplicateMacException() {
+        super(MESSAGE);
+    }
+}
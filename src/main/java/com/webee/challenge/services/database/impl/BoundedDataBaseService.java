@@ -0,0 +1,294 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
+import com.webee.challenge.services.database.DataBaseService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the database operations on a dedicated executor, sized apart from the request threads, and
+ * caps how many of each group of operations reach the database at the same time: lookups (by ID or
+ * MAC Address, single or bulk), scans (the whole collection and its pages) and writes. An operation
+ * over its limit waits in the queue of its group, and once maxQueued are waiting it fails at once
+ * with a DataBaseOverloadedException. The futures are completed on the executor, so the work chained
+ * to them (marshalling the response) never runs on the threads of the database client.
+ *
+ * The blocking operations wait for the non-blocking ones, so they go through the same limits.
+ */
+public class BoundedDataBaseService extends ForwardingDataBaseService {
+
+    /**
+     * Operations sharing a concurrency limit
+     */
+    public enum OperationGroup {
+        LOOKUP,
+        SCAN,
+        WRITE
+    }
+
+    private final ExecutorService executor;
+    private final Limiter lookups;
+    private final Limiter scans;
+    private final Limiter writes;
+
+    public BoundedDataBaseService(DataBaseService delegate, ExecutorService executor, int lookupLimit, int scanLimit,
+                                  int writeLimit, int maxQueued, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.executor = executor;
+        this.lookups = new Limiter(OperationGroup.LOOKUP, lookupLimit, maxQueued, meterRegistry);
+        this.scans = new Limiter(OperationGroup.SCAN, scanLimit, maxQueued, meterRegistry);
+        this.writes = new Limiter(OperationGroup.WRITE, writeLimit, maxQueued, meterRegistry);
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        DataBaseFutures.await(registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return DataBaseFutures.await(registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        DataBaseFutures.await(deleteDeviceAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return DataBaseFutures.await(searchAllDevicesAsync());
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return DataBaseFutures.await(searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return submit(writes, () -> delegate.registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return submit(writes, () -> delegate.registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return submit(writes, () -> delegate.deleteDeviceAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return submit(lookups, () -> delegate.searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return submit(lookups, () -> delegate.searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return submit(scans, delegate::searchAllDevicesAsync);
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return submit(scans, () -> delegate.searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return submit(lookups, () -> delegate.searchDevicesByIdsAsync(ids));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return submit(lookups, () -> delegate.searchDevicesByMacsAsync(macAddresses));
+    }
+
+    public int getInFlight(OperationGroup group) {
+        return limiter(group).getInFlight();
+    }
+
+    public int getQueued(OperationGroup group) {
+        return limiter(group).getQueued();
+    }
+
+    /**
+     * Stops the executor, waiting for the operations already started.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
+    private Limiter limiter(OperationGroup group) {
+        switch (group) {
+            case LOOKUP:
+                return lookups;
+            case SCAN:
+                return scans;
+            default:
+                return writes;
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Limiter limiter, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        boolean admitted = limiter.acquire(() -> execute(() -> run(limiter, call, result)));
+        if (!admitted) {
+            return DataBaseFutures.failed(new DataBaseOverloadedException(
+                    "Too many " + limiter.group.name().toLowerCase() + " operations waiting for the database"));
+        }
+        return result;
+    }
+
+    private <T> void run(Limiter limiter, Supplier<CompletableFuture<T>> call, CompletableFuture<T> result) {
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException exc) {
+            future = DataBaseFutures.failed(exc);
+        }
+
+        future.whenComplete((value, exc) -> {
+            limiter.release();
+            execute(() -> {
+                if (exc != null) {
+                    result.completeExceptionally(DataBaseFutures.unwrap(exc));
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+    }
+
+    /**
+     * Runs the task on the executor, or in the calling thread once the executor is shut down
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            task.run();
+        }
+    }
+
+    /**
+     * Semaphore that never blocks: an operation over the limit is kept in a queue and started by the
+     * release of the operation before it.
+     */
+    private static final class Limiter {
+
+        private final OperationGroup group;
+        private final int limit;
+        private final int maxQueued;
+        private final Deque<Runnable> queue = new ArrayDeque<>();
+        private final Counter rejected;
+
+        private int inFlight;
+
+        private Limiter(OperationGroup group, int limit, int maxQueued, MeterRegistry meterRegistry) {
+            this.group = group;
+            this.limit = limit;
+            this.maxQueued = maxQueued;
+
+            String tag = group.name().toLowerCase();
+            Gauge.builder("devices.database.in_flight", this, Limiter::getInFlight)
+                    .description("Operations running against the database")
+                    .tag("group", tag)
+                    .register(meterRegistry);
+            Gauge.builder("devices.database.queued", this, Limiter::getQueued)
+                    .description("Operations waiting for their concurrency limit")
+                    .tag("group", tag)
+                    .register(meterRegistry);
+            this.rejected = Counter.builder("devices.database.rejected")
+                    .description("Operations rejected because their queue was full")
+                    .tag("group", tag)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Starts the operation now, or queues it until there is room for it.
+         *
+         * @return false when the operation was rejected
+         */
+        private boolean acquire(Runnable start) {
+            synchronized (this) {
+                if (inFlight >= limit) {
+                    if (queue.size() >= maxQueued) {
+                        rejected.increment();
+                        return false;
+                    }
+                    queue.addLast(start);
+                    return true;
+                }
+                inFlight++;
+            }
+            start.run();
+            return true;
+        }
+
+        /**
+         * Hands the permit to the next queued operation, if any.
+         */
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = queue.pollFirst();
+                if (next == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            next.run();
+        }
+
+        private synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        private synchronized int getQueued() {
+            return queue.size();
+        }
+    }
+}
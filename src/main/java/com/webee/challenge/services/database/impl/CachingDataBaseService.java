@@ -0,0 +1,305 @@
+package com.webee.challenge.services.database.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.database.DataBaseService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache placed in front of the database. Each device is kept under its ID and under
+ * its packed MAC Address (so any letter case of the same address hits the same entry), both entries
+ * expire after the configured TTL and are evicted with W-TinyLFU when the maximum size is reached.
+ * Registering or deleting a device invalidates the affected entries.
+ *
+ * Every invalidation bumps a generation, and a device loaded while the generation changed is removed
+ * again right after being cached, so a lookup that started before a delete can not put back the
+ * device it read. The MAC entry of each ID is kept in a reverse index, so deleting a device drops it
+ * without scanning the cache.
+ */
+public class CachingDataBaseService extends ForwardingDataBaseService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingDataBaseService.class);
+
+    private final Cache<String, Device> devicesById;
+    private final Cache<Long, Device> devicesByMac;
+    private final Map<String, Long> macById = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public CachingDataBaseService(DataBaseService delegate, Duration ttl, long maxEntries,
+                                  MeterRegistry meterRegistry) {
+        super(delegate);
+        this.devicesById = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        this.devicesByMac = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .executor(Runnable::run)
+                .removalListener(this::onMacEntryRemoved)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, devicesById, "devicesById");
+        CaffeineCacheMetrics.monitor(meterRegistry, devicesByMac, "devicesByMac");
+    }
+
+    /**
+     * Drops the reverse index entry of a MAC entry removed for any reason, unless the MAC Address
+     * already holds the same device again.
+     */
+    private void onMacEntryRemoved(Long packedMac, Device device, RemovalCause cause) {
+        if (packedMac == null || device == null || device.getID() == null) {
+            return;
+        }
+        Device current = devicesByMac.asMap().get(packedMac);
+        if (current == null || !device.getID().equals(current.getID())) {
+            macById.remove(device.getID(), packedMac);
+        }
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        try {
+            delegate.registerDevice(deviceRequest);
+        } finally {
+            invalidateMac(deviceRequest.getMacAddress());
+        }
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        try {
+            return delegate.registerDevices(deviceRequests);
+        } finally {
+            deviceRequests.forEach(deviceRequest -> invalidateMac(deviceRequest.getMacAddress()));
+        }
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        try {
+            delegate.deleteDevice(id);
+        } finally {
+            invalidateId(id);
+        }
+    }
+
+    /**
+     * A lookup by ID only fills the ID entry: a MAC Address shared by several devices must keep
+     * failing when it is looked up, so the MAC entry is only filled by a lookup by MAC Address.
+     */
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        Device device = devicesById.getIfPresent(id);
+        if (device == null) {
+            long loadGeneration = generation.get();
+            device = delegate.searchDeviceById(id);
+            cacheById(id, device, loadGeneration);
+        }
+        return device;
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        long packedMac = MacAddress.pack(macAddress);
+        if (packedMac == MacAddress.INVALID) {
+            return delegate.searchDeviceByMac(macAddress);
+        }
+
+        Device device = devicesByMac.getIfPresent(packedMac);
+        if (device == null) {
+            long loadGeneration = generation.get();
+            device = delegate.searchDeviceByMac(macAddress);
+            cacheByMac(packedMac, device, loadGeneration);
+        }
+        return device;
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return delegate.registerDeviceAsync(deviceRequest)
+                .whenComplete((result, throwable) -> invalidateMac(deviceRequest.getMacAddress()));
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return delegate.registerDevicesAsync(deviceRequests).whenComplete((results, throwable) ->
+                deviceRequests.forEach(deviceRequest -> invalidateMac(deviceRequest.getMacAddress())));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return delegate.deleteDeviceAsync(id)
+                .whenComplete((result, throwable) -> invalidateId(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        Device device = devicesById.getIfPresent(id);
+        if (device != null) {
+            return CompletableFuture.completedFuture(device);
+        }
+        long loadGeneration = generation.get();
+        return delegate.searchDeviceByIdAsync(id).thenApply(found -> {
+            cacheById(id, found, loadGeneration);
+            return found;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        long packedMac = MacAddress.pack(macAddress);
+        if (packedMac == MacAddress.INVALID) {
+            return delegate.searchDeviceByMacAsync(macAddress);
+        }
+
+        Device device = devicesByMac.getIfPresent(packedMac);
+        if (device != null) {
+            return CompletableFuture.completedFuture(device);
+        }
+        long loadGeneration = generation.get();
+        return delegate.searchDeviceByMacAsync(macAddress).thenApply(found -> {
+            cacheByMac(packedMac, found, loadGeneration);
+            return found;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return searchAllCached(ids, devicesById::getIfPresent, delegate::searchDevicesByIdsAsync, this::cacheById);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return searchAllCached(macAddresses, macAddress -> {
+            long packedMac = MacAddress.pack(macAddress);
+            return (packedMac == MacAddress.INVALID) ? null : devicesByMac.getIfPresent(packedMac);
+        }, delegate::searchDevicesByMacsAsync, (macAddress, device, loadGeneration) -> {
+            long packedMac = MacAddress.pack(macAddress);
+            if (packedMac != MacAddress.INVALID) {
+                cacheByMac(packedMac, device, loadGeneration);
+            }
+        });
+    }
+
+    /**
+     * Answers the cached keys and sends only the missing ones to the delegate in a single bulk
+     * lookup, keeping the order of the keys received.
+     */
+    private CompletableFuture<Map<String, DeviceLookupResult>> searchAllCached(
+            List<String> keys, Function<String, Device> cached,
+            Function<List<String>, CompletableFuture<Map<String, DeviceLookupResult>>> bulkLookup,
+            CacheLoad cacheLoad) {
+        Map<String, DeviceLookupResult> results = new LinkedHashMap<>();
+        List<String> missingKeys = new ArrayList<>();
+
+        for (String key : keys) {
+            Device device = (key == null) ? null : cached.apply(key);
+            results.put(key, (device == null) ? null : DeviceLookupResult.found(device));
+            if (device == null) {
+                missingKeys.add(key);
+            }
+        }
+
+        if (missingKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(results);
+        }
+
+        long loadGeneration = generation.get();
+        return bulkLookup.apply(missingKeys).thenApply(loaded -> {
+            loaded.forEach((key, result) -> {
+                results.put(key, result);
+                if (key != null && result.isFound()) {
+                    cacheLoad.cache(key, result.getDevice(), loadGeneration);
+                }
+            });
+            return results;
+        });
+    }
+
+    /**
+     * Caches a device loaded by one of the bulk lookups
+     */
+    @FunctionalInterface
+    private interface CacheLoad {
+        void cache(String key, Device device, long loadGeneration);
+    }
+
+    private void cacheById(String id, Device device, long loadGeneration) {
+        devicesById.put(id, device);
+        if (generation.get() != loadGeneration) {
+            devicesById.asMap().remove(id, device);
+        }
+    }
+
+    /**
+     * A lookup by MAC Address also fills the ID entry. The MAC entry is put before its reverse index
+     * entry, so a removal of the previous MAC entry never drops the index entry of this one.
+     */
+    private void cacheByMac(long packedMac, Device device, long loadGeneration) {
+        devicesByMac.put(packedMac, device);
+        if (device.getID() != null) {
+            macById.put(device.getID(), packedMac);
+            devicesById.put(device.getID(), device);
+        }
+        if (generation.get() != loadGeneration) {
+            devicesByMac.asMap().remove(packedMac, device);
+            if (device.getID() != null) {
+                devicesById.asMap().remove(device.getID(), device);
+            }
+        }
+    }
+
+    /**
+     * The generation is bumped before the entries are dropped, so a load either sees it changed or
+     * puts its device before the entries are dropped.
+     */
+    private void invalidateMac(String macAddress) {
+        long packedMac = MacAddress.pack(macAddress);
+        if (packedMac != MacAddress.INVALID) {
+            generation.incrementAndGet();
+            devicesByMac.invalidate(packedMac);
+        }
+    }
+
+    private void invalidateId(String id) {
+        generation.incrementAndGet();
+        devicesById.invalidate(id);
+        Long packedMac = macById.remove(id);
+        if (packedMac != null) {
+            devicesByMac.asMap().computeIfPresent(packedMac,
+                    (mac, device) -> id.equals(device.getID()) ? null : device);
+        }
+        LOG.info("Cache entries of device with {} ID invalidated", id);
+    }
+
+    public CacheStats getDevicesByIdStats() {
+        return devicesById.stats();
+    }
+
+    public CacheStats getDevicesByMacStats() {
+        return devicesByMac.stats();
+    }
+}
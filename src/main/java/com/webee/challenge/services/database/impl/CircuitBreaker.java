@@ -0,0 +1,142 @@
+package com.webee.challenge.services.database.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Count based circuit breaker. The outcomes of the last windowSize calls are kept, and once the window
+ * is full and failureRateThreshold percent of them failed the circuit opens: for openMillis every call
+ * is rejected. After that a single call is let through, and its outcome closes the circuit again or
+ * keeps it open for another openMillis.
+ *
+ * Every change of state starts a new generation, and each call allowed carries the generation it was
+ * allowed in: the outcome of a call allowed before the circuit opened (or before it was half open) is
+ * ignored, so a slow call that ends late can not close the circuit nor count in the next window.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+    private final long openMillis;
+    private final boolean[] failures;
+
+    /**
+     * Value returned by tryAcquire when the call is rejected
+     */
+    static final long REJECTED = -1L;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int calls;
+    private int failed;
+    private int next;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(int windowSize, int failureRateThreshold, long openMillis) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.failures = new boolean[windowSize];
+    }
+
+    /**
+     * @return the generation of the call when it can go to the database, or REJECTED. Every call
+     *          allowed has to be followed by onSuccess, onFailure or onIgnored with that generation
+     */
+    synchronized long tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            generation++;
+            probing = false;
+        }
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case HALF_OPEN:
+                if (probing) {
+                    return REJECTED;
+                }
+                probing = true;
+                return generation;
+            default:
+                return REJECTED;
+        }
+    }
+
+    synchronized void onSuccess(long callGeneration) {
+        if (callGeneration != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            LOG.info("Database answered again, circuit closed");
+            reset(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    synchronized void onFailure(long callGeneration) {
+        if (callGeneration != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (calls == failures.length && failed * 100 >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+
+    /**
+     * The call ended without telling whether the database is healthy (it was rejected before
+     * reaching it), so a probe can be tried again.
+     */
+    synchronized void onIgnored(long callGeneration) {
+        if (callGeneration == generation) {
+            probing = false;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (calls == failures.length) {
+            if (failures[next]) {
+                failed--;
+            }
+        } else {
+            calls++;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failed++;
+        }
+        next = (next + 1) % failures.length;
+    }
+
+    private void open() {
+        LOG.warn("Database failing, circuit open for {} ms", openMillis);
+        reset(State.OPEN);
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        generation++;
+        calls = 0;
+        failed = 0;
+        next = 0;
+        probing = false;
+    }
+}
@@ -0,0 +1,273 @@
+package com.webee.challenge.services.database.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseUnavailableException;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Stops calling the database while it is failing. Every call is counted by a CircuitBreaker: a device
+ * not found or a duplicated MAC Address is a valid answer, and a call rejected because there was no
+ * room for it says nothing about the database, everything else (timeouts included) is a failure.
+ * While the circuit is open the calls fail at once with a DataBaseUnavailableException instead of
+ * waiting for a database that is not answering.
+ *
+ * Lookups by ID and by MAC Address can still be answered meanwhile: the last device found for each
+ * of them is kept (up to fallbackEntries, 0 keeps none) and served when the circuit is open or the
+ * lookup fails, so those answers may be stale, never older than fallbackTtl. Registering or deleting
+ * a device drops the entries it affects, the MAC entry of a deleted device is found through an ID to
+ * MAC index. The state of the circuit is published as devices.database.circuit (0 closed, 1 open,
+ * 2 half open).
+ */
+public class CircuitBreakingDataBaseService extends ForwardingDataBaseService {
+
+    private final CircuitBreaker circuitBreaker;
+    private final Cache<String, Device> lastKnownById;
+    private final Cache<Long, Device> lastKnownByMac;
+    private final Map<String, Long> lastKnownMacById = new ConcurrentHashMap<>();
+    private final Counter rejected;
+    private final Counter fallbacks;
+
+    public CircuitBreakingDataBaseService(DataBaseService delegate, int windowSize, int failureRateThreshold,
+                                          Duration openDuration, long fallbackEntries, Duration fallbackTtl,
+                                          MeterRegistry meterRegistry) {
+        super(delegate);
+        this.circuitBreaker = new CircuitBreaker(windowSize, failureRateThreshold, openDuration.toMillis());
+        if (fallbackEntries > 0) {
+            this.lastKnownById = Caffeine.newBuilder()
+                    .expireAfterWrite(fallbackTtl)
+                    .maximumSize(fallbackEntries)
+                    .build();
+            this.lastKnownByMac = Caffeine.newBuilder()
+                    .expireAfterWrite(fallbackTtl)
+                    .maximumSize(fallbackEntries)
+                    .executor(Runnable::run)
+                    .removalListener(this::onMacEntryRemoved)
+                    .build();
+        } else {
+            this.lastKnownById = null;
+            this.lastKnownByMac = null;
+        }
+
+        Gauge.builder("devices.database.circuit", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("State of the database circuit breaker: 0 closed, 1 open, 2 half open")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("devices.database.circuit.rejected")
+                .description("Database operations rejected because the circuit was open")
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("devices.database.circuit.fallbacks")
+                .description("Lookups answered with the last known device because the database was failing")
+                .register(meterRegistry);
+    }
+
+    private void onMacEntryRemoved(Long packedMac, Device device, RemovalCause cause) {
+        if (packedMac == null || device == null || device.getID() == null) {
+            return;
+        }
+        Device current = lastKnownByMac.asMap().get(packedMac);
+        if (current == null || !device.getID().equals(current.getID())) {
+            lastKnownMacById.remove(device.getID(), packedMac);
+        }
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        DataBaseFutures.await(registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return DataBaseFutures.await(registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        DataBaseFutures.await(deleteDeviceAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return DataBaseFutures.await(searchAllDevicesAsync());
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return DataBaseFutures.await(searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return guard(() -> delegate.registerDeviceAsync(deviceRequest))
+                .whenComplete((result, throwable) -> forgetMac(deviceRequest.getMacAddress()));
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return guard(() -> delegate.registerDevicesAsync(deviceRequests)).whenComplete((results, throwable) ->
+                deviceRequests.forEach(deviceRequest -> forgetMac(deviceRequest.getMacAddress())));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return guard(() -> delegate.deleteDeviceAsync(id))
+                .whenComplete((result, throwable) -> forgetId(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        if (lastKnownById == null) {
+            return guard(() -> delegate.searchDeviceByIdAsync(id));
+        }
+        return withFallback(guard(() -> delegate.searchDeviceByIdAsync(id)), lastKnownById, id, lastKnownById::put);
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        long packedMac = MacAddress.pack(macAddress);
+        if (lastKnownByMac == null || packedMac == MacAddress.INVALID) {
+            return guard(() -> delegate.searchDeviceByMacAsync(macAddress));
+        }
+        return withFallback(guard(() -> delegate.searchDeviceByMacAsync(macAddress)), lastKnownByMac, packedMac,
+                this::rememberByMac);
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return guard(delegate::searchAllDevicesAsync);
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return guard(() -> delegate.searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return guard(() -> delegate.searchDevicesByIdsAsync(ids));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return guard(() -> delegate.searchDevicesByMacsAsync(macAddresses));
+    }
+
+    CircuitBreaker.State getState() {
+        return circuitBreaker.getState();
+    }
+
+    private <T> CompletableFuture<T> guard(Supplier<CompletableFuture<T>> call) {
+        long generation = circuitBreaker.tryAcquire();
+        if (generation == CircuitBreaker.REJECTED) {
+            rejected.increment();
+            return DataBaseFutures.failed(new DataBaseUnavailableException(
+                    "The database is failing, the operation was not tried"));
+        }
+
+        CompletableFuture<T> source;
+        try {
+            source = call.get();
+        } catch (RuntimeException exc) {
+            circuitBreaker.onFailure(generation);
+            return DataBaseFutures.failed(exc);
+        }
+        source.whenComplete((result, throwable) -> {
+            Throwable cause = (throwable == null) ? null : DataBaseFutures.unwrap(throwable);
+            if (cause == null || cause instanceof DeviceNotFoundException || cause instanceof DuplicateMacException) {
+                circuitBreaker.onSuccess(generation);
+            } else if (cause instanceof DataBaseOverloadedException) {
+                circuitBreaker.onIgnored(generation);
+            } else {
+                circuitBreaker.onFailure(generation);
+            }
+        });
+        return source;
+    }
+
+    /**
+     * Keeps the device found, or answers the last one known when the lookup failed for any reason other
+     * than the device not being there (which forgets it).
+     */
+    private <K> CompletableFuture<Device> withFallback(CompletableFuture<Device> lookup, Cache<K, Device> lastKnown,
+                                                       K key, BiConsumer<K, Device> remember) {
+        return lookup.handle((device, throwable) -> {
+            if (throwable == null) {
+                remember.accept(key, device);
+                return CompletableFuture.completedFuture(device);
+            }
+
+            Throwable cause = DataBaseFutures.unwrap(throwable);
+            if (cause instanceof DeviceNotFoundException) {
+                lastKnown.invalidate(key);
+                return DataBaseFutures.<Device>failed(cause);
+            }
+            Device known = lastKnown.getIfPresent(key);
+            if (known == null) {
+                return DataBaseFutures.<Device>failed(cause);
+            }
+            fallbacks.increment();
+            return CompletableFuture.completedFuture(known);
+        }).thenCompose(answer -> answer);
+    }
+
+    /**
+     * The MAC entry is put before its index entry, so the removal of a previous MAC entry never drops
+     * the index entry of this one.
+     */
+    private void rememberByMac(Long packedMac, Device device) {
+        lastKnownByMac.put(packedMac, device);
+        if (device.getID() != null) {
+            lastKnownMacById.put(device.getID(), packedMac);
+        }
+    }
+
+    private void forgetMac(String macAddress) {
+        long packedMac = MacAddress.pack(macAddress);
+        if (lastKnownByMac != null && packedMac != MacAddress.INVALID) {
+            lastKnownByMac.invalidate(packedMac);
+        }
+    }
+
+    private void forgetId(String id) {
+        if (lastKnownById != null) {
+            lastKnownById.invalidate(id);
+            Long packedMac = lastKnownMacById.remove(id);
+            if (packedMac != null) {
+                lastKnownByMac.asMap().computeIfPresent(packedMac,
+                        (mac, device) -> id.equals(device.getID()) ? null : device);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight lookups: while a lookup by ID, a lookup by MAC Address or the list of every device is
+ * running, the same call made by other requests waits for its result instead of reaching the
+ * database again. The lookup is forgotten as soon as it completes, so a call made after that always
+ * gets a fresh result, and the lookups that may miss a write are forgotten when the write completes,
+ * so a read made after a write never joins a lookup started before it. The lookups by MAC Address
+ * are keyed by its canonical text, so "ff:..." and "FF:..." share the same one. Every call answered
+ * by a running lookup increments devices.database.coalesced.
+ */
+public class CoalescingDataBaseService extends ForwardingDataBaseService {
+
+    private static final String ALL_DEVICES = "";
+
+    private final Map<String, CompletableFuture<Device>> lookupsById = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Device>> lookupsByMac = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<List<Device>>> listings = new ConcurrentHashMap<>();
+
+    private final Counter coalescedById;
+    private final Counter coalescedByMac;
+    private final Counter coalescedAll;
+
+    public CoalescingDataBaseService(DataBaseService delegate, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.coalescedById = coalescedCounter(meterRegistry, "searchDeviceById");
+        this.coalescedByMac = coalescedCounter(meterRegistry, "searchDeviceByMac");
+        this.coalescedAll = coalescedCounter(meterRegistry, "searchAllDevices");
+    }
+
+    private static Counter coalescedCounter(MeterRegistry meterRegistry, String operation) {
+        return Counter.builder("devices.database.coalesced")
+                .description("Lookups answered by an identical lookup that was already running")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        DataBaseFutures.await(registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return DataBaseFutures.await(registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        DataBaseFutures.await(deleteDeviceAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return DataBaseFutures.await(searchAllDevicesAsync());
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return delegate.registerDeviceAsync(deviceRequest).whenComplete((result, exc) -> {
+            forgetMac(deviceRequest.getMacAddress());
+            listings.clear();
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return delegate.registerDevicesAsync(deviceRequests).whenComplete((results, exc) -> {
+            deviceRequests.forEach(deviceRequest -> forgetMac(deviceRequest.getMacAddress()));
+            listings.clear();
+        });
+    }
+
+    /**
+     * The MAC Address of the deleted device is not known, so every running lookup by MAC is forgotten
+     */
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return delegate.deleteDeviceAsync(id).whenComplete((result, exc) -> {
+            lookupsById.remove(id);
+            lookupsByMac.clear();
+            listings.clear();
+        });
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return coalesce(lookupsById, id, coalescedById, () -> delegate.searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        if (macAddress == null) {
+            return delegate.searchDeviceByMacAsync(null);
+        }
+        return coalesce(lookupsByMac, MacAddress.canonical(macAddress), coalescedByMac,
+                () -> delegate.searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return coalesce(listings, ALL_DEVICES, coalescedAll, delegate::searchAllDevicesAsync);
+    }
+
+    private void forgetMac(String macAddress) {
+        if (macAddress != null) {
+            lookupsByMac.remove(MacAddress.canonical(macAddress));
+        }
+    }
+
+    public int getInFlightCount() {
+        return lookupsById.size() + lookupsByMac.size() + listings.size();
+    }
+
+    /**
+     * Joins the lookup running for the key, or starts it. The lookup is removed before its callers are
+     * completed, so none of them can join a lookup that already finished.
+     */
+    private <T> CompletableFuture<T> coalesce(Map<String, CompletableFuture<T>> inFlight, String key,
+                                              Counter coalesced, Supplier<CompletableFuture<T>> lookup) {
+        CompletableFuture<T> leader = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, leader);
+        if (running != null) {
+            coalesced.increment();
+            return follow(running);
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = lookup.get();
+        } catch (RuntimeException exc) {
+            future = DataBaseFutures.failed(exc);
+        }
+        future.whenComplete((result, exc) -> {
+            inFlight.remove(key, leader);
+            if (exc != null) {
+                leader.completeExceptionally(DataBaseFutures.unwrap(exc));
+            } else {
+                leader.complete(result);
+            }
+        });
+        return follow(leader);
+    }
+
+    /**
+     * Each caller gets its own future, so completing or cancelling it does not affect the others.
+     */
+    private static <T> CompletableFuture<T> follow(CompletableFuture<T> shared) {
+        CompletableFuture<T> copy = new CompletableFuture<>();
+        shared.whenComplete((result, exc) -> {
+            if (exc != null) {
+                copy.completeExceptionally(exc);
+            } else {
+                copy.complete(result);
+            }
+        });
+        return copy;
+    }
+}
@@ -1,7 +1,9 @@
 package com.webee.challenge.services.database.impl;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.AlreadyExistsException;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseException;
@@ -13,31 +15,105 @@ import com.google.firebase.database.FirebaseDatabase;
 import com.webee.challenge.constants.Constants;
 import com.webee.challenge.controllers.DeviceMonitoringController;
 import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
 import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.database.DataBaseFutures;
 import com.webee.challenge.services.database.DataBaseService;
-import org.apache.commons.text.RandomStringGenerator;
+import com.webee.challenge.services.database.DeviceChangeListener;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.ids.IdGenerationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Service;
 
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import static com.webee.challenge.constants.Constants.COLLECTION;
-
+import static com.webee.challenge.constants.Constants.MAC_INDEX_COLLECTION;
+
+/**
+ * Firestore implementation of the database, it is the default one (database.backend=firestore).
+ *
+ * With database.firestore.layout=auto-id (default) each device is saved in a document with an
+ * auto-generated key, so reaching a device by its ID takes a query on the "id" field. With
+ * database.firestore.layout=device-id the document key is the device ID, and the lookups and deletes
+ * by ID go straight to the document. Existing devices are moved to the device-id layout on startup,
+ * before the web server takes requests, when database.firestore.migrate-layout=true, and the startup
+ * fails if they can not be.
+ *
+ * MAC Addresses are saved and searched with their canonical (upper case) text. Devices saved before
+ * that may have them in lower case: while database.firestore.legacy-macs=true (default) the lookups
+ * by MAC Address also query the lower case text and the text received, and with
+ * database.firestore.backfill-macs=true the stored MAC Addresses are rewritten on startup (see
+ * MacAddressBackfill), after which legacy-macs can be turned off. With database.unique-mac=true
+ * every device also gets a document in the MAC index collection, keyed by its canonical MAC Address
+ * and written in the same atomic batch, so a MAC Address cannot be registered twice.
+ */
 @Service
-public class DataBaseServiceImpl implements DataBaseService {
+@Qualifier("dataBaseBackend")
+@ConditionalOnProperty(name = "database.backend", havingValue = "firestore", matchIfMissing = true)
+public class DataBaseServiceImpl implements DataBaseService, SmartLifecycle {
 
     private static final Logger LOG = LoggerFactory.getLogger(DeviceMonitoringController.class);
 
+    /**
+     * Firestore does not accept more than 500 writes in a WriteBatch
+     */
+    private static final int MAX_BATCH_WRITES = 500;
+
     @Value("${jsonPath}")
     private String jsonPath;
 
+    private int batchSize = MAX_BATCH_WRITES;
+
+    @Value("${database.firestore.layout:auto-id}")
+    private String layout;
+
+    @Value("${database.firestore.migrate-layout:false}")
+    private boolean migrateLayout;
+
+    @Value("${database.firestore.migration-timeout-millis:60000}")
+    private long migrationTimeoutMillis;
+
+    @Value("${database.firestore.legacy-macs:true}")
+    private boolean legacyMacs;
+
+    @Value("${database.firestore.backfill-macs:false}")
+    private boolean backfillMacs;
+
+    @Value("${database.unique-mac:false}")
+    private boolean uniqueMac;
+
+    private final MacRegistrationGuard macGuard = new MacRegistrationGuard();
+
+    private volatile boolean running;
+
+    @Autowired
+    private IdGenerationService idGenerationService;
+
     private Firestore firestoreDB;
 
     @Autowired
@@ -55,113 +131,602 @@ public class DataBaseServiceImpl implements DataBaseService {
         }
     }
 
+    /**
+     * Fails the startup when database.batch-size is out of the range Firestore accepts: 0 or less would
+     * never split the devices, and more than 500 would make every batch fail.
+     */
+    @Value("${database.batch-size:500}")
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_WRITES) {
+            throw new IllegalArgumentException("database.batch-size has to be between 1 and " + MAX_BATCH_WRITES
+                    + ", it is " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Runs the layout migration and the MAC Address backfill once every bean is wired but before the
+     * web server starts, so no request reaches a device that has not been moved yet. A failure stops
+     * the startup: starting again continues where it stopped.
+     */
     @Override
-    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException{
-        DocumentReference docRef = firestoreDB.collection(COLLECTION).document();
-        Map<String, Object> data = new HashMap<>();
+    public void start() {
+        try {
+            updateStoredDevices();
+        } catch (FirebaseException firebaseException) {
+            throw new IllegalStateException("The stored devices could not be updated, the API does not start",
+                    firebaseException);
+        }
+        running = true;
+    }
 
-        data.put("macAddress", deviceRequest.getMacAddress());
-        data.put("date", deviceRequest.getDate());
-        data.put("id", generateRandomId(10));
+    @Override
+    public void stop() {
+        running = false;
+    }
 
-        try {
-            ApiFuture<WriteResult> result = docRef.set(data);
-            LOG.info("Update time {}", result.get().getUpdateTime());
-        } catch (Exception exc) {
-            LOG.error("Something went wrong while saving the device in the database");
-            throw new FirebaseException("Something went wrong while saving the device in the database", exc);
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Any phase before the one of the web server (Integer.MAX_VALUE - 1)
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private void updateStoredDevices() throws FirebaseException {
+        boolean migrate = isDeviceIdLayout() && migrateLayout;
+        if (!migrate && !backfillMacs) {
+            return;
+        }
+        if (firestoreDB == null) {
+            throw new FirebaseException("There is no connection to the database, the stored devices can not be updated");
+        }
+
+        if (migrate) {
+            new FirestoreLayoutMigration(firestoreDB, migrationTimeoutMillis).migrate();
+        }
+        if (backfillMacs) {
+            new MacAddressBackfill(firestoreDB, uniqueMac, migrationTimeoutMillis).backfill();
         }
     }
 
-    private DocumentSnapshot searchDocumentById(String id) throws FirebaseException{
-        CollectionReference resultados = firestoreDB.collection(COLLECTION);
-        Query query = resultados.whereEqualTo("id", id);
-        ApiFuture<QuerySnapshot> futureQuerySnapshot = query.get();
-        QuerySnapshot querySnapshot = null;
-        List<QueryDocumentSnapshot> documentList = null;
+    private boolean isDeviceIdLayout() {
+        return Constants.LAYOUT_DEVICE_ID.equals(layout);
+    }
 
-        try {
-            LOG.info("Searching for device with  {} ID", id);
-            querySnapshot = futureQuerySnapshot.get();
-            documentList = querySnapshot.getDocuments();
-        } catch (Exception exc) {
-            String errorMessage = "There was a problem while searching for " + id + " ID";
-            LOG.error(errorMessage);
-            throw new FirebaseException(errorMessage, exc);
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        DataBaseFutures.await(registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return DataBaseFutures.await(registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        DataBaseFutures.await(deleteDeviceAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return DataBaseFutures.await(searchAllDevicesAsync());
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return DataBaseFutures.await(searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        if (uniqueMac) {
+            return registerUniqueDeviceAsync(deviceRequest);
         }
 
-        if (documentList.size() != 1) {
-            throw new FirebaseException("Found " + documentList.size() + " devices with that ID");
+        String id = idGenerationService.generateId();
+        Map<String, Object> data = generateDocumentData(deviceRequest, id);
+        ApiFuture<WriteResult> write = isDeviceIdLayout()
+                ? firestoreDB.collection(COLLECTION).document(id).create(data)
+                : firestoreDB.collection(COLLECTION).document().set(data);
+
+        return DataBaseFutures.fromApiFuture(write).handle((result, exc) -> {
+            if (exc != null) {
+                LOG.error("Something went wrong while saving the device in the database");
+                throw DataBaseFutures.failure("Something went wrong while saving the device in the database", exc);
+            }
+            LOG.info("Update time {}", result.getUpdateTime());
+            return null;
+        });
+    }
+
+    /**
+     * Saves the device and its MAC index document in a single batch. The create precondition of the
+     * index document makes Firestore reject the whole batch when the MAC Address is taken, and the
+     * guard rejects a registration of a MAC Address that is already being registered by this
+     * process, without a round trip.
+     */
+    private CompletableFuture<Void> registerUniqueDeviceAsync(DeviceRequest deviceRequest) {
+        String macAddress = MacAddress.canonical(deviceRequest.getMacAddress());
+        if (!macGuard.tryAcquire(macAddress)) {
+            return DataBaseFutures.failed(new DuplicateMacException());
         }
 
-        return documentList.get(0);
+        WriteBatch batch = firestoreDB.batch();
+        addDevice(batch, deviceRequest, idGenerationService.generateId());
+
+        CompletableFuture<Void> registered = DataBaseFutures.fromApiFuture(batch.commit()).handle((result, exc) -> {
+            if (exc != null) {
+                if (DataBaseFutures.unwrap(exc) instanceof AlreadyExistsException) {
+                    throw new CompletionException(new DuplicateMacException());
+                }
+                LOG.error("Something went wrong while saving the device in the database");
+                throw DataBaseFutures.failure("Something went wrong while saving the device in the database", exc);
+            }
+            return null;
+        });
+        return registered.whenComplete((result, exc) -> macGuard.release(macAddress));
     }
 
+    /**
+     * Saves the devices with WriteBatch commits of at most database.batch-size devices (Firestore does
+     * not accept more than 500 writes per batch, so with database.unique-mac=true, which takes two
+     * writes per device, a batch has at most 250 devices). The chunks are committed concurrently, and when a
+     * commit fails only the devices of that chunk are reported as not registered. With
+     * database.unique-mac=true the devices whose MAC Address is being registered already are
+     * reported as not registered without reaching the database.
+     */
     @Override
-    public void deleteDevice(String id) throws FirebaseException{
-        DocumentSnapshot document = searchDocumentById(id);
-        String documentID = document.getId();
-        DocumentReference docRef = firestoreDB.collection(COLLECTION).document(documentID);
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        List<DeviceRequest> accepted = deviceRequests;
+        List<String> acquiredMacs = new ArrayList<>();
+        DeviceRegistrationResult[] rejected = new DeviceRegistrationResult[deviceRequests.size()];
+
+        if (uniqueMac) {
+            accepted = new ArrayList<>(deviceRequests.size());
+            for (int index = 0; index < deviceRequests.size(); index++) {
+                DeviceRequest deviceRequest = deviceRequests.get(index);
+                String macAddress = MacAddress.canonical(deviceRequest.getMacAddress());
+                if (macGuard.tryAcquire(macAddress)) {
+                    acquiredMacs.add(macAddress);
+                    accepted.add(deviceRequest);
+                } else {
+                    rejected[index] = DeviceRegistrationResult.builder()
+                            .macAddress(deviceRequest.getMacAddress())
+                            .registered(false)
+                            .message(DuplicateMacException.MESSAGE)
+                            .build();
+                }
+            }
+        }
 
-        try {
-            ApiFuture<WriteResult> future = docRef.delete();
-            LOG.info("Update time {}", future.get().getUpdateTime());
-        } catch (Exception exc) {
-            LOG.error("Something went wrong while saving the device in the database");
-            throw new FirebaseException("Something went wrong while saving the device in the database", exc);
+        int devicesPerBatch = uniqueMac ? Math.min(batchSize, MAX_BATCH_WRITES / 2) : batchSize;
+        List<CompletableFuture<List<DeviceRegistrationResult>>> chunks = new ArrayList<>();
+        for (int from = 0; from < accepted.size(); from += devicesPerBatch) {
+            int to = Math.min(from + devicesPerBatch, accepted.size());
+            chunks.add(commitBatch(accepted.subList(from, to)));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<DeviceRegistrationResult> saved = new ArrayList<>(deviceRequests.size());
+            chunks.forEach(chunk -> saved.addAll(chunk.join()));
+
+            List<DeviceRegistrationResult> results = new ArrayList<>(deviceRequests.size());
+            Iterator<DeviceRegistrationResult> savedResults = saved.iterator();
+            for (DeviceRegistrationResult rejectedResult : rejected) {
+                results.add(rejectedResult != null ? rejectedResult : savedResults.next());
+            }
+            return results;
+        }).whenComplete((results, exc) -> acquiredMacs.forEach(macGuard::release));
+    }
+
+    private CompletableFuture<List<DeviceRegistrationResult>> commitBatch(List<DeviceRequest> deviceRequests) {
+        WriteBatch batch = firestoreDB.batch();
+        List<DeviceRegistrationResult> results = new ArrayList<>(deviceRequests.size());
+
+        for (DeviceRequest deviceRequest : deviceRequests) {
+            String id = idGenerationService.generateId();
+            addDevice(batch, deviceRequest, id);
+            results.add(DeviceRegistrationResult.builder()
+                    .macAddress(deviceRequest.getMacAddress())
+                    .ID(id)
+                    .registered(true)
+                    .build());
+        }
+
+        return DataBaseFutures.fromApiFuture(batch.commit()).handle((writeResults, exc) -> {
+            if (exc == null) {
+                LOG.info("Batch of {} devices saved", deviceRequests.size());
+                return CompletableFuture.completedFuture(results);
+            }
+
+            boolean duplicateMac = DataBaseFutures.unwrap(exc) instanceof AlreadyExistsException;
+            if (duplicateMac && deviceRequests.size() > 1) {
+                LOG.warn("Batch of {} devices has a MAC Address already registered, saving them one by one",
+                        deviceRequests.size());
+                return commitOneByOne(deviceRequests);
+            }
+
+            String errorMessage = duplicateMac
+                    ? DuplicateMacException.MESSAGE
+                    : "Something went wrong while saving the device in the database";
+            LOG.error("Batch of {} devices not saved: {}", deviceRequests.size(), exc.getMessage());
+            results.forEach(result -> {
+                result.setID(null);
+                result.setRegistered(false);
+                result.setMessage(errorMessage);
+            });
+            return CompletableFuture.completedFuture(results);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Commits every device in its own batch, to find out which ones have a MAC Address already taken
+     */
+    private CompletableFuture<List<DeviceRegistrationResult>> commitOneByOne(List<DeviceRequest> deviceRequests) {
+        List<CompletableFuture<List<DeviceRegistrationResult>>> singles = new ArrayList<>(deviceRequests.size());
+        deviceRequests.forEach(deviceRequest -> singles.add(commitBatch(Collections.singletonList(deviceRequest))));
+
+        return CompletableFuture.allOf(singles.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<DeviceRegistrationResult> results = new ArrayList<>(deviceRequests.size());
+            singles.forEach(single -> results.addAll(single.join()));
+            return results;
+        });
+    }
+
+    /**
+     * Adds the writes that save the device to the batch: its document and, with
+     * database.unique-mac=true, its MAC index document.
+     */
+    private void addDevice(WriteBatch batch, DeviceRequest deviceRequest, String id) {
+        CollectionReference devices = firestoreDB.collection(COLLECTION);
+        if (isDeviceIdLayout()) {
+            batch.create(devices.document(id), generateDocumentData(deviceRequest, id));
+        } else {
+            batch.set(devices.document(), generateDocumentData(deviceRequest, id));
+        }
+
+        if (uniqueMac) {
+            String macAddress = MacAddress.canonical(deviceRequest.getMacAddress());
+            batch.create(firestoreDB.collection(MAC_INDEX_COLLECTION).document(macAddress),
+                    Collections.singletonMap("id", id));
         }
+    }
+
+    private CompletableFuture<DocumentSnapshot> searchDocumentByIdAsync(String id) {
+        if (isDeviceIdLayout()) {
+            return getDocumentAsync(id);
+        }
+
+        CollectionReference resultados = firestoreDB.collection(COLLECTION);
+        Query query = resultados.whereEqualTo("id", id);
 
-        LOG.info("Device with {} ID deleted", id);
+        LOG.info("Searching for device with  {} ID", id);
+        return DataBaseFutures.fromApiFuture(query.get()).handle((querySnapshot, exc) -> {
+            if (exc != null) {
+                String errorMessage = "There was a problem while searching for " + id + " ID";
+                LOG.error(errorMessage);
+                throw DataBaseFutures.failure(errorMessage, exc);
+            }
+
+            List<QueryDocumentSnapshot> documentList = querySnapshot.getDocuments();
+            if (documentList.isEmpty()) {
+                throw new CompletionException(new DeviceNotFoundException("Found 0 devices with that ID"));
+            }
+            if (documentList.size() != 1) {
+                throw DataBaseFutures.failure("Found " + documentList.size() + " devices with that ID");
+            }
+            return documentList.get(0);
+        });
     }
 
+    private CompletableFuture<DocumentSnapshot> getDocumentAsync(String id) {
+        DocumentReference docRef = firestoreDB.collection(COLLECTION).document(id);
+
+        LOG.info("Reading document of device with {} ID", id);
+        return DataBaseFutures.fromApiFuture(docRef.get()).handle((document, exc) -> {
+            if (exc != null) {
+                String errorMessage = "There was a problem while searching for " + id + " ID";
+                LOG.error(errorMessage);
+                throw DataBaseFutures.failure(errorMessage, exc);
+            }
+
+            if (!document.exists()) {
+                throw new CompletionException(new DeviceNotFoundException("Found 0 devices with that ID"));
+            }
+            return document;
+        });
+    }
 
     @Override
-    public Device searchDeviceById(String id) throws FirebaseException{
-        DocumentSnapshot document = searchDocumentById(id);
-        return document.toObject(Device.class);
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        if (uniqueMac) {
+            return deleteIndexedDeviceAsync(id);
+        }
+        if (isDeviceIdLayout()) {
+            return deleteDocumentAsync(id);
+        }
+
+        return searchDocumentByIdAsync(id).thenCompose(document -> {
+            String documentID = document.getId();
+            DocumentReference docRef = firestoreDB.collection(COLLECTION).document(documentID);
+            return DataBaseFutures.fromApiFuture(docRef.delete());
+        }).handle((result, exc) -> {
+            if (exc != null) {
+                Throwable cause = DataBaseFutures.unwrap(exc);
+                if (cause instanceof FirebaseException) {
+                    throw new CompletionException(cause);
+                }
+                LOG.error("Something went wrong while saving the device in the database");
+                throw DataBaseFutures.failure("Something went wrong while saving the device in the database", cause);
+            }
+            LOG.info("Update time {}", result.getUpdateTime());
+            LOG.info("Device with {} ID deleted", id);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the document of the device and its MAC index document in a transaction. The index
+     * document is only deleted when it belongs to this device, since devices registered before
+     * database.unique-mac=true may share their MAC Address, and the device document is read again in
+     * the transaction so a device deleted meanwhile is reported as not found.
+     */
+    private CompletableFuture<Void> deleteIndexedDeviceAsync(String id) {
+        return searchDocumentByIdAsync(id).thenCompose(document -> {
+            String macAddress = MacAddress.canonical(document.getString("macAddress"));
+            DocumentReference indexRef = firestoreDB.collection(MAC_INDEX_COLLECTION).document(macAddress);
+
+            return DataBaseFutures.fromApiFuture(firestoreDB.runTransaction(transaction -> {
+                DocumentSnapshot current = transaction.get(document.getReference()).get();
+                DocumentSnapshot index = transaction.get(indexRef).get();
+                if (!current.exists()) {
+                    throw new DeviceNotFoundException("Found 0 devices with that ID");
+                }
+                transaction.delete(document.getReference());
+                if (index.exists() && id.equals(index.getString("id"))) {
+                    transaction.delete(indexRef);
+                }
+                return null;
+            }));
+        }).handle((result, exc) -> {
+            if (exc != null) {
+                Throwable cause = DataBaseFutures.unwrap(exc);
+                if (cause instanceof FirebaseException) {
+                    throw new CompletionException(cause);
+                }
+                LOG.error("Something went wrong while saving the device in the database");
+                throw DataBaseFutures.failure("Something went wrong while saving the device in the database", cause);
+            }
+            LOG.info("Device with {} ID deleted", id);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the document of the device in a transaction that reads it first, so the delete of a
+     * device that is not saved is reported as not found instead of being ignored by Firestore.
+     */
+    private CompletableFuture<Void> deleteDocumentAsync(String id) {
+        DocumentReference docRef = firestoreDB.collection(COLLECTION).document(id);
+
+        return DataBaseFutures.fromApiFuture(firestoreDB.runTransaction(transaction -> {
+            if (!transaction.get(docRef).get().exists()) {
+                throw new DeviceNotFoundException("Found 0 devices with that ID");
+            }
+            transaction.delete(docRef);
+            return null;
+        })).handle((result, exc) -> {
+            if (exc != null) {
+                Throwable cause = DataBaseFutures.unwrap(exc);
+                if (cause instanceof FirebaseException) {
+                    throw new CompletionException(cause);
+                }
+                LOG.error("Something went wrong while saving the device in the database");
+                throw DataBaseFutures.failure("Something went wrong while saving the device in the database", cause);
+            }
+            LOG.info("Device with {} ID deleted", id);
+            return null;
+        });
     }
 
     @Override
-    public Device searchDeviceByMac(String macAddress) throws FirebaseException{
-        CollectionReference resultados = firestoreDB.collection(COLLECTION);
-        Query query = resultados.whereEqualTo("macAddress", macAddress);
-        ApiFuture<QuerySnapshot> futureQuerySnapshot = query.get();
-        QuerySnapshot querySnapshot = null;
-        List<QueryDocumentSnapshot> documentList = null;
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return searchDocumentByIdAsync(id).thenApply(document -> document.toObject(Device.class));
+    }
 
-        try {
-            LOG.info("Searching for device with {} MAC Address", macAddress);
-            querySnapshot = futureQuerySnapshot.get();
-            documentList = querySnapshot.getDocuments();
-        } catch (Exception exc) {
-            String errorMessage = "There was a problem while searching for " + macAddress + "MAC address";
-            LOG.error(errorMessage);
-            throw new FirebaseException(errorMessage, exc);
+    /**
+     * With database.firestore.legacy-macs=true the forms a device saved before the MAC Addresses were
+     * canonical may have are queried at the same time, and the documents found are merged.
+     */
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        CollectionReference resultados = firestoreDB.collection(COLLECTION);
+        List<CompletableFuture<QuerySnapshot>> queries = new ArrayList<>();
+        for (String form : macAddressForms(macAddress)) {
+            queries.add(DataBaseFutures.fromApiFuture(resultados.whereEqualTo("macAddress", form).get()));
         }
 
-        if (documentList.size() != 1) {
-            throw new FirebaseException("Found " + documentList.size() + " devices with that MAC Address");
+        LOG.info("Searching for device with {} MAC Address", macAddress);
+        return CompletableFuture.allOf(queries.toArray(new CompletableFuture<?>[0])).handle((done, exc) -> {
+            if (exc != null) {
+                String errorMessage = "There was a problem while searching for " + macAddress + "MAC address";
+                LOG.error(errorMessage);
+                throw DataBaseFutures.failure(errorMessage, exc);
+            }
+
+            Map<String, QueryDocumentSnapshot> documents = new LinkedHashMap<>();
+            for (CompletableFuture<QuerySnapshot> query : queries) {
+                query.join().getDocuments().forEach(document -> documents.put(document.getId(), document));
+            }
+            if (documents.isEmpty()) {
+                throw new CompletionException(new DeviceNotFoundException("Found 0 devices with that MAC Address"));
+            }
+            if (documents.size() != 1) {
+                throw DataBaseFutures.failure("Found " + documents.size() + " devices with that MAC Address");
+            }
+
+            DocumentSnapshot document = documents.values().iterator().next();
+            return document.toObject(Device.class);
+        });
+    }
+
+    private List<String> macAddressForms(String macAddress) {
+        String canonical = MacAddress.canonical(macAddress);
+        if (!legacyMacs) {
+            return Collections.singletonList(canonical);
         }
 
-        DocumentSnapshot document = documentList.get(0);
-        return document.toObject(Device.class);
+        LinkedHashSet<String> forms = new LinkedHashSet<>();
+        forms.add(canonical);
+        forms.add(canonical.toLowerCase());
+        forms.add(macAddress);
+        return new ArrayList<>(forms);
     }
 
     @Override
-    public List<Device> searchAllDevices() throws FirebaseException{
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
         ApiFuture<QuerySnapshot> query = firestoreDB.collection(COLLECTION).get();
-        QuerySnapshot querySnapshot = null;
 
-        try {
-            querySnapshot = query.get();
+        return DataBaseFutures.fromApiFuture(query).handle((querySnapshot, exc) -> {
+            if (exc != null) {
+                LOG.error("Something went wrong while reading the database");
+                throw DataBaseFutures.failure("Something went wrong while reading the database", exc);
+            }
+
+            List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+            return generarListaResult(documents);
+        });
+    }
+
+    /**
+     * With the device-id layout the devices are read with one getAll call per chunk of
+     * Constants.BULK_LOOKUP_CHUNK IDs, instead of one query per ID.
+     */
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        if (!isDeviceIdLayout()) {
+            return DataBaseService.super.searchDevicesByIdsAsync(ids);
+        }
+
+        Map<String, DeviceLookupResult> results = new LinkedHashMap<>();
+        List<DocumentReference> docRefs = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            try {
+                docRefs.add(firestoreDB.collection(COLLECTION).document(id));
+                results.put(id, null);
+            } catch (IllegalArgumentException | NullPointerException invalidId) {
+                results.put(id, DeviceLookupResult.invalid("The ID is not a valid document ID"));
+            }
+        }
+
+        List<CompletableFuture<List<DocumentSnapshot>>> chunks = new ArrayList<>();
+        for (int from = 0; from < docRefs.size(); from += Constants.BULK_LOOKUP_CHUNK) {
+            List<DocumentReference> chunk = docRefs.subList(from, Math.min(from + Constants.BULK_LOOKUP_CHUNK, docRefs.size()));
+            chunks.add(DataBaseFutures.fromApiFuture(firestoreDB.getAll(chunk.toArray(new DocumentReference[0]))));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).handle((done, exc) -> {
+            if (exc != null) {
+                LOG.error("Something went wrong while reading the database");
+                throw DataBaseFutures.failure("Something went wrong while reading the database", exc);
+            }
+
+            for (CompletableFuture<List<DocumentSnapshot>> chunk : chunks) {
+                for (DocumentSnapshot document : chunk.join()) {
+                    results.put(document.getId(), document.exists()
+                            ? DeviceLookupResult.found(document.toObject(Device.class))
+                            : DeviceLookupResult.notFound("Found 0 devices with that ID"));
+                }
+            }
+            return results;
+        });
+    }
 
-        } catch (Exception exc) {
-            LOG.error("Something went wrong while reading the database");
-            throw new FirebaseException("Something went wrong while reading the database", exc);
+    /**
+     * Pages are ordered by document ID, and the page token is the ID of the last document of the
+     * previous page, so Firestore starts reading right after it.
+     */
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        Query query = firestoreDB.collection(COLLECTION).orderBy(FieldPath.documentId()).limit(limit);
+        if (pageToken != null) {
+            query = query.startAfter(pageToken);
         }
 
-        List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
-        return generarListaResult(documents);
+        return DataBaseFutures.fromApiFuture(query.get()).handle((querySnapshot, exc) -> {
+            if (exc != null) {
+                LOG.error("Something went wrong while reading the database");
+                throw DataBaseFutures.failure("Something went wrong while reading the database", exc);
+            }
+
+            List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+            String nextPageToken = (documents.size() == limit) ? documents.get(limit - 1).getId() : null;
+            return new DevicePage(generarListaResult(documents), nextPageToken);
+        });
+    }
+
+    /**
+     * Registers one snapshot listener on the collection. The first snapshot has every existing
+     * device, so it is skipped, and the next ones are sent as the devices added and removed (a
+     * document rewritten by the layout migration is removed and added again). Modified documents are
+     * not sent, devices are never updated through the API.
+     */
+    @Override
+    public Closeable listenToChanges(DeviceChangeListener listener, boolean includeExisting) throws FirebaseException {
+        if (firestoreDB == null) {
+            throw new FirebaseException("Something went wrong while reading the database");
+        }
+
+        AtomicBoolean initialSnapshot = new AtomicBoolean(!includeExisting);
+        ListenerRegistration registration = firestoreDB.collection(COLLECTION).addSnapshotListener((snapshot, exc) -> {
+            if (exc != null) {
+                LOG.error("Something went wrong while listening to the database: ", exc);
+                listener.onError(new FirebaseException("Something went wrong while listening to the database", exc));
+                return;
+            }
+            if (snapshot == null || initialSnapshot.getAndSet(false)) {
+                return;
+            }
+
+            long readTime = toEpochMillis(snapshot.getReadTime());
+            for (DocumentChange documentChange : snapshot.getDocumentChanges()) {
+                if (documentChange.getType() == DocumentChange.Type.MODIFIED) {
+                    continue;
+                }
+                boolean added = documentChange.getType() == DocumentChange.Type.ADDED;
+                listener.onChange(DeviceChange.builder()
+                        .type(added ? DeviceChange.Type.ADDED : DeviceChange.Type.REMOVED)
+                        .device(documentChange.getDocument().toObject(Device.class))
+                        .committedAt(added ? toEpochMillis(documentChange.getDocument().getUpdateTime()) : readTime)
+                        .build());
+            }
+            listener.onSynced(readTime);
+        });
+        LOG.info("Listening to the changes of the {} collection", COLLECTION);
+        return registration::remove;
+    }
+
+    private static long toEpochMillis(Timestamp timestamp) {
+        return (timestamp == null)
+                ? System.currentTimeMillis()
+                : timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1_000_000;
     }
 
     private List<Device> generarListaResult(List<QueryDocumentSnapshot> documents) {
@@ -173,10 +738,13 @@ public class DataBaseServiceImpl implements DataBaseService {
         return lista;
     }
 
-    private String generateRandomId(int length) {
-        RandomStringGenerator generator = new RandomStringGenerator.Builder()
-                .withinRange('a', 'z').build();
-        return generator.generate(length);
+    private Map<String, Object> generateDocumentData(DeviceRequest deviceRequest, String id) {
+        Map<String, Object> data = new HashMap<>();
+
+        data.put("macAddress", MacAddress.canonical(deviceRequest.getMacAddress()));
+        data.put("date", deviceRequest.getDate());
+        data.put("id", id);
+        return data;
     }
 }
 
@@ -0,0 +1,181 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseTimeoutException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Gives every database operation a deadline: lookups (by ID or MAC Address, single or bulk), scans
+ * (the whole collection and its pages) and writes each have their own. When the database does not
+ * answer in time the operation fails with a DataBaseTimeoutException, so no request waits forever on
+ * a stuck RPC. The RPC itself is not cancelled, a write that timed out may still be applied. A
+ * deadline of 0 disables it.
+ */
+public class DeadlineDataBaseService extends ForwardingDataBaseService {
+
+    private final long lookupTimeoutMillis;
+    private final long scanTimeoutMillis;
+    private final long writeTimeoutMillis;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final MeterRegistry meterRegistry;
+
+    public DeadlineDataBaseService(DataBaseService delegate, Duration lookupTimeout, Duration scanTimeout,
+                                   Duration writeTimeout, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.lookupTimeoutMillis = lookupTimeout.toMillis();
+        this.scanTimeoutMillis = scanTimeout.toMillis();
+        this.writeTimeoutMillis = writeTimeout.toMillis();
+        this.meterRegistry = meterRegistry;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "device-database-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        DataBaseFutures.await(registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return DataBaseFutures.await(registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        DataBaseFutures.await(deleteDeviceAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return DataBaseFutures.await(searchAllDevicesAsync());
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return DataBaseFutures.await(searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return withDeadline("registerDevice", writeTimeoutMillis, () -> delegate.registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return withDeadline("registerDevices", writeTimeoutMillis, () -> delegate.registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return withDeadline("deleteDevice", writeTimeoutMillis, () -> delegate.deleteDeviceAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return withDeadline("searchDeviceById", lookupTimeoutMillis, () -> delegate.searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return withDeadline("searchDeviceByMac", lookupTimeoutMillis, () -> delegate.searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return withDeadline("searchAllDevices", scanTimeoutMillis, delegate::searchAllDevicesAsync);
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return withDeadline("searchDevicesPage", scanTimeoutMillis, () -> delegate.searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return withDeadline("searchDevicesByIds", lookupTimeoutMillis, () -> delegate.searchDevicesByIdsAsync(ids));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return withDeadline("searchDevicesByMacs", lookupTimeoutMillis,
+                () -> delegate.searchDevicesByMacsAsync(macAddresses));
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        super.close();
+    }
+
+    private <T> CompletableFuture<T> withDeadline(String operation, long timeoutMillis,
+                                                  Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> source;
+        try {
+            source = call.get();
+        } catch (RuntimeException exc) {
+            return DataBaseFutures.failed(exc);
+        }
+        if (timeoutMillis <= 0 || source.isDone()) {
+            return source;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // The timeout is counted before the operation fails, so whoever sees the failure sees it counted
+        ScheduledFuture<?> deadline = scheduler.schedule(() -> {
+            if (!result.isDone()) {
+                timeouts(operation).increment();
+                result.completeExceptionally(new DataBaseTimeoutException(
+                        "The database did not answer within " + timeoutMillis + " ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        source.whenComplete((value, exc) -> {
+            deadline.cancel(false);
+            if (exc != null) {
+                result.completeExceptionally(DataBaseFutures.unwrap(exc));
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    private Counter timeouts(String operation) {
+        return Counter.builder("devices.database.timeouts")
+                .description("Database operations that did not answer before their deadline")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,185 @@
+package com.webee.challenge.services.database.impl;
+
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.MacAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Devices kept in memory, in a concurrent map sorted by ID (so pages can be served in ID order) and
+ * a second concurrent map from every packed MAC Address to the IDs of the devices with it. Devices
+ * with a MAC Address that is not valid are only kept by ID. A device is added to and removed from
+ * both maps inside the compute of its MAC Address entry, so a delete racing with the insert of the
+ * same device never leaves its ID behind in the MAC index. Devices are copied when they are stored
+ * and when they are returned, so callers can not change the stored ones.
+ */
+class DeviceIndex {
+
+    private final ConcurrentNavigableMap<String, Device> devicesById = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Long, Set<String>> idsByMac = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the device unless there is already one with its ID.
+     *
+     * @return true when the device was added
+     */
+    boolean putIfAbsent(Device device) {
+        Device stored = copy(device);
+        long packedMac = MacAddress.pack(stored.getMacAddress());
+        if (packedMac == MacAddress.INVALID) {
+            return devicesById.putIfAbsent(stored.getID(), stored) == null;
+        }
+
+        boolean[] added = new boolean[1];
+        idsByMac.compute(packedMac, (mac, ids) -> {
+            added[0] = devicesById.putIfAbsent(stored.getID(), stored) == null;
+            return added[0] ? withId(ids, stored.getID()) : ids;
+        });
+        return added[0];
+    }
+
+    /**
+     * Adds the device, replacing the one with the same ID if there is one.
+     */
+    void put(Device device) {
+        Device stored = copy(device);
+        long packedMac = MacAddress.pack(stored.getMacAddress());
+        Device previous;
+        if (packedMac == MacAddress.INVALID) {
+            previous = devicesById.put(stored.getID(), stored);
+        } else {
+            Device[] replaced = new Device[1];
+            idsByMac.compute(packedMac, (mac, ids) -> {
+                replaced[0] = devicesById.put(stored.getID(), stored);
+                return withId(ids, stored.getID());
+            });
+            previous = replaced[0];
+        }
+
+        if (previous != null && MacAddress.pack(previous.getMacAddress()) != packedMac) {
+            unindexMac(previous);
+        }
+    }
+
+    /**
+     * @return the removed device, or null when there was none with that ID
+     */
+    Device remove(String id) {
+        while (true) {
+            Device device = devicesById.get(id);
+            if (device == null) {
+                return null;
+            }
+
+            long packedMac = MacAddress.pack(device.getMacAddress());
+            boolean[] removed = new boolean[1];
+            if (packedMac == MacAddress.INVALID) {
+                removed[0] = devicesById.remove(id, device);
+            } else {
+                idsByMac.compute(packedMac, (mac, ids) -> {
+                    removed[0] = devicesById.remove(id, device);
+                    if (removed[0] && ids != null) {
+                        ids.remove(id);
+                    }
+                    return (ids == null || ids.isEmpty()) ? null : ids;
+                });
+            }
+            if (removed[0]) {
+                return device;
+            }
+        }
+    }
+
+    void clear() {
+        devicesById.clear();
+        idsByMac.clear();
+    }
+
+    Device get(String id) {
+        Device device = devicesById.get(id);
+        return (device == null) ? null : copy(device);
+    }
+
+    List<Device> getByMac(String macAddress) {
+        Set<String> ids = idsByMac.get(MacAddress.pack(macAddress));
+        List<Device> devices = new ArrayList<>();
+
+        if (ids != null) {
+            for (String id : ids) {
+                Device device = devicesById.get(id);
+                if (device != null) {
+                    devices.add(copy(device));
+                }
+            }
+        }
+        return devices;
+    }
+
+    List<Device> getAll() {
+        List<Device> devices = new ArrayList<>(devicesById.size());
+        for (Device device : devicesById.values()) {
+            devices.add(copy(device));
+        }
+        return devices;
+    }
+
+    /**
+     * Returns at most limit devices in ID order, starting after the ID pageToken (null for the first
+     * page). The next page token is the ID of the last device, or null on the last page.
+     */
+    DevicePage getPage(int limit, String pageToken) {
+        ConcurrentNavigableMap<String, Device> remaining = (pageToken == null)
+                ? devicesById
+                : devicesById.tailMap(pageToken, false);
+        List<Device> devices = new ArrayList<>(limit);
+
+        for (Device device : remaining.values()) {
+            if (devices.size() == limit) {
+                break;
+            }
+            devices.add(copy(device));
+        }
+
+        String nextPageToken = (devices.size() == limit) ? devices.get(limit - 1).getID() : null;
+        return new DevicePage(devices, nextPageToken);
+    }
+
+    int size() {
+        return devicesById.size();
+    }
+
+    /**
+     * Removes the ID of the replaced device from its MAC Address entry, unless the device saved with
+     * that ID is back on the same MAC Address.
+     */
+    private void unindexMac(Device device) {
+        idsByMac.computeIfPresent(MacAddress.pack(device.getMacAddress()), (mac, ids) -> {
+            Device current = devicesById.get(device.getID());
+            if (current == null || MacAddress.pack(current.getMacAddress()) != mac) {
+                ids.remove(device.getID());
+            }
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static Set<String> withId(Set<String> ids, String id) {
+        Set<String> result = (ids == null) ? ConcurrentHashMap.newKeySet() : ids;
+        result.add(id);
+        return result;
+    }
+
+    private static Device copy(Device device) {
+        return Device.builder()
+                .ID(device.getID())
+                .date(device.getDate())
+                .macAddress(device.getMacAddress())
+                .build();
+    }
+}
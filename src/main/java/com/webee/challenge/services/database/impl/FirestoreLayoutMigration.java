@@ -0,0 +1,155 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.FirebaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.webee.challenge.constants.Constants.COLLECTION;
+
+/**
+ * Rewrites the devices saved with an auto-generated document ID, so each one is stored in a document
+ * whose key is the device ID (the layout used with database.firestore.layout=device-id). The
+ * collection is read by pages, and every page is moved with a single WriteBatch that creates the new
+ * documents and deletes the old ones, so a device is never duplicated nor lost.
+ *
+ * A device whose ID is already stored under its key (saved twice, or by a run that was stopped) is
+ * not created again: the old document is deleted when it holds the same data, and kept and logged
+ * when it does not, so one duplicated ID does not fail the same page on every run. Every read and
+ * commit waits at most timeoutMillis.
+ */
+public class FirestoreLayoutMigration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FirestoreLayoutMigration.class);
+
+    /**
+     * Each migrated device takes two writes, and a WriteBatch accepts up to 500
+     */
+    private static final int PAGE_SIZE = 250;
+
+    private final Firestore firestoreDB;
+    private final long timeoutMillis;
+
+    public FirestoreLayoutMigration(Firestore firestoreDB, long timeoutMillis) {
+        this.firestoreDB = firestoreDB;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Moves every device that is not stored under its ID yet.
+     *
+     * @return number of devices moved
+     * @throws FirebaseException exception thrown when a page could not be read or written, the pages
+     *          already committed stay migrated and running it again continues from there
+     */
+    public int migrate() throws FirebaseException {
+        CollectionReference collection = firestoreDB.collection(COLLECTION);
+        String lastDocumentId = null;
+        int migrated = 0;
+        int skipped = 0;
+
+        while (true) {
+            Query query = collection.orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+            if (lastDocumentId != null) {
+                query = query.startAfter(lastDocumentId);
+            }
+
+            List<QueryDocumentSnapshot> documents;
+            try {
+                documents = query.get().get(timeoutMillis, TimeUnit.MILLISECONDS).getDocuments();
+            } catch (Exception exc) {
+                throw new FirebaseException("Something went wrong while reading the database", exc);
+            }
+
+            if (documents.isEmpty()) {
+                break;
+            }
+
+            List<QueryDocumentSnapshot> legacyDocuments = new ArrayList<>();
+            for (QueryDocumentSnapshot document : documents) {
+                String id = document.getString("id");
+                if (id != null && !id.equals(document.getId())) {
+                    legacyDocuments.add(document);
+                }
+            }
+
+            Map<String, Map<String, Object>> stored = storedDevices(collection, legacyDocuments);
+            WriteBatch batch = firestoreDB.batch();
+            int pending = 0;
+            for (QueryDocumentSnapshot document : legacyDocuments) {
+                String id = document.getString("id");
+                Map<String, Object> storedData = stored.get(id);
+                if (storedData == null) {
+                    batch.create(collection.document(id), document.getData());
+                    stored.put(id, document.getData());
+                } else if (!storedData.equals(document.getData())) {
+                    LOG.warn("Device with {} ID not migrated, document {} differs from the one already stored",
+                            id, document.getId());
+                    skipped++;
+                    continue;
+                }
+                batch.delete(document.getReference());
+                pending++;
+            }
+
+            if (pending > 0) {
+                try {
+                    batch.commit().get(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (Exception exc) {
+                    throw new FirebaseException("Something went wrong while migrating the devices, "
+                            + migrated + " devices were migrated", exc);
+                }
+                migrated += pending;
+                LOG.info("{} devices migrated to the device ID layout", migrated);
+            }
+
+            lastDocumentId = documents.get(documents.size() - 1).getId();
+        }
+
+        LOG.info("Migration to the device ID layout finished, {} devices migrated, {} left", migrated, skipped);
+        return migrated;
+    }
+
+    /**
+     * @return the data of the devices of the page already stored under their ID, by device ID
+     */
+    private Map<String, Map<String, Object>> storedDevices(CollectionReference collection,
+                                                          List<QueryDocumentSnapshot> legacyDocuments)
+            throws FirebaseException {
+        Map<String, Map<String, Object>> stored = new HashMap<>();
+        if (legacyDocuments.isEmpty()) {
+            return stored;
+        }
+
+        Map<String, DocumentReference> docRefs = new LinkedHashMap<>();
+        for (QueryDocumentSnapshot document : legacyDocuments) {
+            String id = document.getString("id");
+            docRefs.put(id, collection.document(id));
+        }
+        try {
+            for (DocumentSnapshot document : firestoreDB.getAll(docRefs.values().toArray(new DocumentReference[0]))
+                    .get(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (document.exists()) {
+                    stored.put(document.getId(), document.getData());
+                }
+            }
+        } catch (Exception exc) {
+            throw new FirebaseException("Something went wrong while reading the database", exc);
+        }
+        return stored;
+    }
+}
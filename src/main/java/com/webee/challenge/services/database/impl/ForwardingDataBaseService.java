@@ -0,0 +1,125 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceChangeListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Base class for the decorators placed in front of the database backend. Every call is forwarded to
+ * the delegate, so each decorator only overrides the operations it cares about. Closing a decorator
+ * closes the decorators behind it.
+ */
+public abstract class ForwardingDataBaseService implements DataBaseService, Closeable {
+
+    protected final DataBaseService delegate;
+
+    protected ForwardingDataBaseService(DataBaseService delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Closes the delegate when it is another decorator, the backends are closed by Spring
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof ForwardingDataBaseService) {
+            ((ForwardingDataBaseService) delegate).close();
+        }
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        delegate.registerDevice(deviceRequest);
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return delegate.registerDevices(deviceRequests);
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        delegate.deleteDevice(id);
+    }
+
+    @Override
+    public Closeable listenToChanges(DeviceChangeListener listener, boolean includeExisting) throws FirebaseException {
+        return delegate.listenToChanges(listener, includeExisting);
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return delegate.searchDeviceById(id);
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return delegate.searchDeviceByMac(macAddress);
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return delegate.searchAllDevices();
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return delegate.searchDevicesPage(limit, pageToken);
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return delegate.registerDeviceAsync(deviceRequest);
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return delegate.registerDevicesAsync(deviceRequests);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return delegate.deleteDeviceAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return delegate.searchDeviceByIdAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return delegate.searchDeviceByMacAsync(macAddress);
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return delegate.searchAllDevicesAsync();
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return delegate.searchDevicesPageAsync(limit, pageToken);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return delegate.searchDevicesByIdsAsync(ids);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return delegate.searchDevicesByMacsAsync(macAddresses);
+    }
+}
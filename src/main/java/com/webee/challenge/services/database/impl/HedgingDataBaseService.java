@@ -0,0 +1,146 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hedged lookups by ID and by MAC Address: when the database has not answered a lookup after the
+ * configured percentile of the latency of the last lookups of the same kind (never less than
+ * minDelay), the same lookup is sent again and the first answer wins. A device not found is an
+ * answer, any other failure waits for the other lookup. The lookups slower than the percentile are
+ * the ones that get a second chance, so at most 1 - percentile of them are doubled. Every lookup
+ * sent again increments devices.database.hedged.
+ */
+public class HedgingDataBaseService extends ForwardingDataBaseService {
+
+    private static final int MIN_SAMPLES = 100;
+    private static final int WINDOW = 1000;
+
+    private final long minDelayNanos;
+    private final Hedge byId;
+    private final Hedge byMac;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public HedgingDataBaseService(DataBaseService delegate, double percentile, Duration minDelay,
+                                  MeterRegistry meterRegistry) {
+        super(delegate);
+        this.minDelayNanos = minDelay.toNanos();
+        this.byId = new Hedge(percentile, meterRegistry, "searchDeviceById");
+        this.byMac = new Hedge(percentile, meterRegistry, "searchDeviceByMac");
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "device-database-hedges");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return DataBaseFutures.await(searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return byId.lookup(() -> delegate.searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return byMac.lookup(() -> delegate.searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        super.close();
+    }
+
+    private static boolean isAnswer(Throwable throwable) {
+        return throwable == null || DataBaseFutures.unwrap(throwable) instanceof DeviceNotFoundException;
+    }
+
+    private final class Hedge {
+
+        private final LatencyEstimator latency;
+        private final Counter hedged;
+
+        private Hedge(double percentile, MeterRegistry meterRegistry, String operation) {
+            this.latency = new LatencyEstimator(percentile, MIN_SAMPLES, WINDOW);
+            this.hedged = Counter.builder("devices.database.hedged")
+                    .description("Lookups sent again because the database was slower than usual")
+                    .tag("operation", operation)
+                    .register(meterRegistry);
+        }
+
+        private CompletableFuture<Device> lookup(Supplier<CompletableFuture<Device>> call) {
+            long start = System.nanoTime();
+            long estimate = latency.getEstimateNanos();
+
+            CompletableFuture<Device> first = call.get();
+            first.whenComplete((device, throwable) -> {
+                if (isAnswer(throwable)) {
+                    latency.record(System.nanoTime() - start);
+                }
+            });
+            if (estimate < 0 || first.isDone()) {
+                return first;
+            }
+
+            CompletableFuture<Device> result = new CompletableFuture<>();
+            AtomicInteger running = new AtomicInteger(1);
+            ScheduledFuture<?> second = scheduler.schedule(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                running.incrementAndGet();
+                hedged.increment();
+                try {
+                    call.get().whenComplete((device, throwable) -> settle(result, running, device, throwable));
+                } catch (RuntimeException exc) {
+                    settle(result, running, null, exc);
+                }
+            }, Math.max(estimate, minDelayNanos), TimeUnit.NANOSECONDS);
+
+            first.whenComplete((device, throwable) -> {
+                if (isAnswer(throwable)) {
+                    second.cancel(false);
+                }
+                settle(result, running, device, throwable);
+            });
+            return result;
+        }
+
+        /**
+         * Completes the result with the first answer, or with the last failure once no lookup is left
+         */
+        private void settle(CompletableFuture<Device> result, AtomicInteger running, Device device,
+                            Throwable throwable) {
+            int left = running.decrementAndGet();
+            if (throwable == null) {
+                result.complete(device);
+            } else if (isAnswer(throwable) || left == 0) {
+                result.completeExceptionally(DataBaseFutures.unwrap(throwable));
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceChangeListener;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.ids.IdGenerationService;
+import com.webee.challenge.services.ids.impl.IdGenerationServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pure JVM implementation of the database, selected with database.backend=memory. Devices are kept
+ * in a DeviceIndex, sorted by ID (so pages can be served in ID order) and indexed by packed MAC
+ * Address, so every lookup is answered without leaving the process. MAC Addresses are saved with
+ * their canonical text. The devices saved and deleted are also sent to the change listeners, like
+ * Firestore snapshot listeners.
+ */
+@Service
+@Qualifier("dataBaseBackend")
+@ConditionalOnProperty(name = "database.backend", havingValue = "memory")
+public class InMemoryDataBaseServiceImpl implements DataBaseService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryDataBaseServiceImpl.class);
+
+    @Value("${database.unique-mac:false}")
+    private boolean uniqueMac;
+
+    private final IdGenerationService idGenerationService;
+    private final DeviceIndex deviceIndex = new DeviceIndex();
+    private final MacRegistrationGuard macGuard = new MacRegistrationGuard();
+    private final List<DeviceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    public InMemoryDataBaseServiceImpl() {
+        this(new IdGenerationServiceImpl());
+    }
+
+    @Autowired
+    public InMemoryDataBaseServiceImpl(IdGenerationService idGenerationService) {
+        this.idGenerationService = idGenerationService;
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        saveDevice(deviceRequest);
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        List<DeviceRegistrationResult> results = new ArrayList<>(deviceRequests.size());
+
+        for (DeviceRequest deviceRequest : deviceRequests) {
+            DeviceRegistrationResult.DeviceRegistrationResultBuilder result = DeviceRegistrationResult.builder()
+                    .macAddress(deviceRequest.getMacAddress());
+            try {
+                results.add(result.ID(saveDevice(deviceRequest)).registered(true).build());
+            } catch (DuplicateMacException duplicateMacException) {
+                results.add(result.registered(false).message(duplicateMacException.getMessage()).build());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * With database.unique-mac=true the guard makes the check and the insert of the MAC Address
+     * atomic for every registration made in this process.
+     */
+    private String saveDevice(DeviceRequest deviceRequest) throws DuplicateMacException {
+        if (!uniqueMac) {
+            return insertDevice(deviceRequest);
+        }
+
+        String macAddress = MacAddress.canonical(deviceRequest.getMacAddress());
+        if (!macGuard.tryAcquire(macAddress)) {
+            throw new DuplicateMacException();
+        }
+        try {
+            if (!deviceIndex.getByMac(macAddress).isEmpty()) {
+                throw new DuplicateMacException();
+            }
+            return insertDevice(deviceRequest);
+        } finally {
+            macGuard.release(macAddress);
+        }
+    }
+
+    private String insertDevice(DeviceRequest deviceRequest) {
+        Device device = Device.builder()
+                .date(deviceRequest.getDate())
+                .macAddress(MacAddress.canonical(deviceRequest.getMacAddress()))
+                .build();
+
+        do {
+            device.setID(idGenerationService.generateId());
+        } while (!deviceIndex.putIfAbsent(device));
+
+        LOG.info("Device with {} ID saved in memory", device.getID());
+        publishChange(DeviceChange.Type.ADDED, device);
+        return device.getID();
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        Device device = deviceIndex.remove(id);
+        if (device == null) {
+            throw new DeviceNotFoundException("Found 0 devices with that ID");
+        }
+
+        LOG.info("Device with {} ID deleted", id);
+        publishChange(DeviceChange.Type.REMOVED, device);
+    }
+
+    /**
+     * Local stand-in of the Firestore snapshot listener, the listeners are called by the thread that
+     * saves or deletes the device.
+     */
+    @Override
+    public Closeable listenToChanges(DeviceChangeListener listener, boolean includeExisting) {
+        changeListeners.add(listener);
+
+        if (includeExisting) {
+            long readTime = System.currentTimeMillis();
+            for (Device device : deviceIndex.getAll()) {
+                listener.onChange(DeviceChange.builder()
+                        .type(DeviceChange.Type.ADDED)
+                        .device(device)
+                        .committedAt(readTime)
+                        .build());
+            }
+            listener.onSynced(readTime);
+        }
+        return () -> changeListeners.remove(listener);
+    }
+
+    private void publishChange(DeviceChange.Type type, Device device) {
+        long committedAt = System.currentTimeMillis();
+        DeviceChange change = DeviceChange.builder().type(type).device(device).committedAt(committedAt).build();
+        for (DeviceChangeListener listener : changeListeners) {
+            listener.onChange(change);
+            listener.onSynced(committedAt);
+        }
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        Device device = deviceIndex.get(id);
+        if (device == null) {
+            throw new DeviceNotFoundException("Found 0 devices with that ID");
+        }
+        return device;
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        List<Device> devices = deviceIndex.getByMac(macAddress);
+
+        if (devices.isEmpty()) {
+            throw new DeviceNotFoundException("Found 0 devices with that MAC Address");
+        }
+        if (devices.size() != 1) {
+            throw new FirebaseException("Found " + devices.size() + " devices with that MAC Address");
+        }
+        return devices.get(0);
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return deviceIndex.getAll();
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return deviceIndex.getPage(limit, pageToken);
+    }
+}
@@ -0,0 +1,382 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts the single registrations and the deletes by saving them in a WriteAheadLog, and a replay
+ * thread applies them to the delegate one by one, in the order they were accepted. When the delegate
+ * fails the same entry is retried, waiting from retryDelay up to maxRetryDelay between attempts, so
+ * a database outage only delays the mutations instead of losing them. An entry that failed
+ * maxAttempts times (0 retries it forever) is moved to the dead-letter file of the log, so a single
+ * entry the database keeps rejecting does not block the ones behind it. The entries not applied
+ * before a stop or a crash are replayed on the next start. While the replay thread is not running
+ * new mutations are rejected, since nothing would apply them.
+ *
+ * A mutation applied right before a crash can be replayed again, so a registration may be saved
+ * twice in that case. Deletes of a device that does not exist and registrations of a MAC Address that
+ * is already registered (database.unique-mac=true) are dropped, since retrying them would not change
+ * the result; they were already acknowledged, so they are logged and counted in devices.wal.dropped.
+ * Registrations of several devices go straight to the delegate, because the caller gets the outcome
+ * of each one.
+ *
+ * A delete is acknowledged once it is in the log, so until the replay applies it the device is hidden
+ * from the reads that go through this layer: the lookups answer not found and the lists and pages
+ * leave it out. Otherwise a lookup made meanwhile would bring the deleted device back into the caches
+ * above. The devices with a delete pending are counted per ID, and rebuilt from the log on start.
+ */
+public class JournalingDataBaseService extends ForwardingDataBaseService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalingDataBaseService.class);
+
+    private final WriteAheadLog writeAheadLog;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final int maxAttempts;
+    private final Object appended = new Object();
+    private final Counter droppedDeletes;
+    private final Counter droppedRegistrations;
+    private final Counter droppedAfterRetries;
+    private final Thread replayer;
+
+    /**
+     * Deletes saved in the log and not applied yet, by device ID
+     */
+    private final ConcurrentMap<String, Integer> pendingDeletes = new ConcurrentHashMap<>();
+
+    private volatile boolean running = true;
+
+    public JournalingDataBaseService(DataBaseService delegate, WriteAheadLog writeAheadLog, Duration retryDelay,
+                                     Duration maxRetryDelay, int maxAttempts, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.writeAheadLog = writeAheadLog;
+        this.retryDelayMillis = retryDelay.toMillis();
+        this.maxRetryDelayMillis = maxRetryDelay.toMillis();
+        this.maxAttempts = maxAttempts;
+
+        Gauge.builder("devices.wal.pending", writeAheadLog, WriteAheadLog::getPendingCount)
+                .description("Registrations and deletes saved in the write-ahead log and not applied yet")
+                .register(meterRegistry);
+        this.droppedDeletes = droppedCounter(meterRegistry, "device_not_found");
+        this.droppedRegistrations = droppedCounter(meterRegistry, "duplicate_mac");
+        this.droppedAfterRetries = droppedCounter(meterRegistry, "max_attempts");
+
+        for (WriteAheadLog.Entry entry = writeAheadLog.next(writeAheadLog.getLastApplied()); entry != null;
+             entry = writeAheadLog.next(entry.getSequence())) {
+            if (entry.getOperation() == WriteAheadLog.Operation.DELETE) {
+                addPendingDelete(entry.getId());
+            }
+        }
+
+        this.replayer = new Thread(this::replay, "device-wal-replay");
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+    private static Counter droppedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("devices.wal.dropped")
+                .description("Entries of the write-ahead log dropped because the database rejected them for good")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        checkReplaying();
+        try {
+            writeAheadLog.appendRegister(deviceRequest);
+        } catch (IOException ioException) {
+            throw new FirebaseException("Something went wrong while saving the device in the local log", ioException);
+        }
+        signalAppended();
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        checkReplaying();
+        addPendingDelete(id);
+        try {
+            writeAheadLog.appendDelete(id);
+        } catch (IOException ioException) {
+            removePendingDelete(id);
+            throw new FirebaseException("Something went wrong while saving the delete in the local log", ioException);
+        }
+        signalAppended();
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return DataBaseFutures.supply(() -> {
+            registerDevice(deviceRequest);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return DataBaseFutures.supply(() -> {
+            deleteDevice(id);
+            return null;
+        });
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return visible(delegate.searchDeviceById(id), "Found 0 devices with that ID");
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return visible(delegate.searchDeviceByMac(macAddress), "Found 0 devices with that MAC Address");
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return visible(delegate.searchAllDevices());
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return visible(delegate.searchDevicesPage(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return delegate.searchDeviceByIdAsync(id).thenApply(device -> visibleOrFail(device, "Found 0 devices with that ID"));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return delegate.searchDeviceByMacAsync(macAddress)
+                .thenApply(device -> visibleOrFail(device, "Found 0 devices with that MAC Address"));
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return delegate.searchAllDevicesAsync().thenApply(this::visible);
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return delegate.searchDevicesPageAsync(limit, pageToken).thenApply(this::visible);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return delegate.searchDevicesByIdsAsync(ids).thenApply(results -> visible(results, "Found 0 devices with that ID"));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return delegate.searchDevicesByMacsAsync(macAddresses)
+                .thenApply(results -> visible(results, "Found 0 devices with that MAC Address"));
+    }
+
+    public long getPendingCount() {
+        return writeAheadLog.getPendingCount();
+    }
+
+    /**
+     * Stops the replay, the entries not applied yet stay in the log for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        replayer.interrupt();
+        try {
+            replayer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        writeAheadLog.close();
+        super.close();
+    }
+
+    private void checkReplaying() throws FirebaseException {
+        if (!running || !replayer.isAlive()) {
+            throw new FirebaseException("The write-ahead log is not being applied to the database");
+        }
+    }
+
+    private void addPendingDelete(String id) {
+        pendingDeletes.merge(id, 1, Integer::sum);
+    }
+
+    private void removePendingDelete(String id) {
+        pendingDeletes.computeIfPresent(id, (key, count) -> (count == 1) ? null : count - 1);
+    }
+
+    private boolean isPendingDelete(Device device) {
+        return device != null && pendingDeletes.containsKey(device.getID());
+    }
+
+    private Device visible(Device device, String notFoundMessage) throws DeviceNotFoundException {
+        if (isPendingDelete(device)) {
+            throw new DeviceNotFoundException(notFoundMessage);
+        }
+        return device;
+    }
+
+    private Device visibleOrFail(Device device, String notFoundMessage) {
+        if (isPendingDelete(device)) {
+            throw new CompletionException(new DeviceNotFoundException(notFoundMessage));
+        }
+        return device;
+    }
+
+    private List<Device> visible(List<Device> devices) {
+        if (pendingDeletes.isEmpty()) {
+            return devices;
+        }
+        List<Device> visibleDevices = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            if (!isPendingDelete(device)) {
+                visibleDevices.add(device);
+            }
+        }
+        return visibleDevices;
+    }
+
+    private DevicePage visible(DevicePage page) {
+        return pendingDeletes.isEmpty() ? page : new DevicePage(visible(page.getDevices()), page.getNextPageToken());
+    }
+
+    private Map<String, DeviceLookupResult> visible(Map<String, DeviceLookupResult> results, String notFoundMessage) {
+        if (pendingDeletes.isEmpty()) {
+            return results;
+        }
+        Map<String, DeviceLookupResult> visibleResults = new LinkedHashMap<>(results);
+        visibleResults.replaceAll((key, result) ->
+                result.isFound() && isPendingDelete(result.getDevice()) ? DeviceLookupResult.notFound(notFoundMessage) : result);
+        return visibleResults;
+    }
+
+    private void signalAppended() {
+        synchronized (appended) {
+            appended.notifyAll();
+        }
+    }
+
+    private void replay() {
+        long retryDelay = retryDelayMillis;
+        int attempts = 0;
+
+        while (running) {
+            try {
+                WriteAheadLog.Entry entry = writeAheadLog.next(writeAheadLog.getLastApplied());
+                if (entry == null) {
+                    synchronized (appended) {
+                        appended.wait(100);
+                    }
+                    continue;
+                }
+
+                Exception failure = apply(entry);
+                if (failure != null) {
+                    attempts++;
+                    if (maxAttempts <= 0 || attempts < maxAttempts) {
+                        LOG.warn("Replay of entry {} failed, retrying in {} ms", entry.getSequence(), retryDelay);
+                        Thread.sleep(retryDelay);
+                        retryDelay = Math.min(retryDelay * 2, maxRetryDelayMillis);
+                        continue;
+                    }
+                    deadLetter(entry, failure);
+                }
+
+                checkpoint(entry.getSequence());
+                if (entry.getOperation() == WriteAheadLog.Operation.DELETE) {
+                    removePendingDelete(entry.getId());
+                }
+                retryDelay = retryDelayMillis;
+                attempts = 0;
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return null when the entry is done with, otherwise the failure of the attempt
+     */
+    private Exception apply(WriteAheadLog.Entry entry) {
+        try {
+            if (entry.getOperation() == WriteAheadLog.Operation.REGISTER) {
+                delegate.registerDevice(entry.getDeviceRequest());
+            } else {
+                delegate.deleteDevice(entry.getId());
+            }
+            return null;
+        } catch (DeviceNotFoundException deviceNotFoundException) {
+            LOG.warn("Delete of device with {} ID dropped: {}", entry.getId(), deviceNotFoundException.getMessage());
+            droppedDeletes.increment();
+            return null;
+        } catch (DuplicateMacException duplicateMacException) {
+            LOG.error("Registration of device with {} MAC Address dropped: {}",
+                    entry.getDeviceRequest().getMacAddress(), duplicateMacException.getMessage());
+            droppedRegistrations.increment();
+            return null;
+        } catch (FirebaseException | RuntimeException exc) {
+            LOG.error("Entry {} of the write-ahead log not applied: ", entry.getSequence(), exc);
+            return exc;
+        }
+    }
+
+    /**
+     * Gives up on an entry that failed maxAttempts times, so the ones behind it are not blocked
+     */
+    private void deadLetter(WriteAheadLog.Entry entry, Exception failure) {
+        LOG.error("Entry {} of the write-ahead log failed {} times, moved to the dead-letter file",
+                entry.getSequence(), maxAttempts);
+        droppedAfterRetries.increment();
+        try {
+            writeAheadLog.appendDeadLetter(entry, String.valueOf(failure.getMessage()));
+        } catch (IOException ioException) {
+            LOG.error("Could not save entry {} ({} {}{}) in the dead-letter file: ", entry.getSequence(),
+                    entry.getOperation(), entry.getId() != null ? entry.getId() : "",
+                    entry.getDeviceRequest() != null ? entry.getDeviceRequest().getMacAddress() : "", ioException);
+        }
+    }
+
+    /**
+     * Saves the checkpoint, retrying with the same backoff when the disk fails: giving up would leave
+     * the entry to be applied again, and a registration applied twice saves the device twice.
+     */
+    private void checkpoint(long sequence) throws InterruptedException {
+        long retryDelay = retryDelayMillis;
+        while (true) {
+            try {
+                writeAheadLog.markApplied(sequence);
+                return;
+            } catch (IOException ioException) {
+                LOG.error("Could not update the write-ahead log checkpoint, retrying in {} ms: ", retryDelay, ioException);
+                Thread.sleep(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, maxRetryDelayMillis);
+            }
+        }
+    }
+}
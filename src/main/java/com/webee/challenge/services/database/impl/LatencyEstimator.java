@@ -0,0 +1,53 @@
+package com.webee.challenge.services.database.impl;
+
+import java.util.Arrays;
+
+/**
+ * Percentile of the latency of the last calls of an operation. The latencies are kept in a ring, and
+ * the percentile is computed again every RECOMPUTE_EVERY samples instead of on every read.
+ */
+class LatencyEstimator {
+
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final double percentile;
+    private final int minSamples;
+    private final long[] samples;
+
+    private int count;
+    private int next;
+    private int sinceRecompute;
+    private volatile long estimateNanos = -1;
+
+    /**
+     * @param percentile between 0 and 100
+     * @param minSamples samples needed before there is an estimate
+     * @param window latencies kept
+     */
+    LatencyEstimator(double percentile, int minSamples, int window) {
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.samples = new long[window];
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+
+        if (count >= minSamples && (++sinceRecompute >= RECOMPUTE_EVERY || estimateNanos < 0)) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            estimateNanos = sorted[Math.max(0, Math.min(index, count - 1))];
+            sinceRecompute = 0;
+        }
+    }
+
+    /**
+     * @return the percentile in nanoseconds, or -1 while there are not enough samples
+     */
+    long getEstimateNanos() {
+        return estimateNanos;
+    }
+}
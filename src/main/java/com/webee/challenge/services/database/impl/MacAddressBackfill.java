@@ -0,0 +1,148 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.MacAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.webee.challenge.constants.Constants.COLLECTION;
+import static com.webee.challenge.constants.Constants.MAC_INDEX_COLLECTION;
+
+/**
+ * Rewrites the MAC Address of the devices saved before MAC Addresses were stored with their canonical
+ * (upper case) text, so the lookups by MAC Address find them with a single query. With
+ * database.unique-mac=true it also adds the MAC index document of the devices that do not have one
+ * (the first device found keeps a MAC Address shared by several of them), so their MAC Address can not
+ * be registered again. The collection is read by pages and every page is written with a single
+ * WriteBatch; running it again continues where it stopped.
+ */
+public class MacAddressBackfill {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MacAddressBackfill.class);
+
+    /**
+     * Each device takes up to two writes, and a WriteBatch accepts up to 500
+     */
+    private static final int PAGE_SIZE = 250;
+
+    private final Firestore firestoreDB;
+    private final boolean uniqueMac;
+    private final long timeoutMillis;
+
+    public MacAddressBackfill(Firestore firestoreDB, boolean uniqueMac, long timeoutMillis) {
+        this.firestoreDB = firestoreDB;
+        this.uniqueMac = uniqueMac;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return number of writes made
+     * @throws FirebaseException exception thrown when a page could not be read or written, the pages
+     *          already committed stay written
+     */
+    public int backfill() throws FirebaseException {
+        CollectionReference collection = firestoreDB.collection(COLLECTION);
+        String lastDocumentId = null;
+        int written = 0;
+
+        while (true) {
+            Query query = collection.orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+            if (lastDocumentId != null) {
+                query = query.startAfter(lastDocumentId);
+            }
+
+            List<QueryDocumentSnapshot> documents;
+            try {
+                documents = query.get().get(timeoutMillis, TimeUnit.MILLISECONDS).getDocuments();
+            } catch (Exception exc) {
+                throw new FirebaseException("Something went wrong while reading the database", exc);
+            }
+            if (documents.isEmpty()) {
+                break;
+            }
+
+            WriteBatch batch = firestoreDB.batch();
+            int pending = 0;
+            Set<String> indexed = uniqueMac ? indexedMacs(documents) : Collections.emptySet();
+            for (QueryDocumentSnapshot document : documents) {
+                String macAddress = document.getString("macAddress");
+                if (!MacAddress.isValid(macAddress)) {
+                    continue;
+                }
+
+                String canonical = MacAddress.canonical(macAddress);
+                if (!canonical.equals(macAddress)) {
+                    batch.update(document.getReference(), "macAddress", canonical);
+                    pending++;
+                }
+                if (uniqueMac && indexed.add(canonical)) {
+                    batch.create(firestoreDB.collection(MAC_INDEX_COLLECTION).document(canonical),
+                            Collections.singletonMap("id", document.getString("id")));
+                    pending++;
+                }
+            }
+
+            if (pending > 0) {
+                try {
+                    batch.commit().get(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (Exception exc) {
+                    throw new FirebaseException("Something went wrong while rewriting the MAC Addresses, "
+                            + written + " writes were made", exc);
+                }
+                written += pending;
+                LOG.info("{} MAC Address writes made", written);
+            }
+
+            lastDocumentId = documents.get(documents.size() - 1).getId();
+        }
+
+        LOG.info("MAC Address backfill finished, {} writes made", written);
+        return written;
+    }
+
+    /**
+     * @return the canonical MAC Addresses of the page that already have their index document
+     */
+    private Set<String> indexedMacs(List<QueryDocumentSnapshot> documents) throws FirebaseException {
+        Map<String, DocumentReference> indexRefs = new LinkedHashMap<>();
+        for (QueryDocumentSnapshot document : documents) {
+            String macAddress = document.getString("macAddress");
+            if (MacAddress.isValid(macAddress)) {
+                String canonical = MacAddress.canonical(macAddress);
+                indexRefs.put(canonical, firestoreDB.collection(MAC_INDEX_COLLECTION).document(canonical));
+            }
+        }
+
+        Set<String> indexed = new HashSet<>();
+        if (indexRefs.isEmpty()) {
+            return indexed;
+        }
+        try {
+            for (DocumentSnapshot index : firestoreDB.getAll(indexRefs.values().toArray(new DocumentReference[0]))
+                    .get(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (index.exists()) {
+                    indexed.add(index.getId());
+                }
+            }
+        } catch (Exception exc) {
+            throw new FirebaseException("Something went wrong while reading the MAC index", exc);
+        }
+        return indexed;
+    }
+}
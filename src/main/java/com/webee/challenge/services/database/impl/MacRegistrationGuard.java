@@ -0,0 +1,25 @@
+package com.webee.challenge.services.database.impl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MAC Addresses with a registration in flight in this process. A second registration of the same
+ * MAC Address is rejected while the first one is running, before it reaches the database.
+ */
+class MacRegistrationGuard {
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param macAddress canonical MAC Address
+     * @return false when there is already a registration in flight with that MAC Address
+     */
+    boolean tryAcquire(String macAddress) {
+        return inFlight.add(macAddress);
+    }
+
+    void release(String macAddress) {
+        inFlight.remove(macAddress);
+    }
+}
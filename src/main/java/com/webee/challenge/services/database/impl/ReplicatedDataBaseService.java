@@ -0,0 +1,332 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.constants.Constants;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseUnavailableException;
+import com.webee.challenge.services.database.DeviceChangeListener;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read replica of the device collection kept in process. The whole collection is loaded into a
+ * DeviceIndex through the change listener of the delegate (a Firestore snapshot listener), which
+ * then keeps it up to date, and the lookups, lists and pages are answered from it. Writes still go to
+ * the delegate, so a device registered or deleted shows up in the replica once its change arrives.
+ *
+ * When the listener fails the replica keeps answering for up to maxStaleness, while it is loaded
+ * again from scratch every retryDelay. Past that bound, and before the first load finishes, the
+ * reads go to the delegate. Pages served by the replica are ordered by device ID, and their cursor is
+ * the ID of the last device with REPLICA_PAGE_TOKEN in front. The delegate orders its pages by
+ * document ID instead, so a listing stays with the source of its first page: a delegate token is
+ * always followed on the delegate, and a replica token fails with DataBaseUnavailableException while
+ * the replica is not serving.
+ */
+public class ReplicatedDataBaseService extends ForwardingDataBaseService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicatedDataBaseService.class);
+
+    static final String REPLICA_PAGE_TOKEN = "replica:";
+
+    private final long maxStalenessMillis;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Latest replication started, which becomes the served one when its first load finishes
+     */
+    private volatile Replication current;
+    private volatile Replication served;
+
+    /**
+     * Epoch milliseconds when the served replication stopped receiving changes, 0 while it is live
+     */
+    private volatile long staleSince;
+
+    /**
+     * Milliseconds between the commit of the last change and its arrival to the replica
+     */
+    private volatile long lagMillis;
+
+    public ReplicatedDataBaseService(DataBaseService delegate, Duration maxStaleness, Duration retryDelay,
+                                     MeterRegistry meterRegistry) {
+        super(delegate);
+        this.maxStalenessMillis = maxStaleness.toMillis();
+        this.retryDelayMillis = retryDelay.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "device-replica");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("devices.replica.lag", this, replica -> replica.getLagMillis() / 1000.0)
+                .description("Seconds between a change being committed and being applied to the replica")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("devices.replica.size", this, replica -> replica.served == null ? 0 : replica.served.devices.size())
+                .description("Devices held by the replica")
+                .register(meterRegistry);
+        Gauge.builder("devices.replica.serving", this, replica -> replica.localDevices() == null ? 0 : 1)
+                .description("1 when the reads are answered by the replica, 0 when they go to the database")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts loading the replica, the reads go to the delegate until the load finishes.
+     */
+    public void start() {
+        scheduler.execute(this::replicate);
+    }
+
+    /**
+     * Lag of the last change received, or the time since the replica stopped receiving them.
+     */
+    public long getLagMillis() {
+        long since = staleSince;
+        return (since == 0) ? lagMillis : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * @return true when the reads are answered by the replica
+     */
+    public boolean isServing() {
+        return localDevices() != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        Replication replication = current;
+        if (replication != null) {
+            replication.stop();
+        }
+        super.close();
+    }
+
+    private void replicate() {
+        Replication replication = new Replication();
+        current = replication;
+        try {
+            replication.registration = delegate.listenToChanges(replication, true);
+            LOG.info("Loading the device replica");
+        } catch (FirebaseException firebaseException) {
+            LOG.error("Could not start the device replica, retrying in {} ms: ", retryDelayMillis, firebaseException);
+            scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry() {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::replicate, retryDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void synced(Replication replication) {
+        if (served != replication) {
+            served = replication;
+            staleSince = 0;
+            LOG.info("Device replica loaded with {} devices", replication.devices.size());
+        }
+    }
+
+    private void failed(Replication replication, FirebaseException firebaseException) {
+        if (current != replication) {
+            return;
+        }
+        if (served != null && staleSince == 0) {
+            staleSince = System.currentTimeMillis();
+        }
+        LOG.error("The device replica stopped receiving changes, reloading it in {} ms: ",
+                retryDelayMillis, firebaseException);
+        replication.stop();
+        scheduleRetry();
+    }
+
+    /**
+     * @return the devices of the served replication, or null when the reads must go to the delegate
+     */
+    private DeviceIndex localDevices() {
+        Replication replication = served;
+        if (replication == null) {
+            return null;
+        }
+        long since = staleSince;
+        if (since != 0 && System.currentTimeMillis() - since > maxStalenessMillis) {
+            return null;
+        }
+        return replication.devices;
+    }
+
+    /**
+     * @return true when the page is served by the replica, false when it goes to the delegate
+     * @throws DataBaseUnavailableException when pageToken is from the replica and it is not serving
+     */
+    private static boolean isReplicaPage(DeviceIndex devices, String pageToken) throws DataBaseUnavailableException {
+        boolean replicaToken = pageToken != null && pageToken.startsWith(REPLICA_PAGE_TOKEN);
+        if (replicaToken && devices == null) {
+            throw new DataBaseUnavailableException(
+                    "The page token is from the device replica, which is not serving; request the first page again");
+        }
+        return replicaToken || (pageToken == null && devices != null);
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        DeviceIndex devices = localDevices();
+        if (devices == null) {
+            return delegate.searchDeviceById(id);
+        }
+
+        Device device = devices.get(id);
+        if (device == null) {
+            throw new DeviceNotFoundException("Found 0 devices with that ID");
+        }
+        return device;
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        DeviceIndex devices = localDevices();
+        if (devices == null) {
+            return delegate.searchDeviceByMac(macAddress);
+        }
+
+        List<Device> found = devices.getByMac(macAddress);
+        if (found.isEmpty()) {
+            throw new DeviceNotFoundException("Found 0 devices with that MAC Address");
+        }
+        if (found.size() != 1) {
+            throw new FirebaseException("Found " + found.size() + " devices with that MAC Address");
+        }
+        return found.get(0);
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        DeviceIndex devices = localDevices();
+        return (devices == null) ? delegate.searchAllDevices() : devices.getAll();
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        DeviceIndex devices = localDevices();
+        if (!isReplicaPage(devices, pageToken)) {
+            return delegate.searchDevicesPage(limit, pageToken);
+        }
+
+        DevicePage page = devices.getPage(limit, (pageToken == null) ? null : pageToken.substring(REPLICA_PAGE_TOKEN.length()));
+        String nextPageToken = page.getNextPageToken();
+        return (nextPageToken == null) ? page : new DevicePage(page.getDevices(), REPLICA_PAGE_TOKEN + nextPageToken);
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return isServing()
+                ? DataBaseFutures.supply(() -> searchDeviceById(id))
+                : delegate.searchDeviceByIdAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return isServing()
+                ? DataBaseFutures.supply(() -> searchDeviceByMac(macAddress))
+                : delegate.searchDeviceByMacAsync(macAddress);
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return isServing()
+                ? DataBaseFutures.supply(this::searchAllDevices)
+                : delegate.searchAllDevicesAsync();
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        try {
+            return isReplicaPage(localDevices(), pageToken)
+                    ? DataBaseFutures.supply(() -> searchDevicesPage(limit, pageToken))
+                    : delegate.searchDevicesPageAsync(limit, pageToken);
+        } catch (DataBaseUnavailableException unavailableException) {
+            return DataBaseFutures.failed(unavailableException);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return isServing()
+                ? DataBaseFutures.lookupAll(ids, this::searchDeviceByIdAsync, Constants.BULK_LOOKUP_CHUNK)
+                : delegate.searchDevicesByIdsAsync(ids);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return isServing()
+                ? DataBaseFutures.lookupAll(macAddresses, this::searchDeviceByMacAsync, Constants.BULK_LOOKUP_CHUNK)
+                : delegate.searchDevicesByMacsAsync(macAddresses);
+    }
+
+    /**
+     * One registration of the change listener with the devices it loaded. A new one is started after
+     * every failure, so a reload never mixes with the devices of the previous one.
+     */
+    private final class Replication implements DeviceChangeListener {
+
+        private final DeviceIndex devices = new DeviceIndex();
+        private volatile Closeable registration;
+        private volatile boolean loaded;
+
+        @Override
+        public void onChange(DeviceChange change) {
+            if (change.getType() == DeviceChange.Type.ADDED) {
+                devices.put(change.getDevice());
+            } else {
+                devices.remove(change.getDevice().getID());
+            }
+
+            if (loaded && change.getCommittedAt() > 0) {
+                lagMillis = Math.max(0, System.currentTimeMillis() - change.getCommittedAt());
+            }
+        }
+
+        @Override
+        public void onSynced(long readTime) {
+            loaded = true;
+            synced(this);
+        }
+
+        @Override
+        public void onError(FirebaseException firebaseException) {
+            failed(this, firebaseException);
+        }
+
+        private void stop() {
+            Closeable handle = registration;
+            if (handle == null) {
+                return;
+            }
+            try {
+                handle.close();
+            } catch (IOException ioException) {
+                LOG.warn("Could not stop listening to the device changes: ", ioException);
+            }
+        }
+    }
+}
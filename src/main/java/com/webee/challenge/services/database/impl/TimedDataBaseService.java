@@ -0,0 +1,148 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Records the time of every call to the database backend in the devices.database.requests timer,
+ * tagged with the backend, the operation, its kind (query or write) and its outcome (success or
+ * error). The non-blocking operations are timed until their future completes. It is placed right in
+ * front of the backend, so it measures the round trip to the database and not the other decorators.
+ */
+public class TimedDataBaseService extends ForwardingDataBaseService {
+
+    public static final String TIMER = "devices.database.requests";
+
+    private static final String QUERY = "query";
+    private static final String WRITE = "write";
+
+    private final String backend;
+    private final MeterRegistry meterRegistry;
+
+    public TimedDataBaseService(DataBaseService delegate, String backend, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.backend = backend;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        time("registerDevice", WRITE, () -> {
+            delegate.registerDevice(deviceRequest);
+            return null;
+        });
+    }
+
+    @Override
+    public List<DeviceRegistrationResult> registerDevices(List<DeviceRequest> deviceRequests) throws FirebaseException {
+        return time("registerDevices", WRITE, () -> delegate.registerDevices(deviceRequests));
+    }
+
+    @Override
+    public void deleteDevice(String id) throws FirebaseException {
+        time("deleteDevice", WRITE, () -> {
+            delegate.deleteDevice(id);
+            return null;
+        });
+    }
+
+    @Override
+    public Device searchDeviceById(String id) throws FirebaseException {
+        return time("searchDeviceById", QUERY, () -> delegate.searchDeviceById(id));
+    }
+
+    @Override
+    public Device searchDeviceByMac(String macAddress) throws FirebaseException {
+        return time("searchDeviceByMac", QUERY, () -> delegate.searchDeviceByMac(macAddress));
+    }
+
+    @Override
+    public List<Device> searchAllDevices() throws FirebaseException {
+        return time("searchAllDevices", QUERY, delegate::searchAllDevices);
+    }
+
+    @Override
+    public DevicePage searchDevicesPage(int limit, String pageToken) throws FirebaseException {
+        return time("searchDevicesPage", QUERY, () -> delegate.searchDevicesPage(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        return timeAsync("registerDevice", WRITE, () -> delegate.registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public CompletableFuture<List<DeviceRegistrationResult>> registerDevicesAsync(List<DeviceRequest> deviceRequests) {
+        return timeAsync("registerDevices", WRITE, () -> delegate.registerDevicesAsync(deviceRequests));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteDeviceAsync(String id) {
+        return timeAsync("deleteDevice", WRITE, () -> delegate.deleteDeviceAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByIdAsync(String id) {
+        return timeAsync("searchDeviceById", QUERY, () -> delegate.searchDeviceByIdAsync(id));
+    }
+
+    @Override
+    public CompletableFuture<Device> searchDeviceByMacAsync(String macAddress) {
+        return timeAsync("searchDeviceByMac", QUERY, () -> delegate.searchDeviceByMacAsync(macAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<Device>> searchAllDevicesAsync() {
+        return timeAsync("searchAllDevices", QUERY, delegate::searchAllDevicesAsync);
+    }
+
+    @Override
+    public CompletableFuture<DevicePage> searchDevicesPageAsync(int limit, String pageToken) {
+        return timeAsync("searchDevicesPage", QUERY, () -> delegate.searchDevicesPageAsync(limit, pageToken));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByIdsAsync(List<String> ids) {
+        return timeAsync("searchDevicesByIds", QUERY, () -> delegate.searchDevicesByIdsAsync(ids));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DeviceLookupResult>> searchDevicesByMacsAsync(List<String> macAddresses) {
+        return timeAsync("searchDevicesByMacs", QUERY, () -> delegate.searchDevicesByMacsAsync(macAddresses));
+    }
+
+    private <T> T time(String operation, String kind, DataBaseFutures.DataBaseCall<T> call) throws FirebaseException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = call.call();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(timer(operation, kind, outcome));
+        }
+    }
+
+    private <T> CompletableFuture<T> timeAsync(String operation, String kind, Supplier<CompletableFuture<T>> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return call.get().whenComplete((result, exc) ->
+                sample.stop(timer(operation, kind, exc == null ? "success" : "error")));
+    }
+
+    private Timer timer(String operation, String kind, String outcome) {
+        return meterRegistry.timer(TIMER, "backend", backend, "operation", operation, "kind", kind, "outcome", outcome);
+    }
+}
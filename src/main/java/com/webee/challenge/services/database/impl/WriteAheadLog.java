@@ -0,0 +1,402 @@
+package com.webee.challenge.services.database.impl;
+
+import com.webee.challenge.model.DeviceRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the registrations and deletes accepted while they wait to reach the database.
+ * The log is a directory of memory-mapped segments of a fixed size, named after the sequence number
+ * of their first entry, and every entry is forced to disk before append returns. Each entry is
+ * written as:
+ *
+ *     int length | int CRC32 of the payload | payload (long sequence, byte operation, fields)
+ *
+ * and a length of 0 marks the end of the segment. The sequence number of the last entry applied to
+ * the database is kept in the checkpoint file, replaced atomically, and the segments whose entries
+ * were all applied are deleted.
+ *
+ * The entries given up on are appended as text lines to dead-letter.log, one per entry:
+ *
+ *     sequence TAB operation TAB date and MAC Address, or ID TAB reason
+ *
+ * Opening the log recovers it: every segment is scanned, and the scan of a segment stops at the
+ * first entry that is incomplete or does not match its checksum (a write torn by a crash), which is
+ * overwritten by the next append.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String DEAD_LETTER = "dead-letter.log";
+
+    /**
+     * Length and checksum of every entry
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Mutation saved in the log
+     */
+    public enum Operation {
+        REGISTER,
+        DELETE
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private long lastSequence;
+    private long lastApplied;
+
+    private WriteAheadLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the log in the directory, creating it when it does not exist, and recovers the entries
+     * written before the last stop or crash.
+     */
+    public static WriteAheadLog open(Path directory, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        WriteAheadLog log = new WriteAheadLog(directory, segmentSize);
+        log.recover();
+        return log;
+    }
+
+    private void recover() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            lastApplied = ByteBuffer.wrap(Files.readAllBytes(checkpoint)).getLong();
+        }
+        lastSequence = lastApplied;
+
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long baseSequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(path, baseSequence, segmentSize);
+            segment.scan();
+            segments.add(segment);
+            if (!segment.offsets.isEmpty()) {
+                lastSequence = Math.max(lastSequence, segment.getLastSequence());
+            }
+        }
+
+        deleteAppliedSegments();
+        if (segments.isEmpty()) {
+            segments.add(new Segment(segmentPath(lastSequence + 1), lastSequence + 1, segmentSize));
+        }
+        LOG.info("Write-ahead log recovered, {} entries pending", getPendingCount());
+    }
+
+    /**
+     * Appends the registration of a device.
+     *
+     * @return sequence number of the entry
+     */
+    public synchronized long appendRegister(DeviceRequest deviceRequest) throws IOException {
+        return append(Operation.REGISTER, deviceRequest.getDate(), deviceRequest.getMacAddress());
+    }
+
+    /**
+     * Appends the delete of the device with that ID.
+     *
+     * @return sequence number of the entry
+     */
+    public synchronized long appendDelete(String id) throws IOException {
+        return append(Operation.DELETE, id);
+    }
+
+    private long append(Operation operation, String... fields) throws IOException {
+        long sequence = lastSequence + 1;
+        byte[] payload = encode(sequence, operation, fields);
+        if (HEADER_SIZE + payload.length + Integer.BYTES > segmentSize) {
+            throw new IOException("Entry of " + payload.length + " bytes does not fit in a segment");
+        }
+
+        Segment active = segments.get(segments.size() - 1);
+        if (!active.hasRoomFor(payload.length)) {
+            active.close();
+            active = new Segment(segmentPath(sequence), sequence, segmentSize);
+            segments.add(active);
+        }
+
+        active.write(payload);
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * @return the first entry after the sequence number, or null when there is none
+     */
+    public synchronized Entry next(long afterSequence) {
+        for (Segment segment : segments) {
+            if (segment.offsets.isEmpty() || segment.getLastSequence() <= afterSequence) {
+                continue;
+            }
+            int index = (int) Math.max(0, afterSequence + 1 - segment.baseSequence);
+            return segment.read(index);
+        }
+        return null;
+    }
+
+    /**
+     * Records that every entry up to the sequence number reached the database.
+     */
+    public synchronized void markApplied(long sequence) throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(Long.BYTES).putLong(sequence).flip());
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        lastApplied = sequence;
+        deleteAppliedSegments();
+    }
+
+    /**
+     * Keeps an entry that will not be applied in the dead-letter file, forced to disk, so it can be
+     * checked and applied by hand.
+     */
+    public synchronized void appendDeadLetter(Entry entry, String reason) throws IOException {
+        String target = (entry.getOperation() == Operation.REGISTER)
+                ? entry.getDeviceRequest().getDate() + " " + entry.getDeviceRequest().getMacAddress()
+                : entry.getId();
+        String line = entry.getSequence() + "\t" + entry.getOperation() + "\t" + target + "\t"
+                + reason.replace('\n', ' ') + System.lineSeparator();
+        try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+    }
+
+    public synchronized long getLastApplied() {
+        return lastApplied;
+    }
+
+    public synchronized long getPendingCount() {
+        return lastSequence - lastApplied;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Deletes the segments whose entries were all applied, except the one being written
+     */
+    private void deleteAppliedSegments() throws IOException {
+        while (segments.size() > 1 && segments.get(1).baseSequence <= lastApplied + 1) {
+            Segment segment = segments.remove(0);
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    private Path segmentPath(long baseSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseSequence, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encode(long sequence, Operation operation, String... fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeLong(sequence);
+            output.writeByte(operation.ordinal());
+            for (String field : fields) {
+                byte[] text = (field == null ? "" : field).getBytes(StandardCharsets.UTF_8);
+                output.writeInt(text.length);
+                output.write(text);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Mutation read back from the log
+     */
+    public static final class Entry {
+
+        private final long sequence;
+        private final Operation operation;
+        private final DeviceRequest deviceRequest;
+        private final String id;
+
+        private Entry(long sequence, Operation operation, DeviceRequest deviceRequest, String id) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.deviceRequest = deviceRequest;
+            this.id = id;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the device to register, null for a DELETE
+         */
+        public DeviceRequest getDeviceRequest() {
+            return deviceRequest;
+        }
+
+        /**
+         * @return the ID of the device to delete, null for a REGISTER
+         */
+        public String getId() {
+            return id;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final long baseSequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Position of every entry of the segment, the first one has the base sequence number
+         */
+        private final List<Integer> offsets = new ArrayList<>();
+        private int writePosition;
+
+        private Segment(Path path, long baseSequence, int segmentSize) throws IOException {
+            this.path = path;
+            this.baseSequence = baseSequence;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        }
+
+        private long getLastSequence() {
+            return baseSequence + offsets.size() - 1;
+        }
+
+        private void scan() {
+            int position = 0;
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                if (length < Long.BYTES + 1 || position + HEADER_SIZE + length > buffer.capacity()) {
+                    LOG.warn("Torn entry at {} of {}, discarded", position, path.getFileName());
+                    break;
+                }
+
+                ByteBuffer payload = slice(position + HEADER_SIZE, length);
+                if (checksum(payload.duplicate()) != buffer.getInt(position + Integer.BYTES)
+                        || payload.getLong(0) != baseSequence + offsets.size()) {
+                    LOG.warn("Entry at {} of {} does not match its checksum, discarded", position, path.getFileName());
+                    break;
+                }
+
+                offsets.add(position);
+                position += HEADER_SIZE + length;
+            }
+            writePosition = position;
+        }
+
+        private boolean hasRoomFor(int payloadLength) {
+            return writePosition + HEADER_SIZE + payloadLength + Integer.BYTES <= buffer.capacity();
+        }
+
+        private void write(byte[] payload) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(writePosition + HEADER_SIZE);
+            view.put(payload);
+            buffer.putInt(writePosition + Integer.BYTES, checksum(ByteBuffer.wrap(payload)));
+            buffer.putInt(writePosition + HEADER_SIZE + payload.length, 0);
+            buffer.putInt(writePosition, payload.length);
+            buffer.force();
+
+            offsets.add(writePosition);
+            writePosition += HEADER_SIZE + payload.length;
+        }
+
+        private Entry read(int index) {
+            int position = offsets.get(index);
+            ByteBuffer payload = slice(position + HEADER_SIZE, buffer.getInt(position));
+
+            long sequence = payload.getLong();
+            Operation operation = Operation.values()[payload.get()];
+            if (operation == Operation.REGISTER) {
+                DeviceRequest deviceRequest = DeviceRequest.builder()
+                        .date(readField(payload))
+                        .macAddress(readField(payload))
+                        .build();
+                return new Entry(sequence, operation, deviceRequest, null);
+            }
+            return new Entry(sequence, operation, null, readField(payload));
+        }
+
+        private ByteBuffer slice(int position, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.limit(position + length);
+            return view.slice();
+        }
+
+        private static String readField(ByteBuffer payload) {
+            byte[] text = new byte[payload.getInt()];
+            payload.get(text);
+            return new String(text, StandardCharsets.UTF_8);
+        }
+
+        private void close() throws IOException {
+            if (channel.isOpen()) {
+                buffer.force();
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.webee.challenge.services.database.impl;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DuplicateMacException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind buffer in front of the single device registrations. Each registration is put in a
+ * bounded queue, and a flusher thread commits the pending ones together with registerDevices (a
+ * single WriteBatch in Firestore) once batchSize of them are waiting or the oldest one waited
+ * maxDelay. While a batch is being committed the next registrations keep piling up, so the batches
+ * grow with the load instead of the number of round trips.
+ *
+ * With Acknowledgement.COMMIT the future of each registration completes when its batch commits, with
+ * Acknowledgement.ENQUEUE it completes as soon as it is queued (the registrations still pending are
+ * lost if the process dies). When the queue is full the registration fails at once with a
+ * DataBaseOverloadedException.
+ *
+ * Registrations are queued under the read lock and close stops taking them under the write lock, so
+ * nothing is queued once the flusher may have seen the queue empty and stopped. The registrations the
+ * flusher did not reach before close gave up waiting for it are failed.
+ */
+public class WriteBehindDataBaseService extends ForwardingDataBaseService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindDataBaseService.class);
+
+    /**
+     * When the future of a buffered registration is completed
+     */
+    public enum Acknowledgement {
+        ENQUEUE,
+        COMMIT
+    }
+
+    private final BlockingQueue<PendingRegistration> queue;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Acknowledgement acknowledgement;
+    private final Counter rejected;
+    private final Thread flusher;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean running = true;
+
+    public WriteBehindDataBaseService(DataBaseService delegate, int queueSize, int batchSize, Duration maxDelay,
+                                      Acknowledgement acknowledgement, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.acknowledgement = acknowledgement;
+
+        Gauge.builder("devices.write_behind.pending", queue, BlockingQueue::size)
+                .description("Registrations waiting to be committed")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("devices.write_behind.rejected")
+                .description("Registrations rejected because the queue was full")
+                .register(meterRegistry);
+
+        this.flusher = new Thread(this::flush, "device-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void registerDevice(DeviceRequest deviceRequest) throws FirebaseException {
+        DataBaseFutures.await(registerDeviceAsync(deviceRequest));
+    }
+
+    @Override
+    public CompletableFuture<Void> registerDeviceAsync(DeviceRequest deviceRequest) {
+        PendingRegistration pending = new PendingRegistration(deviceRequest);
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                return DataBaseFutures.failed(new FirebaseException("The database is shutting down"));
+            }
+            if (!queue.offer(pending)) {
+                rejected.increment();
+                return DataBaseFutures.failed(new DataBaseOverloadedException("Too many devices waiting to be saved"));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        if (acknowledgement == Acknowledgement.ENQUEUE) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return pending.future;
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops taking registrations and waits for the pending ones to be committed, the ones still queued
+     * after that are failed.
+     */
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<PendingRegistration> unsaved = new ArrayList<>();
+        queue.drainTo(unsaved);
+        if (!unsaved.isEmpty()) {
+            LOG.error("{} registrations were not saved before shutting down", unsaved.size());
+            FirebaseException shutdown = new FirebaseException("The database shut down before the device was saved");
+            unsaved.forEach(pending -> pending.future.completeExceptionally(shutdown));
+        }
+        super.close();
+    }
+
+    private void flush() {
+        List<PendingRegistration> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRegistration first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    PendingRegistration next = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                commit(batch);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                commit(batch);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Commits the batch and waits for it, the registrations arriving meanwhile go to the next one.
+     */
+    private void commit(List<PendingRegistration> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<DeviceRequest> deviceRequests = new ArrayList<>(batch.size());
+        batch.forEach(pending -> deviceRequests.add(pending.deviceRequest));
+
+        List<DeviceRegistrationResult> results;
+        try {
+            results = delegate.registerDevicesAsync(deviceRequests).join();
+        } catch (RuntimeException exc) {
+            Throwable cause = DataBaseFutures.unwrap(exc);
+            LOG.error("Batch of {} buffered devices not saved: ", batch.size(), cause);
+            batch.forEach(pending -> pending.future.completeExceptionally(cause));
+            return;
+        }
+
+        int failed = 0;
+        for (int index = 0; index < batch.size(); index++) {
+            DeviceRegistrationResult result = results.get(index);
+            if (result.isRegistered()) {
+                batch.get(index).future.complete(null);
+            } else {
+                failed++;
+                batch.get(index).future.completeExceptionally(registrationFailure(result));
+            }
+        }
+
+        if (failed > 0) {
+            LOG.error("{} of {} buffered devices not saved", failed, batch.size());
+        } else {
+            LOG.info("Batch of {} buffered devices saved", batch.size());
+        }
+    }
+
+    /**
+     * The batch reports each device on its own, a duplicated MAC Address keeps its exception so the
+     * caller can tell it from a database failure.
+     */
+    private static FirebaseException registrationFailure(DeviceRegistrationResult result) {
+        if (DuplicateMacException.MESSAGE.equals(result.getMessage())) {
+            return new DuplicateMacException();
+        }
+        return new FirebaseException(result.getMessage());
+    }
+
+    private static final class PendingRegistration {
+
+        private final DeviceRequest deviceRequest;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingRegistration(DeviceRequest deviceRequest) {
+            this.deviceRequest = deviceRequest;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.webee.challenge.services.ids;
+
+/**
+ * Generates the IDs of the devices: 10 lower case letters, never repeated by a node.
+ */
+public interface IdGenerationService {
+
+    String generateId();
+}
@@ -0,0 +1,121 @@
+package com.webee.challenge.services.ids.impl;
+
+import com.webee.challenge.services.ids.IdGenerationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every ID is a 47 bits number, written in base 26 with 10 letters (26^10 is a little above 2^47):
+ *
+ *     seconds since 2021-01-01 (30 bits) | node ID (ids.node-bits) | sequence (17 - ids.node-bits)
+ *
+ * The seconds and the sequence come from a single counter, moved with a compare-and-set, that is
+ * never behind the clock: each ID takes the next value, or the first value of the current second
+ * when the clock is ahead. With more IDs per second than the sequence holds the counter borrows the
+ * next seconds and catches up with the clock when the load drops. The number is then scrambled with
+ * a bijection, so consecutive IDs do not share a prefix (sequential keys concentrate the writes of
+ * Firestore in one range) and are still unique.
+ *
+ * Two nodes never repeat an ID as long as they have different ids.node-id, so ids.node-id has to be
+ * set and the API does not start without it. On start the node waits for the next second before
+ * counting, so a restart does not repeat the IDs of the second it stopped in. It still repeats IDs if
+ * it is restarted while its counter was ahead of the clock (a burst borrowed the next seconds), or
+ * after its clock stepped back. While running, a clock stepping back does not matter: the counter
+ * never goes backwards.
+ */
+@Service
+public class IdGenerationServiceImpl implements IdGenerationService {
+
+    public static final int ID_LENGTH = 10;
+
+    private static final int VALUE_BITS = 47;
+    private static final int TIME_BITS = 30;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long EPOCH_SECONDS = 1609459200L;
+
+    private final int sequenceBits;
+    private final long node;
+    private final AtomicLong counter;
+
+    /**
+     * Node 0 without waiting for the next second, for the in-memory backend and the tests: their
+     * devices do not outlive the process, so there is no restart to protect from.
+     */
+    public IdGenerationServiceImpl() {
+        this.sequenceBits = VALUE_BITS - TIME_BITS;
+        this.node = 0;
+        this.counter = new AtomicLong((currentSecond() << sequenceBits) - 1);
+    }
+
+    @Autowired
+    public IdGenerationServiceImpl(@Value("${ids.node-id:#{null}}") Integer nodeId,
+                                   @Value("${ids.node-bits:0}") int nodeBits) {
+        if (nodeId == null) {
+            throw new IllegalStateException("ids.node-id is not set, give each instance sharing the database "
+                    + "a different one (0 for a single instance)");
+        }
+        if (nodeBits < 0 || nodeBits > 8 || nodeId < 0 || nodeId >= (1 << nodeBits)) {
+            throw new IllegalArgumentException("ids.node-id has to be between 0 and 2^ids.node-bits - 1, "
+                    + "with ids.node-bits between 0 and 8");
+        }
+        this.sequenceBits = VALUE_BITS - TIME_BITS - nodeBits;
+        this.node = nodeId;
+        this.counter = new AtomicLong((nextSecond() << sequenceBits) - 1);
+    }
+
+    @Override
+    public String generateId() {
+        long now = currentSecond() << sequenceBits;
+        long next = counter.updateAndGet(previous -> Math.max(previous + 1, now));
+
+        long seconds = next >>> sequenceBits;
+        long sequence = next & ((1L << sequenceBits) - 1);
+        long value = (seconds << (VALUE_BITS - TIME_BITS)) | (node << sequenceBits) | sequence;
+        return encode(scramble(value & VALUE_MASK));
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - EPOCH_SECONDS;
+    }
+
+    /**
+     * Waits (less than a second) until the clock moves to the next second and returns it
+     */
+    private static long nextSecond() {
+        long startSecond = currentSecond();
+        try {
+            while (currentSecond() == startSecond) {
+                Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the first second of the IDs");
+        }
+        return currentSecond();
+    }
+
+    /**
+     * Bijection of the 47 bits numbers: multiplications by odd constants and right xor-shifts.
+     */
+    static long scramble(long value) {
+        long mixed = (value * 0x5DEECE66DL) & VALUE_MASK;
+        mixed ^= mixed >>> 21;
+        mixed = (mixed * 0x2545F4914F6CDD1DL) & VALUE_MASK;
+        mixed ^= mixed >>> 24;
+        return mixed;
+    }
+
+    private static String encode(long value) {
+        char[] id = new char[ID_LENGTH];
+        long remaining = value;
+        for (int index = ID_LENGTH - 1; index >= 0; index--) {
+            id[index] = (char) ('a' + remaining % 26);
+            remaining /= 26;
+        }
+        return new String(id);
+    }
+}
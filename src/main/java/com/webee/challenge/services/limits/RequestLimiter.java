@@ -0,0 +1,54 @@
+package com.webee.challenge.services.limits;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Concurrency limit of the requests that reach the database, kept apart for each group of endpoints.
+ * A request takes a permit right before calling the database, after its validation, and gives it
+ * back when the database answers. When there is no permit left the request is shed.
+ */
+public interface RequestLimiter {
+
+    /**
+     * Endpoints sharing a concurrency limit
+     */
+    enum EndpointGroup {
+        LOOKUP,
+        SCAN,
+        WRITE
+    }
+
+    /**
+     * @return a permit to call the database, or null when the group is at its limit
+     */
+    Permit tryAcquire(EndpointGroup group);
+
+    /**
+     * @return seconds a shed request should wait before trying again
+     */
+    long getRetryAfterSeconds();
+
+    /**
+     * Permit taken by a request, released once with the outcome of its database call
+     */
+    interface Permit {
+
+        /**
+         * Makes the database call and releases the permit when it completes, its latency and outcome
+         * adjust the limit. A call that throws instead of returning a future releases the permit too.
+         *
+         * @return the future of the database call, failed with the exception it threw if it did
+         */
+        <T> CompletableFuture<T> track(Supplier<CompletableFuture<T>> databaseCall);
+
+        /**
+         * Keeps the permit taken, once the tracked call completed, until the request is done (for
+         * example while a list is streamed with more database calls). Only the tracked call adjusts
+         * the limit.
+         *
+         * @return this permit
+         */
+        Permit holdUntil(CompletableFuture<?> done);
+    }
+}
@@ -0,0 +1,214 @@
+package com.webee.challenge.services.limits.impl;
+
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.limits.RequestLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AIMD limiter, enabled with limits.enabled=true. Each group of endpoints starts with initialLimit
+ * permits. A database call that answers within latencyThreshold while the group is using at least
+ * half of its limit raises the limit by one, and a call that is slower or fails (other than a device
+ * not found or a duplicated MAC Address) multiplies it by backoffRatio, never going under minLimit
+ * nor over maxLimit. So the limit follows what the database can take: it shrinks as soon as the
+ * database slows down, and the requests over it are shed at once instead of waiting.
+ *
+ * When it is disabled every request gets a permit.
+ */
+@Service
+public class RequestLimiterImpl implements RequestLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestLimiterImpl.class);
+
+    private static final Permit UNLIMITED = new Permit() {
+        @Override
+        public <T> CompletableFuture<T> track(Supplier<CompletableFuture<T>> databaseCall) {
+            return call(databaseCall);
+        }
+
+        @Override
+        public Permit holdUntil(CompletableFuture<?> done) {
+            return this;
+        }
+    };
+
+    private static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> databaseCall) {
+        try {
+            return databaseCall.get();
+        } catch (RuntimeException exc) {
+            return DataBaseFutures.failed(exc);
+        }
+    }
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final long retryAfterSeconds;
+    private final Map<EndpointGroup, Limit> limits = new EnumMap<>(EndpointGroup.class);
+
+    @Autowired
+    public RequestLimiterImpl(@Value("${limits.enabled:false}") boolean enabled,
+                              @Value("${limits.initial-limit:50}") int initialLimit,
+                              @Value("${limits.min-limit:5}") int minLimit,
+                              @Value("${limits.max-limit:1000}") int maxLimit,
+                              @Value("${limits.backoff-ratio:0.9}") double backoffRatio,
+                              @Value("${limits.latency-threshold-millis:500}") long latencyThresholdMillis,
+                              @Value("${limits.retry-after-seconds:1}") long retryAfterSeconds,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        if (enabled) {
+            for (EndpointGroup group : EndpointGroup.values()) {
+                limits.put(group, new Limit(group, initialLimit, meterRegistry));
+            }
+        }
+    }
+
+    @Override
+    public Permit tryAcquire(EndpointGroup group) {
+        if (!enabled) {
+            return UNLIMITED;
+        }
+        return limits.get(group).tryAcquire();
+    }
+
+    @Override
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return current limit of the group, 0 when the limiter is disabled
+     */
+    public int getLimit(EndpointGroup group) {
+        return enabled ? limits.get(group).getLimit() : 0;
+    }
+
+    /**
+     * A failure that is a valid answer of the database does not mean it is overloaded
+     */
+    private static boolean isExpected(Throwable throwable) {
+        Throwable cause = DataBaseFutures.unwrap(throwable);
+        return cause instanceof DeviceNotFoundException || cause instanceof DuplicateMacException;
+    }
+
+    private final class Limit {
+
+        private final EndpointGroup group;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Counter shed;
+
+        private volatile double limit;
+
+        private Limit(EndpointGroup group, int initialLimit, MeterRegistry meterRegistry) {
+            this.group = group;
+            this.limit = initialLimit;
+
+            String tag = group.name().toLowerCase();
+            Gauge.builder("devices.limit", this, Limit::getLimit)
+                    .description("Requests of the group allowed to call the database at the same time")
+                    .tag("group", tag)
+                    .register(meterRegistry);
+            Gauge.builder("devices.limit.in_flight", inFlight, AtomicInteger::get)
+                    .description("Requests of the group calling the database")
+                    .tag("group", tag)
+                    .register(meterRegistry);
+            this.shed = Counter.builder("devices.limit.shed")
+                    .description("Requests answered 503 because the group was at its limit")
+                    .tag("group", tag)
+                    .register(meterRegistry);
+        }
+
+        private int getLimit() {
+            return (int) limit;
+        }
+
+        private Permit tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= getLimit()) {
+                    shed.increment();
+                    return null;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return new LimitPermit(this, current + 1);
+                }
+            }
+        }
+
+        private synchronized void onSample(long latencyNanos, boolean dropped, int inFlightAtStart) {
+            double previous = limit;
+            if (dropped || latencyNanos > latencyThresholdNanos) {
+                limit = Math.max(minLimit, previous * backoffRatio);
+            } else if (inFlightAtStart * 2 >= previous) {
+                limit = Math.min(maxLimit, previous + 1);
+            }
+
+            if ((int) limit != (int) previous) {
+                LOG.debug("Limit of the {} requests changed from {} to {}", group, (int) previous, (int) limit);
+            }
+        }
+    }
+
+    /**
+     * The permit goes back to the group once the tracked call and every holdUntil completed
+     */
+    private static final class LimitPermit implements Permit {
+
+        private final Limit limit;
+        private final int inFlightAtStart;
+        private final long start = System.nanoTime();
+        private final AtomicInteger holders = new AtomicInteger(1);
+
+        private LimitPermit(Limit limit, int inFlightAtStart) {
+            this.limit = limit;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        @Override
+        public <T> CompletableFuture<T> track(Supplier<CompletableFuture<T>> databaseCall) {
+            CompletableFuture<T> future = call(databaseCall);
+            future.whenComplete((result, throwable) -> {
+                limit.onSample(System.nanoTime() - start, throwable != null && !isExpected(throwable),
+                        inFlightAtStart);
+                release();
+            });
+            return future;
+        }
+
+        @Override
+        public Permit holdUntil(CompletableFuture<?> done) {
+            holders.incrementAndGet();
+            done.whenComplete((result, throwable) -> release());
+            return this;
+        }
+
+        private void release() {
+            if (holders.decrementAndGet() == 0) {
+                limit.inFlight.decrementAndGet();
+            }
+        }
+    }
+}
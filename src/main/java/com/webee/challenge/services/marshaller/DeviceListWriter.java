@@ -0,0 +1,17 @@
+package com.webee.challenge.services.marshaller;
+
+import com.webee.challenge.model.Device;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes a list of devices to a stream one by one, so the list never has to be kept in memory.
+ * Closing the writer ends the list, a writer that is not closed leaves an incomplete document.
+ */
+public interface DeviceListWriter extends Closeable {
+
+    void write(Device device) throws IOException;
+
+    void flush() throws IOException;
+}
@@ -1,15 +1,62 @@
 package com.webee.challenge.services.marshaller;
 
 import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
 import com.webee.challenge.model.DeviceRequest;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 
 public interface MarshallerService {
 
     String marshallDevice(Device device);
 
+    /**
+     * Marshalls the device as JSON or XML, binary formats are not supported in a String and they are
+     * marshalled as JSON.
+     */
+    String marshallDevice(Device device, MarshallingFormat format);
+
     String marshallDeviceRequest(DeviceRequest device);
 
+    /**
+     * Marshalls the devices as a compact JSON array.
+     */
     String marshallDeviceList(List<Device> deviceList);
+
+    /**
+     * Writes the devices as a JSON array straight to the stream, through a single generator.
+     *
+     * @param pretty true to indent the output, otherwise it is compact
+     */
+    void writeDeviceList(List<Device> deviceList, OutputStream outputStream, boolean pretty) throws IOException;
+
+    /**
+     * Writes the devices straight to the stream, through a single generator, as a JSON array (or its
+     * Smile or CBOR encoding) or as a devices XML element.
+     *
+     * @param pretty true to indent the output, otherwise it is compact. Binary formats are never indented
+     */
+    void writeDeviceList(List<Device> deviceList, OutputStream outputStream, MarshallingFormat format,
+                         boolean pretty) throws IOException;
+
+    String marshallDevicePage(DevicePage devicePage);
+
+    DeviceListWriter openDeviceListWriter(OutputStream outputStream, boolean pretty) throws IOException;
+
+    DeviceListWriter openDeviceListWriter(OutputStream outputStream, MarshallingFormat format, boolean pretty) throws IOException;
+
+    /**
+     * Marshalls the change as compact (single line) JSON, as server-sent events expect.
+     */
+    String marshallDeviceChange(DeviceChange change);
+
+    String marshallRegistrationResults(List<DeviceRegistrationResult> results);
+
+    String marshallLookupResults(Map<String, DeviceLookupResult> results);
 }
@@ -0,0 +1,87 @@
+package com.webee.challenge.services.marshaller;
+
+import com.webee.challenge.constants.Constants;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Formats the devices can be marshalled to, chosen from the Accept header of the request. Smile and
+ * CBOR are binary encodings of the same JSON document, meant for services that read big lists.
+ */
+public enum MarshallingFormat {
+
+    JSON(false, MediaType.APPLICATION_JSON),
+    XML(false, MediaType.APPLICATION_XML, MediaType.TEXT_XML),
+    SMILE(true, MediaType.parseMediaType(Constants.APPLICATION_SMILE_VALUE)),
+    CBOR(true, MediaType.APPLICATION_CBOR);
+
+    /**
+     * Formats that can be returned in a String body
+     */
+    public static final Set<MarshallingFormat> TEXT_FORMATS = Collections.unmodifiableSet(EnumSet.of(JSON, XML));
+
+    private final boolean binary;
+    private final List<MediaType> mediaTypes;
+
+    MarshallingFormat(boolean binary, MediaType... mediaTypes) {
+        this.binary = binary;
+        this.mediaTypes = Arrays.asList(mediaTypes);
+    }
+
+    public MediaType getMediaType() {
+        return mediaTypes.get(0);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Same as negotiate(acceptHeader, formats) with every format.
+     */
+    public static MarshallingFormat negotiate(String acceptHeader) {
+        return negotiate(acceptHeader, EnumSet.allOf(MarshallingFormat.class));
+    }
+
+    /**
+     * Picks the format of the most preferred media type of the header that is one of the formats.
+     * JSON is used when the header is missing, is not valid, or does not ask for any of them (for
+     * example with a wildcard).
+     *
+     * @param acceptHeader value of the Accept header, it can be null
+     * @param formats formats the response can be written with
+     */
+    public static MarshallingFormat negotiate(String acceptHeader, Set<MarshallingFormat> formats) {
+        if (acceptHeader == null || acceptHeader.isEmpty()) {
+            return JSON;
+        }
+
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(acceptHeader);
+        } catch (InvalidMediaTypeException invalidMediaTypeException) {
+            return JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+
+        for (MediaType acceptedType : acceptedTypes) {
+            if (acceptedType.isWildcardType() || acceptedType.isWildcardSubtype()) {
+                continue;
+            }
+            for (MarshallingFormat format : formats) {
+                for (MediaType mediaType : format.mediaTypes) {
+                    if (mediaType.isCompatibleWith(acceptedType)) {
+                        return format;
+                    }
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,46 @@
+package com.webee.challenge.services.marshaller.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.marshaller.DeviceListWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the devices as a JSON array through a single JsonGenerator. The output is compact unless
+ * the writer was opened with pretty printing, and it is only flushed when flush is called. With a
+ * Smile or CBOR ObjectWriter the same array is written in that binary encoding.
+ */
+public class JsonDeviceListWriter implements DeviceListWriter {
+
+    private final ObjectWriter objectWriter;
+    private final JsonGenerator generator;
+
+    public JsonDeviceListWriter(ObjectWriter objectWriter, OutputStream outputStream, boolean pretty) throws IOException {
+        this.objectWriter = objectWriter;
+        this.generator = objectWriter.getFactory().createGenerator(outputStream);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (pretty) {
+            this.generator.useDefaultPrettyPrinter();
+        }
+        this.generator.writeStartArray();
+    }
+
+    @Override
+    public void write(Device device) throws IOException {
+        objectWriter.writeValue(generator, device);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.writeEndArray();
+        generator.close();
+    }
+}
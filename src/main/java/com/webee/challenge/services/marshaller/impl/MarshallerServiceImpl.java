@@ -2,18 +2,36 @@ package com.webee.challenge.services.marshaller.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.webee.challenge.constants.Constants;
 import com.webee.challenge.controllers.DeviceMonitoringController;
 import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
 import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.marshaller.DeviceListWriter;
 import com.webee.challenge.services.marshaller.MarshallerService;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class MarshallerServiceImpl implements MarshallerService {
@@ -24,44 +42,236 @@ public class MarshallerServiceImpl implements MarshallerService {
     @Qualifier("jsonMarshaller")
     private ObjectMapper mapper;
 
+    @Autowired
+    @Qualifier("xmlMarshaller")
+    private XmlMapper xmlMapper;
+
+    @Autowired
+    @Qualifier("smileMarshaller")
+    private ObjectMapper smileMapper;
+
+    @Autowired
+    @Qualifier("cborMarshaller")
+    private ObjectMapper cborMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    /**
+     * Meters of every operation and format, registered the first time they are used
+     */
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>();
 
     @Override
     public String marshallDeviceRequest(DeviceRequest device) {
+        long start = System.nanoTime();
         String jsonString = null;
         try {
             jsonString = mapper.writeValueAsString(device);
         } catch (JsonProcessingException jsonProcessExc) {
             LOG.error("Something went wrong wile marshalling");
         }
-        return (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString;
+        return record("device-request", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
     }
 
     @Override
     public String marshallDevice(Device device) {
+        long start = System.nanoTime();
         String jsonString = null;
         try {
             jsonString = mapper.writeValueAsString(device);
         } catch (JsonProcessingException jsonProcessExc) {
             LOG.error("Something went wrong wile marshalling");
         }
-        return (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString;
+        return record("device", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
+    }
+
+    @Override
+    public String marshallDevice(Device device, MarshallingFormat format) {
+        if (format != MarshallingFormat.XML) {
+            return marshallDevice(device);
+        }
+
+        long start = System.nanoTime();
+        String xmlString = null;
+        try {
+            xmlString = xmlMapper.writeValueAsString(device);
+        } catch (JsonProcessingException jsonProcessExc) {
+            LOG.error("Something went wrong wile marshalling");
+        }
+        return record("device", MarshallingFormat.XML, start, xmlString);
+    }
+
+    @Override
+    public String marshallDeviceChange(DeviceChange change) {
+        long start = System.nanoTime();
+        String jsonString = null;
+        try {
+            jsonString = listWriter(mapper, false).writeValueAsString(change);
+        } catch (JsonProcessingException jsonProcessExc) {
+            LOG.error("Something went wrong wile marshalling");
+        }
+        return record("device-change", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
+    }
+
+    @Override
+    public String marshallRegistrationResults(List<DeviceRegistrationResult> results) {
+        long start = System.nanoTime();
+        String jsonString = null;
+        try {
+            jsonString = mapper.writeValueAsString(results);
+        } catch (JsonProcessingException jsonProcessExc) {
+            LOG.error("Something went wrong wile marshalling");
+        }
+        return record("registration-results", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
+    }
+
+    @Override
+    public String marshallLookupResults(Map<String, DeviceLookupResult> results) {
+        long start = System.nanoTime();
+        String jsonString = null;
+        try {
+            jsonString = mapper.writeValueAsString(results);
+        } catch (JsonProcessingException jsonProcessExc) {
+            LOG.error("Something went wrong wile marshalling");
+        }
+        return record("lookup-results", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
+    }
+
+    @Override
+    public String marshallDevicePage(DevicePage devicePage) {
+        long start = System.nanoTime();
+        String jsonString = null;
+        try {
+            jsonString = mapper.writeValueAsString(devicePage);
+        } catch (JsonProcessingException jsonProcessExc) {
+            LOG.error("Something went wrong wile marshalling");
+        }
+        return record("device-page", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
+    }
+
+    @Override
+    public DeviceListWriter openDeviceListWriter(OutputStream outputStream, boolean pretty) throws IOException {
+        return openDeviceListWriter(outputStream, MarshallingFormat.JSON, pretty);
+    }
+
+    @Override
+    public DeviceListWriter openDeviceListWriter(OutputStream outputStream, MarshallingFormat format,
+                                                 boolean pretty) throws IOException {
+        MeteredDeviceListWriter.CountingOutputStream countingStream =
+                new MeteredDeviceListWriter.CountingOutputStream(outputStream);
+        Meters listMeters = meters("device-list", format);
+        return new MeteredDeviceListWriter(deviceListWriter(countingStream, format, pretty), countingStream,
+                listMeters.timer, listMeters.payloadBytes);
+    }
+
+    private DeviceListWriter deviceListWriter(OutputStream outputStream, MarshallingFormat format,
+                                              boolean pretty) throws IOException {
+        switch (format) {
+            case XML:
+                return new XmlDeviceListWriter(listWriter(xmlMapper, pretty), outputStream, pretty);
+            case SMILE:
+                return new JsonDeviceListWriter(listWriter(smileMapper, false), outputStream, false);
+            case CBOR:
+                return new JsonDeviceListWriter(listWriter(cborMapper, false), outputStream, false);
+            default:
+                return new JsonDeviceListWriter(listWriter(mapper, pretty), outputStream, pretty);
+        }
+    }
+
+    @Override
+    public void writeDeviceList(List<Device> deviceList, OutputStream outputStream, boolean pretty) throws IOException {
+        writeDeviceList(deviceList, outputStream, MarshallingFormat.JSON, pretty);
+    }
+
+    @Override
+    public void writeDeviceList(List<Device> deviceList, OutputStream outputStream, MarshallingFormat format,
+                                boolean pretty) throws IOException {
+        try (DeviceListWriter writer = openDeviceListWriter(outputStream, format, pretty)) {
+            for (Device device : deviceList) {
+                writer.write(device);
+            }
+        }
     }
 
     @Override
     public String marshallDeviceList(List<Device> deviceList) {
-        if (deviceList.size() == 1) {
-            return marshallDevice(deviceList.get(0));
+        long start = System.nanoTime();
+        String jsonString = null;
+        try {
+            jsonString = listWriter(mapper, false).writeValueAsString(deviceList);
+        } catch (JsonProcessingException jsonProcessExc) {
+            LOG.error("Something went wrong wile marshalling");
+        }
+        return record("device-list", MarshallingFormat.JSON, start,
+                (Constants.NULL.equalsIgnoreCase(jsonString)) ? null : jsonString);
+    }
+
+    /**
+     * The JSON mapper indents its output, lists are compact unless asked otherwise. Every device is
+     * written through the same generator, so it is not flushed after each one.
+     */
+    private static ObjectWriter listWriter(ObjectMapper objectMapper, boolean pretty) {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return pretty ? writer.with(SerializationFeature.INDENT_OUTPUT) : writer.without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    /**
+     * Records the time since start and the size of the marshalled text (its UTF-8 bytes).
+     */
+    private String record(String operation, MarshallingFormat format, long start, String payload) {
+        Meters operationMeters = meters(operation, format);
+        operationMeters.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (payload != null) {
+            operationMeters.payloadBytes.record(utf8Length(payload));
+        }
+        return payload;
+    }
+
+    private Meters meters(String operation, MarshallingFormat format) {
+        return meters.computeIfAbsent(operation + '/' + format, key -> new Meters(meterRegistry, operation, format));
+    }
+
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int index = 0; index < text.length(); index++) {
+            char character = text.charAt(index);
+            if (character < 0x80) {
+                length++;
+            } else if (character < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(character)) {
+                length += 4;
+                index++;
+            } else {
+                length += 3;
+            }
         }
+        return length;
+    }
 
-        StringBuilder marshalledList = new StringBuilder("{");
-        deviceList.forEach(device -> {
-            String marshalledDevice = marshallDevice(device);
-            marshalledList.append(marshalledDevice);
-            marshalledList.append(",");
-        });
+    private static final class Meters {
 
-        marshalledList.setLength(marshalledList.length() - 1);
-        marshalledList.append("}");
-        return marshalledList.toString();
+        private final Timer timer;
+        private final DistributionSummary payloadBytes;
+
+        private Meters(MeterRegistry meterRegistry, String operation, MarshallingFormat format) {
+            String formatTag = format.name().toLowerCase();
+            this.timer = Timer.builder("devices.marshalling")
+                    .description("Time spent marshalling the responses")
+                    .tags("operation", operation, "format", formatTag)
+                    .register(meterRegistry);
+            this.payloadBytes = DistributionSummary.builder("devices.payload.bytes")
+                    .description("Size of the marshalled responses")
+                    .baseUnit("bytes")
+                    .tags("operation", operation, "format", formatTag)
+                    .register(meterRegistry);
+        }
     }
 }
@@ -0,0 +1,95 @@
+package com.webee.challenge.services.marshaller.impl;
+
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.marshaller.DeviceListWriter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds up the time spent in the writes of a DeviceListWriter and the bytes it wrote to the stream,
+ * and records both when the list is closed. The time waiting for the next device between writes is
+ * not counted, so a list streamed while it is read from the database only measures the marshalling.
+ */
+class MeteredDeviceListWriter implements DeviceListWriter {
+
+    private final DeviceListWriter writer;
+    private final CountingOutputStream countingStream;
+    private final Timer timer;
+    private final DistributionSummary payloadBytes;
+
+    private long elapsedNanos;
+
+    MeteredDeviceListWriter(DeviceListWriter writer, CountingOutputStream countingStream, Timer timer,
+                            DistributionSummary payloadBytes) {
+        this.writer = writer;
+        this.countingStream = countingStream;
+        this.timer = timer;
+        this.payloadBytes = payloadBytes;
+    }
+
+    @Override
+    public void write(Device device) throws IOException {
+        long start = System.nanoTime();
+        try {
+            writer.write(device);
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        try {
+            writer.flush();
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = System.nanoTime();
+        try {
+            writer.close();
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+            timer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+            payloadBytes.record(countingStream.count);
+        }
+    }
+
+    /**
+     * Counts the bytes going to the wrapped stream, which it never closes
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            out.write(value);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
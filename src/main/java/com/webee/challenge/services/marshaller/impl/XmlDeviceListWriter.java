@@ -0,0 +1,55 @@
+package com.webee.challenge.services.marshaller.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.marshaller.DeviceListWriter;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the devices as a devices XML element with one device element per device, through a single
+ * ToXmlGenerator (backed by Woodstox). The output is compact unless the writer was opened with pretty
+ * printing, and it is only flushed when flush is called.
+ */
+public class XmlDeviceListWriter implements DeviceListWriter {
+
+    private static final QName ROOT_ELEMENT = new QName("devices");
+    private static final String DEVICE_ELEMENT = "device";
+
+    private final ObjectWriter objectWriter;
+    private final ToXmlGenerator generator;
+
+    public XmlDeviceListWriter(ObjectWriter objectWriter, OutputStream outputStream, boolean pretty) throws IOException {
+        this.objectWriter = objectWriter;
+        this.generator = (ToXmlGenerator) objectWriter.getFactory().createGenerator(outputStream);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (pretty) {
+            this.generator.useDefaultPrettyPrinter();
+        }
+        this.generator.setNextName(ROOT_ELEMENT);
+        this.generator.writeStartObject();
+        this.generator.writeFieldName(DEVICE_ELEMENT);
+        this.generator.writeStartArray();
+    }
+
+    @Override
+    public void write(Device device) throws IOException {
+        objectWriter.writeValue(generator, device);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+}
@@ -1,37 +1,85 @@
 package com.webee.challenge.services.validations.impl;
 
-import com.webee.challenge.constants.Constants;
 import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.model.MacAddress;
 import com.webee.challenge.services.validations.DeviceValidationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.xml.bind.ValidationException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class DeviceValidationServiceImpl implements DeviceValidationService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DeviceValidationServiceImpl.class);
 
+    private static final int ID_LENGTH = 10;
+
     /**
-     * It validates the MAC Address in order to match the valid format FF:FF:FF:FF:FF:FF
+     * DateTimeFormatter is immutable and thread safe, so a single instance serves every request
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("ddMMyyyy");
+
+    private static final LocalDate MIN_DATE = LocalDate.of(2020, 1, 1);
+
+    /**
+     * Time spent validating each kind of input, valid or not
+     */
+    private final Timer macTimer;
+    private final Timer idTimer;
+    private final Timer deviceTimer;
+
+    public DeviceValidationServiceImpl() {
+        this(Metrics.globalRegistry);
+    }
+
+    @Autowired
+    public DeviceValidationServiceImpl(MeterRegistry meterRegistry) {
+        this.macTimer = validationTimer(meterRegistry, "mac");
+        this.idTimer = validationTimer(meterRegistry, "id");
+        this.deviceTimer = validationTimer(meterRegistry, "device");
+    }
+
+    private static Timer validationTimer(MeterRegistry meterRegistry, String target) {
+        return Timer.builder("devices.validation")
+                .description("Time spent validating the request parameters")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+    /**
+     * It validates the MAC Address in order to match the valid format FF:FF:FF:FF:FF:FF (letters can be
+     * upper or lower case). It is parsed in a single pass, without regular expressions.
      *
      * @param macAddress device MAC Address to be validated
      * @throws ValidationException exception thrown when the parameter is not a valid MAC Address
      */
     @Override
     public void validateMac(String macAddress) throws ValidationException {
-        LOG.info("Validating MAC Address: {}", macAddress);
-        if (!macAddress.matches(Constants.REGEXPMAC)) {
+        long start = System.nanoTime();
+        try {
+            checkMac(macAddress);
+        } finally {
+            macTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void checkMac(String macAddress) throws ValidationException {
+        if (!MacAddress.isValid(macAddress)) {
             LOG.error("{} is not a valid MAC Address", macAddress);
             throw new ValidationException("Not a valid MAC Address");
         }
 
-        LOG.info("{} is a valid MAC Address", macAddress);
+        LOG.debug("{} is a valid MAC Address", macAddress);
     }
 
     /**
@@ -43,19 +91,29 @@ public class DeviceValidationServiceImpl implements DeviceValidationService {
      */
     @Override
     public void validateId(String id) throws ValidationException {
-        LOG.info("Validating ID: {}", id);
+        long start = System.nanoTime();
+        try {
+            checkId(id);
+        } finally {
+            idTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
-        if (id.length() != 10) {
+    private void checkId(String id) throws ValidationException {
+        if (id.length() != ID_LENGTH) {
             LOG.error("{} is not a valid ID (it does not have 10 characters)", id);
             throw new ValidationException("Not a valid ID (it does not have 10 characters)");
         }
 
-        if (!id.matches(Constants.REGEXID)) {
-            LOG.error("{} is not a valid ID (some character is not a letter between 'a to z')", id);
-            throw new ValidationException("Not a valid ID (some character is not a letter between 'a to z')");
+        for (int index = 0; index < ID_LENGTH; index++) {
+            char character = id.charAt(index);
+            if (character < 'a' || character > 'z') {
+                LOG.error("{} is not a valid ID (some character is not a letter between 'a to z')", id);
+                throw new ValidationException("Not a valid ID (some character is not a letter between 'a to z')");
+            }
         }
 
-        LOG.info("{} is a valid ID", id);
+        LOG.debug("{} is a valid ID", id);
     }
 
     /**
@@ -67,21 +125,28 @@ public class DeviceValidationServiceImpl implements DeviceValidationService {
      */
     @Override
     public void validateDeviceRequest(DeviceRequest deviceRequest) throws ValidationException {
+        long start = System.nanoTime();
+        try {
+            checkDeviceRequest(deviceRequest);
+        } finally {
+            deviceTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void checkDeviceRequest(DeviceRequest deviceRequest) throws ValidationException {
         String macAddress = deviceRequest.getMacAddress();
         String date = deviceRequest.getDate();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("ddMMyyyy");
-        LOG.info("Validating device");
 
         try {
-            LocalDate realDate = LocalDate.parse(date, formatter);
-            validateMac(macAddress);
+            LocalDate realDate = LocalDate.parse(date, DATE_FORMATTER);
+            checkMac(macAddress);
             validateDate(realDate);
         } catch (DateTimeParseException parseException) {
             LOG.error("{} is not a valid date format", date);
             throw new ValidationException(date + " is not a valid date format (valid format is ddMMyyyy)", parseException);
         }
 
-        LOG.info("Device validated");
+        LOG.debug("Device validated");
     }
 
     /**
@@ -91,11 +156,10 @@ public class DeviceValidationServiceImpl implements DeviceValidationService {
      * @throws ValidationException Exception thrown when the date is before 01012020
      */
     private void validateDate(LocalDate date) throws ValidationException {
-        LOG.info("Validating date: {}", date);
-        if (date.compareTo(LocalDate.of(2020, 01, 01)) < 0) {
+        if (date.isBefore(MIN_DATE)) {
             LOG.error("{} is not a valid date", date);
             throw new ValidationException("Not a valid date");
         }
-        LOG.info("{} is a valid date", date);
+        LOG.debug("{} is a valid date", date);
     }
 }
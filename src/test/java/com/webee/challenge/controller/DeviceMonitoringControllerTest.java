@@ -4,22 +4,67 @@ package com.webee.challenge.controller;
 import com.google.firebase.FirebaseException;
 import com.webee.challenge.controllers.DeviceMonitoringController;
 import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
 import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.cache.DevicePayloadCache;
+import com.webee.challenge.services.cache.impl.DevicePayloadCacheImpl;
+import com.webee.challenge.services.changes.DeviceChangeFeed;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
 import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseTimeoutException;
+import com.webee.challenge.services.database.DataBaseUnavailableException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.limits.RequestLimiter;
+import com.webee.challenge.services.limits.RequestLimiter.EndpointGroup;
+import com.webee.challenge.services.limits.impl.RequestLimiterImpl;
 import com.webee.challenge.services.marshaller.MarshallerService;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
 import com.webee.challenge.services.validations.DeviceValidationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.xml.bind.ValidationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -34,6 +79,18 @@ public class DeviceMonitoringControllerTest {
     @Mock
     private MarshallerService mockMarshallerService;
 
+    @Mock
+    private DeviceChangeFeed mockDeviceChangeFeed;
+
+    @Spy
+    private DevicePayloadCache devicePayloadCache = new DevicePayloadCacheImpl(true, 60, 100, new SimpleMeterRegistry());
+
+    @Spy
+    private RequestLimiter requestLimiter = new RequestLimiterImpl(false, 50, 5, 1000, 0.9, 500, 1, new SimpleMeterRegistry());
+
+    @Mock
+    private Executor mockResponseExecutor;
+
     @InjectMocks
     private DeviceMonitoringController deviceMonitoringController;
 
@@ -48,8 +105,12 @@ public class DeviceMonitoringControllerTest {
     }
 
     private void populateMocks() throws FirebaseException, ValidationException {
-        when(mockMarshallerService.marshallDevice(device)).thenReturn("Marshall device");
-        when(mockMarshallerService.marshallDeviceList(deviceList)).thenReturn("Marshall device list");
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(mockResponseExecutor).execute(any(Runnable.class));
+        when(mockMarshallerService.marshallDevice(device, MarshallingFormat.JSON)).thenReturn("Marshall device");
+        when(mockMarshallerService.marshallDevice(device, MarshallingFormat.XML)).thenReturn("Marshall XML device");
     }
 
     private void populateFields() {
@@ -63,31 +124,97 @@ public class DeviceMonitoringControllerTest {
     }
 
     @Test
-    void shouldReturnDeviceListSuccessfullyWith200Status() throws FirebaseException {
-        when(mockDataBaseService.searchAllDevices()).thenReturn(deviceList);
+    void shouldReturnDeviceListSuccessfullyWith200Status() throws IOException {
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(CompletableFuture.completedFuture(deviceList));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        ResponseEntity<StreamingResponseBody> responseEntity = deviceMonitoringController.getDevices(true, null).join();
+        responseEntity.getBody().writeTo(outputStream);
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        verify(mockMarshallerService).writeDeviceList(deviceList, outputStream, MarshallingFormat.JSON, true);
+    }
+
+    @Test
+    void shouldReturnErrorMessageWith500StatusWhenExceptionOccurs() throws IOException {
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(DataBaseFutures.failed(new FirebaseException("Database exception mock")));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        ResponseEntity<StreamingResponseBody> responseEntity = deviceMonitoringController.getDevices(false, null).join();
+        responseEntity.getBody().writeTo(outputStream);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
+        assertEquals("Database exception mock", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    void shouldReturnDevicePageSuccessfullyWith200Status() {
+        DevicePage devicePage = new DevicePage(deviceList, "qwertyuiop");
+        when(mockDataBaseService.searchDevicesPageAsync(1, null)).thenReturn(CompletableFuture.completedFuture(devicePage));
+        when(mockMarshallerService.marshallDevicePage(devicePage)).thenReturn("Marshall device page");
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevicesPage(1, null).join();
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals("Marshall device page", responseEntity.getBody());
+    }
+
+    @Test
+    void shouldReturnErrorMessageWith400StatusWhenPageLimitIsInvalid() {
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevicesPage(0, null).join();
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevices();
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals("Not a valid limit (it has to be between 1 and 1000)", responseEntity.getBody());
+        verifyNoInteractions(mockDataBaseService);
+    }
+
+    @Test
+    void shouldReleaseTheStreamPermitWhenTheRequestEndsBeforeTheBodyIsWritten() throws Exception {
+        RequestLimiter.Permit permit = mock(RequestLimiter.Permit.class);
+        ArgumentCaptor<CompletableFuture<?>> streamed = ArgumentCaptor.forClass(CompletableFuture.class);
+        doReturn(permit).when(requestLimiter).tryAcquire(EndpointGroup.SCAN);
+        when(permit.holdUntil(streamed.capture())).thenReturn(permit);
+        when(permit.track(any())).thenReturn(CompletableFuture.completedFuture(new DevicePage(deviceList, null)));
+        MockHttpServletRequest servletRequest = new MockHttpServletRequest();
+        servletRequest.setAsyncSupported(true);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(servletRequest);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(servletRequest, new MockHttpServletResponse()));
+
+        ResponseEntity<StreamingResponseBody> responseEntity = deviceMonitoringController.streamDevices(false, null,
+                new ServletWebRequest(servletRequest)).join();
+        asyncManager.startDeferredResultProcessing(new DeferredResult<>());
+        assertFalse(streamed.getValue().isDone());
+        ((MockAsyncContext) servletRequest.getAsyncContext()).complete();
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
-        assertEquals("Marshall device list", responseEntity.getBody());
+        assertTrue(streamed.getValue().isDone());
     }
 
     @Test
-    void shouldReturnErrorMessageWith500StatusWhenExceptionOccurs() throws FirebaseException {
-        when(mockDataBaseService.searchAllDevices()).thenThrow(new FirebaseException("Database exception mock"));
+    void shouldSubscribeToTheChangeFeedWith200Status() throws FirebaseException {
+        when(mockDeviceChangeFeed.subscribe(any())).thenReturn(() -> { });
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevices();
+        ResponseEntity<SseEmitter> responseEntity = deviceMonitoringController.streamDeviceChanges();
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        verify(mockDeviceChangeFeed).subscribe(any());
+    }
+
+    @Test
+    void shouldReturn500StatusWhenTheChangeFeedCannotStart() throws FirebaseException {
+        when(mockDeviceChangeFeed.subscribe(any())).thenThrow(new FirebaseException("Problem with FireBase"));
+
+        ResponseEntity<SseEmitter> responseEntity = deviceMonitoringController.streamDeviceChanges();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
-        assertEquals("Database exception mock", responseEntity.getBody());
     }
 
     @Test
     void shouldReturnDeviceSuccessfullyWith200StatusWhileLookingByMac() throws ValidationException, FirebaseException {
         doNothing().when(mockDeviceValidationService).validateMac("Valid MAC");
-        when(mockDataBaseService.searchDeviceByMac("Valid MAC")).thenReturn(device);
+        when(mockDataBaseService.searchDeviceByMacAsync("Valid MAC")).thenReturn(CompletableFuture.completedFuture(device));
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceByMac("Valid MAC");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceByMac("Valid MAC", null, null).join();
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals("Marshall device", responseEntity.getBody());
@@ -97,7 +224,7 @@ public class DeviceMonitoringControllerTest {
     void shouldReturnErrorMessageWith400StatusWhileLookingByMacAndValidationExceptionOccurs() throws ValidationException {
         doThrow(new ValidationException("Invalid MAC address")).when(mockDeviceValidationService).validateMac("throw ValidationException");
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceByMac("throw ValidationException");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceByMac("throw ValidationException", null, null).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
         assertEquals("Invalid MAC address", responseEntity.getBody());
@@ -106,30 +233,56 @@ public class DeviceMonitoringControllerTest {
     @Test
     void shouldReturnErrorMessageWith500StatusWhileLookingByMacAndFireBaseExceptionOccurs() throws ValidationException, FirebaseException {
         doNothing().when(mockDeviceValidationService).validateMac("throw FireBaseException");
-        when(mockDataBaseService.searchDeviceByMac("throw FireBaseException")).thenThrow(new FirebaseException("Problem with FireBase"));
+        when(mockDataBaseService.searchDeviceByMacAsync("throw FireBaseException")).thenReturn(DataBaseFutures.failed(new FirebaseException("Problem with FireBase")));
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceByMac("throw FireBaseException");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceByMac("throw FireBaseException", null, null).join();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
         assertEquals("Problem with FireBase", responseEntity.getBody());
     }
 
+    @Test
+    void shouldReturnXmlDeviceWhenAcceptHeaderPrefersXml() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateId("Valid ID");
+        when(mockDataBaseService.searchDeviceByIdAsync("Valid ID")).thenReturn(CompletableFuture.completedFuture(device));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("Valid ID", "application/json;q=0.5, application/xml", null).join();
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(MediaType.APPLICATION_XML, responseEntity.getHeaders().getContentType());
+        assertEquals("Marshall XML device", responseEntity.getBody());
+    }
+
     @Test
     void shouldReturnDeviceSuccessfullyWith200StatusWhileLookingByID() throws ValidationException, FirebaseException {
         doNothing().when(mockDeviceValidationService).validateId("Valid ID");
-        when(mockDataBaseService.searchDeviceById("Valid ID")).thenReturn(device);
+        when(mockDataBaseService.searchDeviceByIdAsync("Valid ID")).thenReturn(CompletableFuture.completedFuture(device));
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("Valid ID");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("Valid ID", null, null).join();
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals("Marshall device", responseEntity.getBody());
     }
 
+    @Test
+    void shouldBuildTheResponseOnTheResponseExecutorOnceTheDatabaseAnswers() throws ValidationException {
+        CompletableFuture<Device> lookup = new CompletableFuture<>();
+        doNothing().when(mockDeviceValidationService).validateId("Valid ID");
+        when(mockDataBaseService.searchDeviceByIdAsync("Valid ID")).thenReturn(lookup);
+
+        CompletableFuture<ResponseEntity<String>> response = deviceMonitoringController.getDeviceById("Valid ID", null, null);
+        verifyNoInteractions(mockResponseExecutor);
+        lookup.complete(device);
+
+        verify(mockResponseExecutor).execute(any(Runnable.class));
+        assertEquals(HttpStatus.OK, response.join().getStatusCode());
+    }
+
     @Test
     void shouldReturnErrorMessageWith400StatusWhileLookingByIDAndValidationExceptionOccurs() throws ValidationException {
         doThrow(new ValidationException("Invalid ID address")).when(mockDeviceValidationService).validateId("throw ValidationException");
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("throw ValidationException");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("throw ValidationException", null, null).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
         assertEquals("Invalid ID address", responseEntity.getBody());
@@ -137,10 +290,49 @@ public class DeviceMonitoringControllerTest {
 
     @Test
     void shouldReturnErrorMessageWith500StatusWhileLookingByIDAndFireBaseExceptionOccurs() throws ValidationException, FirebaseException {
-        when(mockDataBaseService.searchDeviceById("throw FireBaseException")).thenThrow(new FirebaseException("Problem with FireBase"));
+        when(mockDataBaseService.searchDeviceByIdAsync("throw FireBaseException")).thenReturn(DataBaseFutures.failed(new FirebaseException("Problem with FireBase")));
         doNothing().when(mockDeviceValidationService).validateId("throw FireBaseException");
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("throw FireBaseException");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("throw FireBaseException", null, null).join();
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
+        assertEquals("Problem with FireBase", responseEntity.getBody());
+    }
+
+    @Test
+    void shouldLookUpOnlyValidIdsWith200Status() throws ValidationException {
+        Map<String, DeviceLookupResult> found = new LinkedHashMap<>();
+        found.put("qwertyuiop", DeviceLookupResult.found(device));
+
+        doNothing().when(mockDeviceValidationService).validateId("qwertyuiop");
+        doThrow(new ValidationException("Invalid ID")).when(mockDeviceValidationService).validateId("qwer");
+        when(mockDataBaseService.searchDevicesByIdsAsync(Collections.singletonList("qwertyuiop")))
+                .thenReturn(CompletableFuture.completedFuture(found));
+        when(mockMarshallerService.marshallLookupResults(anyMap())).thenReturn("Marshall lookup results");
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevicesByIds(Arrays.asList("qwer", "qwertyuiop")).join();
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals("Marshall lookup results", responseEntity.getBody());
+        verify(mockDataBaseService).searchDevicesByIdsAsync(Collections.singletonList("qwertyuiop"));
+    }
+
+    @Test
+    void shouldRejectListsWithNullEntriesWith400Status() {
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevicesByIds(Arrays.asList("qwertyuiop", null)).join();
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals("The list has null entries", responseEntity.getBody());
+        verifyNoInteractions(mockDataBaseService);
+    }
+
+    @Test
+    void shouldReturnErrorMessageWith500StatusWhileLookingByMacsAndFireBaseExceptionOccurs() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateMac("FF:FF:FF:FF:FF:FF");
+        when(mockDataBaseService.searchDevicesByMacsAsync(Collections.singletonList("FF:FF:FF:FF:FF:FF")))
+                .thenReturn(DataBaseFutures.failed(new FirebaseException("Problem with FireBase")));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDevicesByMacs(Collections.singletonList("FF:FF:FF:FF:FF:FF")).join();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
         assertEquals("Problem with FireBase", responseEntity.getBody());
@@ -154,9 +346,9 @@ public class DeviceMonitoringControllerTest {
                 .build();
 
         doNothing().when(mockDeviceValidationService).validateDeviceRequest(deviceRequest);
-        doNothing().when(mockDataBaseService).registerDevice(deviceRequest);
+        when(mockDataBaseService.registerDeviceAsync(deviceRequest)).thenReturn(CompletableFuture.completedFuture(null));
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest);
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest).join();
 
         assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
         assertEquals("Device registered", responseEntity.getBody());
@@ -171,7 +363,7 @@ public class DeviceMonitoringControllerTest {
 
         doThrow(new ValidationException("Invalid MAC address")).when(mockDeviceValidationService).validateDeviceRequest(deviceRequest);
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest);
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
         assertEquals("Invalid MAC address", responseEntity.getBody());
@@ -185,21 +377,190 @@ public class DeviceMonitoringControllerTest {
                 .build();
 
         doNothing().when(mockDeviceValidationService).validateDeviceRequest(deviceRequest);
-        doThrow(new FirebaseException("Problem with FireBase")).when(mockDataBaseService).registerDevice(deviceRequest);
+        when(mockDataBaseService.registerDeviceAsync(deviceRequest)).thenReturn(DataBaseFutures.failed(new FirebaseException("Problem with FireBase")));
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest);
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest).join();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
         assertEquals("Problem with FireBase", responseEntity.getBody());
     }
 
+    @Test
+    void shouldReturn429StatusWhileRegisteringDeviceAndTheDatabaseIsOverloaded() throws ValidationException {
+        DeviceRequest deviceRequest = DeviceRequest.builder()
+                .date("01-01-2021")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+
+        doNothing().when(mockDeviceValidationService).validateDeviceRequest(deviceRequest);
+        when(mockDataBaseService.registerDeviceAsync(deviceRequest)).thenReturn(
+                DataBaseFutures.failed(new DataBaseOverloadedException("Too many devices waiting to be saved")));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest).join();
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, responseEntity.getStatusCode());
+        assertEquals("Too many devices waiting to be saved", responseEntity.getBody());
+    }
+
+    @Test
+    void shouldReturn504WhenTheDatabaseDoesNotAnswerBeforeTheDeadline() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateId("qwertyuiop");
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(
+                DataBaseFutures.failed(new DataBaseTimeoutException("The database did not answer within 2000 ms")));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("qwertyuiop", null, null).join();
+
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, responseEntity.getStatusCode());
+        assertEquals("The database did not answer within 2000 ms", responseEntity.getBody());
+    }
+
+    @Test
+    void shouldReturn503WhenTheDatabaseIsFailing() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateId("qwertyuiop");
+        when(mockDataBaseService.deleteDeviceAsync("qwertyuiop")).thenReturn(
+                DataBaseFutures.failed(new DataBaseUnavailableException("The database is failing, the operation was not tried")));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("qwertyuiop").join();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, responseEntity.getStatusCode());
+    }
+
+    @Test
+    void shouldReturn503WithRetryAfterWhenTheLookupsAreAtTheirLimit() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateId("qwertyuiop");
+        doReturn(null).when(requestLimiter).tryAcquire(EndpointGroup.LOOKUP);
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.getDeviceById("qwertyuiop", null, null).join();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, responseEntity.getStatusCode());
+        assertEquals("1", responseEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        verify(mockDataBaseService, never()).searchDeviceByIdAsync("qwertyuiop");
+    }
+
+    @Test
+    void shouldAnswerValidationErrorsWithoutTakingAPermit() throws ValidationException {
+        doThrow(new ValidationException("Invalid ID")).when(mockDeviceValidationService).validateId("qwer");
+        doReturn(null).when(requestLimiter).tryAcquire(any(EndpointGroup.class));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("qwer").join();
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        verify(requestLimiter, never()).tryAcquire(any(EndpointGroup.class));
+    }
+
+    @Test
+    void shouldReturn409StatusWhileRegisteringDeviceWithMacAlreadyRegistered() throws ValidationException {
+        DeviceRequest deviceRequest = DeviceRequest.builder()
+                .date("01-01-2021")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+
+        doNothing().when(mockDeviceValidationService).validateDeviceRequest(deviceRequest);
+        when(mockDataBaseService.registerDeviceAsync(deviceRequest)).thenReturn(DataBaseFutures.failed(new DuplicateMacException()));
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevice(deviceRequest).join();
+
+        assertEquals(HttpStatus.CONFLICT, responseEntity.getStatusCode());
+        assertEquals(DuplicateMacException.MESSAGE, responseEntity.getBody());
+    }
+
+
+    @Test
+    void shouldRegisterDevicesSuccessfullyWith201Status() throws ValidationException {
+        DeviceRequest deviceRequest = DeviceRequest.builder()
+                .date("01012021")
+                .macAddress("11:11:11:11:11:11")
+                .build();
+        DeviceRegistrationResult result = DeviceRegistrationResult.builder()
+                .macAddress("11:11:11:11:11:11")
+                .ID("qwertyuiop")
+                .registered(true)
+                .build();
+
+        doNothing().when(mockDeviceValidationService).validateDeviceRequest(deviceRequest);
+        when(mockDataBaseService.registerDevicesAsync(Collections.singletonList(deviceRequest)))
+                .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(result)));
+        when(mockMarshallerService.marshallRegistrationResults(Collections.singletonList(result))).thenReturn("Marshall results");
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevices(Collections.singletonList(deviceRequest)).join();
+
+        assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
+        assertEquals("Marshall results", responseEntity.getBody());
+    }
+
+    @Test
+    void shouldRegisterOnlyValidDevicesWith207Status() throws ValidationException {
+        DeviceRequest validRequest = DeviceRequest.builder()
+                .date("01012021")
+                .macAddress("11:11:11:11:11:11")
+                .build();
+        DeviceRequest invalidRequest = DeviceRequest.builder()
+                .date("01012019")
+                .macAddress("11:11:11:11:11:12")
+                .build();
+        DeviceRegistrationResult result = DeviceRegistrationResult.builder()
+                .macAddress("11:11:11:11:11:11")
+                .ID("qwertyuiop")
+                .registered(true)
+                .build();
+
+        doNothing().when(mockDeviceValidationService).validateDeviceRequest(validRequest);
+        doThrow(new ValidationException("Not a valid date")).when(mockDeviceValidationService).validateDeviceRequest(invalidRequest);
+        when(mockDataBaseService.registerDevicesAsync(Collections.singletonList(validRequest)))
+                .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(result)));
+        when(mockMarshallerService.marshallRegistrationResults(anyList())).thenReturn("Marshall results");
+
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevices(Arrays.asList(invalidRequest, validRequest)).join();
+
+        assertEquals(HttpStatus.MULTI_STATUS, responseEntity.getStatusCode());
+        assertEquals(1, result.getIndex());
+        verify(mockDataBaseService).registerDevicesAsync(Collections.singletonList(validRequest));
+    }
+
+    @Test
+    void shouldReturnErrorMessageWith400StatusWhenNoDevicesToRegister() {
+        ResponseEntity<String> responseEntity = deviceMonitoringController.registerDevices(Collections.emptyList()).join();
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals("No devices to register", responseEntity.getBody());
+    }
+
+    @Test
+    void shouldReturn304WithoutReadingTheDatabaseWhenIfNoneMatchHasTheETag() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateId("Valid ID");
+        when(mockDataBaseService.searchDeviceByIdAsync("Valid ID")).thenReturn(CompletableFuture.completedFuture(device));
+
+        ResponseEntity<String> firstResponse = deviceMonitoringController.getDeviceById("Valid ID", null, null).join();
+        String etag = firstResponse.getHeaders().getETag();
+        ResponseEntity<String> secondResponse = deviceMonitoringController.getDeviceById("Valid ID", null, etag).join();
+
+        assertNotNull(etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, secondResponse.getStatusCode());
+        assertEquals(etag, secondResponse.getHeaders().getETag());
+        assertNull(secondResponse.getBody());
+        verify(mockDataBaseService, times(1)).searchDeviceByIdAsync("Valid ID");
+        verify(mockMarshallerService, times(1)).marshallDevice(device, MarshallingFormat.JSON);
+    }
+
+    @Test
+    void shouldReadTheDatabaseAgainAfterTheDeviceIsDeleted() throws ValidationException {
+        doNothing().when(mockDeviceValidationService).validateId("Valid ID");
+        when(mockDataBaseService.searchDeviceByIdAsync("Valid ID")).thenReturn(CompletableFuture.completedFuture(device));
+        when(mockDataBaseService.deleteDeviceAsync("Valid ID")).thenReturn(CompletableFuture.completedFuture(null));
+
+        deviceMonitoringController.getDeviceById("Valid ID", null, null).join();
+        deviceMonitoringController.deleteDeviceByID("Valid ID").join();
+        deviceMonitoringController.getDeviceById("Valid ID", null, null).join();
+
+        verify(mockDataBaseService, times(2)).searchDeviceByIdAsync("Valid ID");
+    }
 
     @Test
     void shouldDeleteDeviceSuccessfullyWith200Status() throws ValidationException, FirebaseException {
         doNothing().when(mockDeviceValidationService).validateId("Valid ID");
-        doNothing().when(mockDataBaseService).deleteDevice("Valid ID");
+        when(mockDataBaseService.deleteDeviceAsync("Valid ID")).thenReturn(CompletableFuture.completedFuture(null));
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("Valid ID");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("Valid ID").join();
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals("Device deleted", responseEntity.getBody());
@@ -209,7 +570,7 @@ public class DeviceMonitoringControllerTest {
     void shouldReturnErrorMessageWith400StatusWhileDeletingDeviceAndValidationExceptionOccurs() throws ValidationException {
         doThrow(new ValidationException("Invalid ID")).when(mockDeviceValidationService).validateId("throw ValidationException");
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("throw ValidationException");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("throw ValidationException").join();
 
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
         assertEquals("Invalid ID", responseEntity.getBody());
@@ -217,10 +578,10 @@ public class DeviceMonitoringControllerTest {
 
     @Test
     void shouldReturnErrorMessageWith500StatusWhileDeletingDeviceAndFireBaseExceptionOccurs() throws ValidationException, FirebaseException {
-        doThrow(new FirebaseException("Problem with FireBase")).when(mockDataBaseService).deleteDevice("throw FireBaseException");
+        when(mockDataBaseService.deleteDeviceAsync("throw FireBaseException")).thenReturn(DataBaseFutures.failed(new FirebaseException("Problem with FireBase")));
         doNothing().when(mockDeviceValidationService).validateId("throw FireBaseException");
 
-        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("throw FireBaseException");
+        ResponseEntity<String> responseEntity = deviceMonitoringController.deleteDeviceByID("throw FireBaseException").join();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
         assertEquals("Problem with FireBase", responseEntity.getBody());
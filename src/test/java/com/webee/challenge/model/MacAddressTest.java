@@ -0,0 +1,42 @@
+package com.webee.challenge.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MacAddressTest {
+
+    @Test
+    void shouldPackMacAddressInto48Bits() {
+        assertEquals(0xFF02FF0024FFL, MacAddress.pack("FF:02:FF:00:24:FF"));
+        assertEquals(0L, MacAddress.pack("00:00:00:00:00:00"));
+    }
+
+    @Test
+    void shouldPackUpperAndLowerCaseToTheSameValue() {
+        assertEquals(MacAddress.pack("FF:AA:0B:24:24:FF"), MacAddress.pack("ff:aa:0b:24:24:ff"));
+        assertEquals(MacAddress.parse("FF:AA:0B:24:24:FF"), MacAddress.parse("ff:Aa:0b:24:24:fF"));
+    }
+
+    @Test
+    void shouldReturnInvalidWhenFormatIsWrong() {
+        assertEquals(MacAddress.INVALID, MacAddress.pack("Invalid MAC Address"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("FF:FF:FF:FF:FF"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("FF-FF-FF-FF-FF-FF"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("FF:FF:FF:FF:FF:FG"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack(null));
+    }
+
+    @Test
+    void shouldFormatWithCanonicalText() {
+        assertEquals("FF:02:FF:00:24:FF", MacAddress.format(0xFF02FF0024FFL));
+        assertEquals("0A:0B:0C:0D:0E:0F", MacAddress.canonical("0a:0b:0c:0d:0e:0f"));
+        assertEquals("not a MAC", MacAddress.canonical("not a MAC"));
+    }
+
+    @Test
+    void shouldThrowIllegalArgumentExceptionWhenParsingInvalidMac() {
+        assertThrows(IllegalArgumentException.class, () -> MacAddress.parse("Invalid MAC Address"));
+        assertThrows(IllegalArgumentException.class, () -> MacAddress.of(-1L));
+    }
+}
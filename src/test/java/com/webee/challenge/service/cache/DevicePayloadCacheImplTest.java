@@ -0,0 +1,68 @@
+package com.webee.challenge.service.cache;
+
+import com.webee.challenge.services.cache.DevicePayload;
+import com.webee.challenge.services.cache.impl.DevicePayloadCacheImpl;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DevicePayloadCacheImplTest {
+
+    private DevicePayloadCacheImpl devicePayloadCache;
+
+    @BeforeEach
+    public void setUp() {
+        devicePayloadCache = new DevicePayloadCacheImpl(true, 60, 100, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void shouldKeepPayloadsPerFormatAndAnyLetterCaseOfTheMac() {
+        long generation = devicePayloadCache.getGeneration();
+        DevicePayload json = devicePayloadCache.putByMac("ff:ff:ff:ff:ff:ff", MarshallingFormat.JSON, "qwertyuiop",
+                "{\"ID\":\"qwertyuiop\"}", generation);
+
+        assertEquals(json, devicePayloadCache.getByMac("FF:FF:FF:FF:FF:FF", MarshallingFormat.JSON));
+        assertNull(devicePayloadCache.getByMac("FF:FF:FF:FF:FF:FF", MarshallingFormat.XML));
+        assertNotNull(json.getEtag());
+    }
+
+    @Test
+    void shouldDropThePayloadsKeptByMacWhenTheIdIsInvalidated() {
+        long generation = devicePayloadCache.getGeneration();
+        devicePayloadCache.putById("qwertyuiop", MarshallingFormat.JSON, "qwertyuiop", "json", generation);
+        devicePayloadCache.putByMac("FF:FF:FF:FF:FF:FF", MarshallingFormat.JSON, "qwertyuiop", "json", generation);
+        devicePayloadCache.putByMac("FF:FF:FF:FF:FF:FF", MarshallingFormat.XML, "qwertyuiop", "xml", generation);
+
+        devicePayloadCache.invalidateId("qwertyuiop");
+
+        assertNull(devicePayloadCache.getById("qwertyuiop", MarshallingFormat.JSON));
+        assertNull(devicePayloadCache.getByMac("FF:FF:FF:FF:FF:FF", MarshallingFormat.JSON));
+        assertNull(devicePayloadCache.getByMac("FF:FF:FF:FF:FF:FF", MarshallingFormat.XML));
+    }
+
+    @Test
+    void shouldNotKeepAPayloadReadBeforeAnInvalidation() {
+        long generation = devicePayloadCache.getGeneration();
+
+        devicePayloadCache.invalidateId("qwertyuiop");
+        DevicePayload payload = devicePayloadCache.putById("qwertyuiop", MarshallingFormat.JSON, "qwertyuiop",
+                "json", generation);
+
+        assertEquals("json", payload.getBody());
+        assertNull(devicePayloadCache.getById("qwertyuiop", MarshallingFormat.JSON));
+    }
+
+    @Test
+    void shouldOnlyBuildTheEtagWhenDisabled() {
+        DevicePayloadCacheImpl disabled = new DevicePayloadCacheImpl(false, 60, 100, new SimpleMeterRegistry());
+
+        DevicePayload payload = disabled.putById("qwertyuiop", MarshallingFormat.JSON, "qwertyuiop", "json",
+                disabled.getGeneration());
+
+        assertNotNull(payload.getEtag());
+        assertNull(disabled.getById("qwertyuiop", MarshallingFormat.JSON));
+    }
+}
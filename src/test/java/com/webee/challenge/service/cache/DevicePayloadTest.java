@@ -0,0 +1,35 @@
+package com.webee.challenge.service.cache;
+
+import com.webee.challenge.services.cache.DevicePayload;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DevicePayloadTest {
+
+    private final DevicePayload payload = new DevicePayload("qwertyuiop", "json", "\"abc\"");
+
+    @Test
+    void shouldMatchTheSameEtag() {
+        assertTrue(payload.matches("\"abc\""));
+        assertFalse(payload.matches("\"abd\""));
+        assertFalse(payload.matches(null));
+    }
+
+    @Test
+    void shouldMatchAWeakEtagByItsValue() {
+        assertTrue(payload.matches("W/\"abc\""));
+    }
+
+    @Test
+    void shouldMatchAnyEtagOfAList() {
+        assertTrue(payload.matches("\"xyz\", W/\"abc\""));
+        assertFalse(payload.matches("\"xyz\", \"abd\""));
+    }
+
+    @Test
+    void shouldMatchTheWildcard() {
+        assertTrue(payload.matches("*"));
+        assertFalse(new DevicePayload("qwertyuiop", null, null).matches("*"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.webee.challenge.service.changes;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.DeviceChange;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.changes.DeviceChangeSubscriber;
+import com.webee.challenge.services.changes.impl.DeviceChangeFeedImpl;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceChangeFeedImplTest {
+
+    private DataBaseService dataBaseService;
+    private DeviceChangeFeedImpl deviceChangeFeed;
+
+    @BeforeEach
+    public void setUp() {
+        dataBaseService = new InMemoryDataBaseServiceImpl();
+        deviceChangeFeed = new DeviceChangeFeedImpl(dataBaseService, 2, 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deviceChangeFeed.shutdown();
+    }
+
+    @Test
+    void shouldSendAddedAndRemovedDevicesToEverySubscriber() throws FirebaseException, InterruptedException {
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        deviceChangeFeed.subscribe(first);
+        deviceChangeFeed.subscribe(second);
+
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+        String id = dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF").getID();
+        dataBaseService.deleteDevice(id);
+
+        for (RecordingSubscriber subscriber : new RecordingSubscriber[]{first, second}) {
+            DeviceChange added = subscriber.changes.poll(5, TimeUnit.SECONDS);
+            DeviceChange removed = subscriber.changes.poll(5, TimeUnit.SECONDS);
+            assertEquals(DeviceChange.Type.ADDED, added.getType());
+            assertEquals(id, added.getDevice().getID());
+            assertEquals(DeviceChange.Type.REMOVED, removed.getType());
+            assertEquals(id, removed.getDevice().getID());
+        }
+    }
+
+    @Test
+    void shouldStopSendingChangesWhenTheSubscriptionIsClosed() throws IOException, FirebaseException, InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        Closeable subscription = deviceChangeFeed.subscribe(subscriber);
+
+        subscription.close();
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+
+        assertEquals(0, deviceChangeFeed.getSubscriberCount());
+        assertNull(subscriber.changes.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void shouldDropSubscriberThatDoesNotKeepUp() throws FirebaseException, InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber slowSubscriber = new RecordingSubscriber() {
+            @Override
+            public void send(DeviceChange change) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(change);
+            }
+        };
+        deviceChangeFeed.subscribe(slowSubscriber);
+
+        for (int index = 0; index < 5; index++) {
+            dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:0" + index).build());
+        }
+        release.countDown();
+
+        assertNotNull(slowSubscriber.closeReason.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, deviceChangeFeed.getSubscriberCount());
+    }
+
+    @Test
+    void shouldTellDroppedSubscribersFromASenderThread() throws FirebaseException, InterruptedException {
+        BlockingQueue<String> closingThread = new LinkedBlockingQueue<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onClose(String reason) {
+                closingThread.add(Thread.currentThread().getName());
+                super.onClose(reason);
+            }
+        };
+        deviceChangeFeed.subscribe(subscriber);
+
+        deviceChangeFeed.onError(new FirebaseException("The listener failed"));
+
+        assertEquals("The listener failed", subscriber.closeReason.poll(5, TimeUnit.SECONDS));
+        assertTrue(closingThread.poll().startsWith("device-change-sender-"));
+        assertEquals(0, deviceChangeFeed.getSubscriberCount());
+    }
+
+    private static class RecordingSubscriber implements DeviceChangeSubscriber {
+
+        final BlockingQueue<DeviceChange> changes = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> closeReason = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(DeviceChange change) throws IOException {
+            changes.add(change);
+        }
+
+        @Override
+        public void onClose(String reason) {
+            closeReason.add(reason);
+        }
+    }
+}
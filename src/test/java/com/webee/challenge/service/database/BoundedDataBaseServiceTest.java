@@ -0,0 +1,107 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.impl.BoundedDataBaseService;
+import com.webee.challenge.services.database.impl.BoundedDataBaseService.OperationGroup;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class BoundedDataBaseServiceTest {
+
+    private final CompletableFuture<Device> pendingLookup = new CompletableFuture<>();
+    private BoundedDataBaseService bounded;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        pendingLookup.completeExceptionally(new FirebaseException("Something went wrong while searching the device"));
+        bounded.close();
+    }
+
+    @Test
+    void shouldQueueOperationsOverTheLimitAndRejectThemOnceTheQueueIsFull() {
+        DataBaseService backend = mock(DataBaseService.class);
+        when(backend.searchDeviceByIdAsync(anyString())).thenReturn(pendingLookup);
+        bounded = new BoundedDataBaseService(backend, Executors.newFixedThreadPool(2), 1, 1, 1, 1,
+                new SimpleMeterRegistry());
+
+        CompletableFuture<Device> running = bounded.searchDeviceByIdAsync("qwertyuiop");
+        verify(backend, timeout(1000)).searchDeviceByIdAsync("qwertyuiop");
+        CompletableFuture<Device> queued = bounded.searchDeviceByIdAsync("asdfghjklz");
+        CompletableFuture<Device> rejected = bounded.searchDeviceByIdAsync("zxcvbnmlkj");
+
+        assertFalse(running.isDone());
+        assertFalse(queued.isDone());
+        assertEquals(1, bounded.getInFlight(OperationGroup.LOOKUP));
+        assertEquals(1, bounded.getQueued(OperationGroup.LOOKUP));
+        FirebaseException exception = assertThrows(FirebaseException.class, () -> DataBaseFutures.await(rejected));
+        assertTrue(exception instanceof DataBaseOverloadedException);
+        verify(backend, never()).searchDeviceByIdAsync("asdfghjklz");
+    }
+
+    @Test
+    void shouldStartTheQueuedOperationWhenTheRunningOneCompletes() {
+        DataBaseService backend = mock(DataBaseService.class);
+        when(backend.searchDeviceByIdAsync("qwertyuiop")).thenReturn(pendingLookup);
+        when(backend.searchDeviceByIdAsync("asdfghjklz")).thenReturn(CompletableFuture.completedFuture(new Device()));
+        bounded = new BoundedDataBaseService(backend, Executors.newFixedThreadPool(2), 1, 1, 1, 10,
+                new SimpleMeterRegistry());
+
+        CompletableFuture<Device> running = bounded.searchDeviceByIdAsync("qwertyuiop");
+        verify(backend, timeout(1000)).searchDeviceByIdAsync("qwertyuiop");
+        CompletableFuture<Device> queued = bounded.searchDeviceByIdAsync("asdfghjklz");
+        pendingLookup.complete(new Device());
+
+        running.join();
+        queued.join();
+        assertEquals(0, bounded.getInFlight(OperationGroup.LOOKUP));
+        assertEquals(0, bounded.getQueued(OperationGroup.LOOKUP));
+    }
+
+    @Test
+    void shouldLimitEachGroupSeparately() throws FirebaseException {
+        DataBaseService backend = spy(new InMemoryDataBaseServiceImpl());
+        doReturn(pendingLookup).when(backend).searchDeviceByIdAsync("qwertyuiop");
+        bounded = new BoundedDataBaseService(backend, Executors.newFixedThreadPool(2), 1, 1, 1, 0,
+                new SimpleMeterRegistry());
+
+        CompletableFuture<Device> running = bounded.searchDeviceByIdAsync("qwertyuiop");
+        bounded.registerDevice(DeviceRequest.builder().date("05102021").macAddress("FF:FF:FF:FF:FF:FF").build());
+        List<Device> devices = bounded.searchAllDevices();
+
+        assertFalse(running.isDone());
+        assertEquals(1, devices.size());
+    }
+
+    @Test
+    void shouldCompleteTheFuturesOnTheExecutor() {
+        CompletableFuture<List<Device>> pendingScan = new CompletableFuture<>();
+        DataBaseService backend = mock(DataBaseService.class);
+        when(backend.searchAllDevicesAsync()).thenReturn(pendingScan);
+        bounded = new BoundedDataBaseService(backend, Executors.newSingleThreadExecutor(
+                runnable -> new Thread(runnable, "device-database-test")), 4, 4, 4, 10, new SimpleMeterRegistry());
+
+        CompletableFuture<String> thread = bounded.searchAllDevicesAsync()
+                .thenApply(devices -> Thread.currentThread().getName());
+        verify(backend, timeout(1000)).searchAllDevicesAsync();
+        pendingScan.complete(new ArrayList<>());
+
+        assertEquals("device-database-test", thread.join());
+    }
+}
@@ -0,0 +1,102 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.impl.CachingDataBaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class CachingDataBaseServiceTest {
+
+    @Mock
+    private DataBaseService mockDataBaseService;
+
+    private CachingDataBaseService cachingDataBaseService;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() throws FirebaseException {
+        initMocks(this);
+        cachingDataBaseService = new CachingDataBaseService(mockDataBaseService, Duration.ofMinutes(1), 100,
+                new SimpleMeterRegistry());
+        device = Device.builder()
+                .date("05102021")
+                .ID("qwertyuiop")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+        when(mockDataBaseService.searchDeviceById("qwertyuiop")).thenReturn(device);
+        when(mockDataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF")).thenReturn(device);
+    }
+
+    @Test
+    void shouldQueryTheDatabaseOnlyOnceForTheSameId() throws FirebaseException {
+        cachingDataBaseService.searchDeviceById("qwertyuiop");
+        Device result = cachingDataBaseService.searchDeviceById("qwertyuiop");
+
+        assertEquals(device, result);
+        verify(mockDataBaseService, times(1)).searchDeviceById("qwertyuiop");
+        assertEquals(1, cachingDataBaseService.getDevicesByIdStats().hitCount());
+        assertEquals(1, cachingDataBaseService.getDevicesByIdStats().missCount());
+    }
+
+    @Test
+    void shouldServeLookupByIdFromEntryLoadedByMac() throws FirebaseException {
+        cachingDataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+        Device result = cachingDataBaseService.searchDeviceById("qwertyuiop");
+
+        assertEquals(device, result);
+        verify(mockDataBaseService, never()).searchDeviceById("qwertyuiop");
+    }
+
+    @Test
+    void shouldInvalidateBothEntriesWhenDeviceIsDeleted() throws FirebaseException {
+        cachingDataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+
+        cachingDataBaseService.deleteDevice("qwertyuiop");
+        cachingDataBaseService.searchDeviceById("qwertyuiop");
+        cachingDataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+
+        verify(mockDataBaseService, times(2)).searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+        verify(mockDataBaseService, times(1)).searchDeviceById("qwertyuiop");
+    }
+
+    @Test
+    void shouldInvalidateMacEntryWhenDeviceIsRegistered() throws FirebaseException {
+        cachingDataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+
+        cachingDataBaseService.registerDevice(DeviceRequest.builder()
+                .date("05102021")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build());
+        cachingDataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+
+        verify(mockDataBaseService, times(2)).searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+    }
+
+    @Test
+    void shouldNotCacheADeviceLoadedBeforeItWasDeleted() throws FirebaseException {
+        CompletableFuture<Device> loading = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop"))
+                .thenReturn(loading, CompletableFuture.completedFuture(device));
+        when(mockDataBaseService.deleteDeviceAsync("qwertyuiop")).thenReturn(CompletableFuture.completedFuture(null));
+
+        CompletableFuture<Device> stale = cachingDataBaseService.searchDeviceByIdAsync("qwertyuiop");
+        cachingDataBaseService.deleteDeviceAsync("qwertyuiop").join();
+        loading.complete(device);
+        stale.join();
+        cachingDataBaseService.searchDeviceByIdAsync("qwertyuiop").join();
+
+        verify(mockDataBaseService, times(2)).searchDeviceByIdAsync("qwertyuiop");
+    }
+}
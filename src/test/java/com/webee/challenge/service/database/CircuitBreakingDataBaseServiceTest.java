@@ -0,0 +1,156 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseTimeoutException;
+import com.webee.challenge.services.database.DataBaseUnavailableException;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.impl.CircuitBreakingDataBaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class CircuitBreakingDataBaseServiceTest {
+
+    @Mock
+    private DataBaseService mockDataBaseService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private CircuitBreakingDataBaseService circuitBreaking;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreaking = new CircuitBreakingDataBaseService(mockDataBaseService, 4, 50, Duration.ofMillis(100), 100,
+                Duration.ofMinutes(1), meterRegistry);
+        device = Device.builder()
+                .date("05102021")
+                .ID("qwertyuiop")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+    }
+
+    @Test
+    void shouldFailFastOnceHalfOfTheCallsFailed() throws FirebaseException {
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(
+                DataBaseFutures.failed(new DataBaseTimeoutException("The database did not answer within 2000 ms")));
+        when(mockDataBaseService.deleteDeviceAsync(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+        circuitBreaking.deleteDevice("qwertyuiop");
+        circuitBreaking.deleteDevice("asdfghjkl");
+        assertThrows(DataBaseTimeoutException.class, () -> circuitBreaking.searchAllDevices());
+        assertThrows(DataBaseTimeoutException.class, () -> circuitBreaking.searchAllDevices());
+
+        assertThrows(DataBaseUnavailableException.class, () -> circuitBreaking.searchAllDevices());
+        verify(mockDataBaseService, times(2)).searchAllDevicesAsync();
+        assertEquals(1, meterRegistry.get("devices.database.circuit").gauge().value());
+        assertEquals(1, meterRegistry.get("devices.database.circuit.rejected").counter().count());
+    }
+
+    @Test
+    void shouldNotCountValidAnswersOrRejectionsAsFailures() {
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(
+                DataBaseFutures.failed(new DeviceNotFoundException("Found 0 devices with that ID")));
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(
+                DataBaseFutures.failed(new DataBaseOverloadedException("Too many operations waiting for the database")));
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(DeviceNotFoundException.class, () -> circuitBreaking.searchDeviceById("qwertyuiop"));
+            assertThrows(DataBaseOverloadedException.class, () -> circuitBreaking.searchAllDevices());
+        }
+
+        assertEquals(0, meterRegistry.get("devices.database.circuit").gauge().value());
+    }
+
+    @Test
+    void shouldAnswerTheLastKnownDeviceWhileTheDatabaseIsFailing() throws FirebaseException {
+        when(mockDataBaseService.searchDeviceByMacAsync(anyString())).thenReturn(
+                CompletableFuture.completedFuture(device),
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+
+        assertEquals(device, circuitBreaking.searchDeviceByMac("FF:FF:FF:FF:FF:FF"));
+        assertEquals(device, circuitBreaking.searchDeviceByMac("ff:ff:ff:ff:ff:ff"));
+
+        assertEquals(1, meterRegistry.get("devices.database.circuit.fallbacks").counter().count());
+    }
+
+    @Test
+    void shouldForgetTheLastKnownDeviceWhenItIsDeleted() throws FirebaseException {
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(
+                CompletableFuture.completedFuture(device),
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+        when(mockDataBaseService.deleteDeviceAsync("qwertyuiop")).thenReturn(CompletableFuture.completedFuture(null));
+
+        circuitBreaking.searchDeviceById("qwertyuiop");
+        circuitBreaking.deleteDevice("qwertyuiop");
+
+        assertThrows(FirebaseException.class, () -> circuitBreaking.searchDeviceById("qwertyuiop"));
+    }
+
+    @Test
+    void shouldForgetTheLastKnownDeviceByMacWhenItIsDeleted() throws FirebaseException {
+        when(mockDataBaseService.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF")).thenReturn(
+                CompletableFuture.completedFuture(device),
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+        when(mockDataBaseService.deleteDeviceAsync("qwertyuiop")).thenReturn(CompletableFuture.completedFuture(null));
+
+        circuitBreaking.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+        circuitBreaking.deleteDevice("qwertyuiop");
+
+        assertThrows(FirebaseException.class, () -> circuitBreaking.searchDeviceByMac("FF:FF:FF:FF:FF:FF"));
+    }
+
+    @Test
+    void shouldIgnoreTheOutcomeOfCallsAllowedBeforeTheCircuitOpened() throws Exception {
+        CompletableFuture<Void> slowDelete = new CompletableFuture<>();
+        when(mockDataBaseService.deleteDeviceAsync("qwertyuiop")).thenReturn(slowDelete);
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")),
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")),
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")),
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")),
+                new CompletableFuture<>());
+
+        circuitBreaking.deleteDeviceAsync("qwertyuiop");
+        for (int i = 0; i < 4; i++) {
+            assertThrows(FirebaseException.class, () -> circuitBreaking.searchAllDevices());
+        }
+        Thread.sleep(150);
+        circuitBreaking.searchAllDevicesAsync();
+        assertEquals(2, meterRegistry.get("devices.database.circuit").gauge().value());
+
+        slowDelete.complete(null);
+
+        assertEquals(2, meterRegistry.get("devices.database.circuit").gauge().value());
+        assertThrows(DataBaseUnavailableException.class, () -> circuitBreaking.searchAllDevices());
+    }
+
+    @Test
+    void shouldCloseTheCircuitWhenTheDatabaseAnswersAgain() throws Exception {
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(
+                DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+        for (int i = 0; i < 4; i++) {
+            assertThrows(FirebaseException.class, () -> circuitBreaking.searchAllDevices());
+        }
+        assertThrows(DataBaseUnavailableException.class, () -> circuitBreaking.searchAllDevices());
+
+        Thread.sleep(150);
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        circuitBreaking.searchAllDevices();
+
+        assertEquals(0, meterRegistry.get("devices.database.circuit").gauge().value());
+    }
+}
@@ -0,0 +1,138 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.impl.CoalescingDataBaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class CoalescingDataBaseServiceTest {
+
+    @Mock
+    private DataBaseService mockDataBaseService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private CoalescingDataBaseService coalescing;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        coalescing = new CoalescingDataBaseService(mockDataBaseService, meterRegistry);
+        device = Device.builder()
+                .date("05102021")
+                .ID("qwertyuiop")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+    }
+
+    @Test
+    void shouldShareOneLookupBetweenConcurrentCallsForTheSameId() {
+        CompletableFuture<Device> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(pending);
+
+        CompletableFuture<Device> first = coalescing.searchDeviceByIdAsync("qwertyuiop");
+        CompletableFuture<Device> second = coalescing.searchDeviceByIdAsync("qwertyuiop");
+        pending.complete(device);
+
+        assertEquals(device, first.join());
+        assertEquals(device, second.join());
+        verify(mockDataBaseService, times(1)).searchDeviceByIdAsync("qwertyuiop");
+        assertEquals(1, coalescedCount("searchDeviceById"));
+        assertEquals(0, coalescing.getInFlightCount());
+    }
+
+    @Test
+    void shouldLookUpAgainOnceTheRunningLookupCompleted() {
+        when(mockDataBaseService.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF"))
+                .thenReturn(CompletableFuture.completedFuture(device));
+
+        coalescing.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF").join();
+        coalescing.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF").join();
+
+        verify(mockDataBaseService, times(2)).searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF");
+        assertEquals(0, coalescedCount("searchDeviceByMac"));
+    }
+
+    @Test
+    void shouldShareTheFailureOfTheLookup() {
+        CompletableFuture<Device> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(pending);
+
+        CompletableFuture<Device> first = coalescing.searchDeviceByIdAsync("qwertyuiop");
+        CompletableFuture<Device> second = coalescing.searchDeviceByIdAsync("qwertyuiop");
+        pending.completeExceptionally(new DeviceNotFoundException("Found 0 devices with that ID"));
+
+        assertThrows(DeviceNotFoundException.class, () -> DataBaseFutures.await(first));
+        assertThrows(DeviceNotFoundException.class, () -> DataBaseFutures.await(second));
+    }
+
+    @Test
+    void shouldNotLetACancelledCallerCancelTheOthers() {
+        CompletableFuture<List<Device>> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(pending);
+
+        CompletableFuture<List<Device>> first = coalescing.searchAllDevicesAsync();
+        CompletableFuture<List<Device>> second = coalescing.searchAllDevicesAsync();
+        first.cancel(true);
+        pending.complete(new ArrayList<>());
+
+        assertTrue(second.join().isEmpty());
+        assertEquals(1, coalescedCount("searchAllDevices"));
+    }
+
+    @Test
+    void shouldNotJoinALookupStartedBeforeACompletedWrite() throws FirebaseException {
+        CompletableFuture<Device> stale = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF"))
+                .thenReturn(stale, CompletableFuture.completedFuture(device));
+        when(mockDataBaseService.registerDeviceAsync(any(DeviceRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        coalescing.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF");
+        coalescing.registerDevice(DeviceRequest.builder().date("05102021").macAddress("FF:FF:FF:FF:FF:FF").build());
+        Device found = coalescing.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF").join();
+
+        assertEquals(device, found);
+        verify(mockDataBaseService, times(2)).searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF");
+    }
+
+    @Test
+    void shouldShareTheLookupOfTheSameMacInAnyLetterCase() throws FirebaseException {
+        CompletableFuture<Device> running = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByMacAsync("ff:ff:ff:ff:ff:ff")).thenReturn(running);
+        when(mockDataBaseService.registerDeviceAsync(any(DeviceRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        CompletableFuture<Device> first = coalescing.searchDeviceByMacAsync("ff:ff:ff:ff:ff:ff");
+        CompletableFuture<Device> second = coalescing.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF");
+        assertEquals(1, coalescedCount("searchDeviceByMac"));
+
+        coalescing.registerDevice(DeviceRequest.builder().date("05102021").macAddress("Ff:fF:FF:FF:FF:FF").build());
+        assertEquals(0, coalescing.getInFlightCount());
+
+        running.complete(device);
+        assertEquals(device, first.join());
+        assertEquals(device, second.join());
+        verify(mockDataBaseService, never()).searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF");
+    }
+
+    private double coalescedCount(String operation) {
+        return meterRegistry.get("devices.database.coalesced").tag("operation", operation).counter().count();
+    }
+}
@@ -0,0 +1,128 @@
+package com.webee.challenge.service.database;
+
+import com.google.api.core.SettableApiFuture;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataBaseFuturesTest {
+
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        device = Device.builder()
+                .date("05102021")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .ID("qwertyuiop")
+                .build();
+    }
+
+    @Test
+    void shouldReportDevicesNotFoundAndInvalidKeysOneByOne() {
+        Function<String, CompletableFuture<Device>> lookup = key -> {
+            if ("qwertyuiop".equals(key)) {
+                return CompletableFuture.completedFuture(device);
+            }
+            if ("asdfghjklz".equals(key)) {
+                return DataBaseFutures.failed(new DeviceNotFoundException("Found 0 devices with that ID"));
+            }
+            throw new IllegalArgumentException("Invalid ID");
+        };
+
+        Map<String, DeviceLookupResult> results = DataBaseFutures.lookupAll(
+                Arrays.asList("asdfghjklz", null, "a/b", "qwertyuiop"), lookup, 2).join();
+
+        assertEquals(Arrays.asList("asdfghjklz", null, "a/b", "qwertyuiop"), new ArrayList<>(results.keySet()));
+        assertFalse(results.get("asdfghjklz").isFound());
+        assertFalse(results.get("asdfghjklz").isInvalid());
+        assertEquals("Found 0 devices with that ID", results.get("asdfghjklz").getMessage());
+        assertTrue(results.get(null).isInvalid());
+        assertTrue(results.get("a/b").isInvalid());
+        assertEquals("Invalid ID", results.get("a/b").getMessage());
+        assertEquals(device, results.get("qwertyuiop").getDevice());
+    }
+
+    @Test
+    void shouldFailTheWholeLookupWhenTheDatabaseFails() {
+        FirebaseException firebaseException = new FirebaseException("Problem with FireBase");
+        Function<String, CompletableFuture<Device>> lookup = key -> ("qwertyuiop".equals(key))
+                ? CompletableFuture.completedFuture(device)
+                : DataBaseFutures.failed(firebaseException);
+
+        CompletableFuture<Map<String, DeviceLookupResult>> results = DataBaseFutures.lookupAll(
+                Arrays.asList("qwertyuiop", "asdfghjklz"), lookup, 10);
+
+        CompletionException completionException = assertThrows(CompletionException.class, results::join);
+        assertSame(firebaseException, DataBaseFutures.unwrap(completionException));
+    }
+
+    @Test
+    void shouldCompleteWithTheResultOfTheApiFuture() {
+        SettableApiFuture<Device> apiFuture = SettableApiFuture.create();
+
+        CompletableFuture<Device> future = DataBaseFutures.fromApiFuture(apiFuture);
+        assertFalse(future.isDone());
+        apiFuture.set(device);
+
+        assertSame(device, future.join());
+    }
+
+    @Test
+    void shouldFailWithTheExceptionOfTheApiFuture() {
+        SettableApiFuture<Device> apiFuture = SettableApiFuture.create();
+        IllegalStateException illegalStateException = new IllegalStateException("Firestore is unavailable");
+
+        CompletableFuture<Device> future = DataBaseFutures.fromApiFuture(apiFuture);
+        apiFuture.setException(illegalStateException);
+
+        CompletionException completionException = assertThrows(CompletionException.class, future::join);
+        assertSame(illegalStateException, DataBaseFutures.unwrap(completionException));
+    }
+
+    @Test
+    void shouldAwaitTheResultOrRethrowTheFirebaseException() throws FirebaseException {
+        FirebaseException firebaseException = new FirebaseException("Problem with FireBase");
+
+        assertSame(device, DataBaseFutures.await(CompletableFuture.completedFuture(device)));
+        assertSame(firebaseException, assertThrows(FirebaseException.class,
+                () -> DataBaseFutures.await(DataBaseFutures.failed(firebaseException))));
+
+        CompletableFuture<Device> failedStage = CompletableFuture.completedFuture(device).thenApply(found -> {
+            throw DataBaseFutures.failure("Problem while searching in the database");
+        });
+        FirebaseException stageException = assertThrows(FirebaseException.class,
+                () -> DataBaseFutures.await(failedStage));
+        assertEquals("Problem while searching in the database", stageException.getMessage());
+    }
+
+    @Test
+    void shouldAwaitRethrowingUncheckedExceptionsAndWrappingCheckedOnes() {
+        IllegalArgumentException illegalArgumentException = new IllegalArgumentException("Invalid ID");
+        IOException ioException = new IOException("Connection reset");
+        CompletableFuture<Device> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+
+        assertSame(illegalArgumentException, assertThrows(IllegalArgumentException.class,
+                () -> DataBaseFutures.await(DataBaseFutures.failed(illegalArgumentException))));
+        FirebaseException firebaseException = assertThrows(FirebaseException.class,
+                () -> DataBaseFutures.await(DataBaseFutures.failed(ioException)));
+        assertSame(ioException, firebaseException.getCause());
+        assertThrows(CancellationException.class, () -> DataBaseFutures.await(cancelled));
+    }
+}
@@ -0,0 +1,109 @@
+package com.webee.challenge.service.database;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.impl.DataBaseServiceImpl;
+import com.webee.challenge.services.ids.IdGenerationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.webee.challenge.constants.Constants.COLLECTION;
+import static com.webee.challenge.constants.Constants.LAYOUT_DEVICE_ID;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class DataBaseServiceImplTest {
+
+    @Mock
+    private Firestore firestore;
+
+    @Mock
+    private CollectionReference devices;
+
+    @Mock
+    private DocumentReference deviceReference;
+
+    @Mock
+    private DocumentSnapshot deviceDocument;
+
+    @Mock
+    private IdGenerationService idGenerationService;
+
+    private DataBaseServiceImpl dataBaseService;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        device = Device.builder()
+                .date("05102021")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .ID("qwertyuiop")
+                .build();
+
+        dataBaseService = new DataBaseServiceImpl();
+        ReflectionTestUtils.setField(dataBaseService, "firestoreDB", firestore);
+        ReflectionTestUtils.setField(dataBaseService, "idGenerationService", idGenerationService);
+        ReflectionTestUtils.setField(dataBaseService, "layout", LAYOUT_DEVICE_ID);
+        when(firestore.collection(COLLECTION)).thenReturn(devices);
+        when(devices.document("qwertyuiop")).thenReturn(deviceReference);
+        when(deviceReference.get()).thenReturn(ApiFutures.immediateFuture(deviceDocument));
+    }
+
+    @Test
+    void shouldReadTheDocumentOfTheIdWithTheDeviceIdLayout() throws FirebaseException {
+        when(deviceDocument.exists()).thenReturn(true);
+        when(deviceDocument.toObject(Device.class)).thenReturn(device);
+
+        assertEquals(device, dataBaseService.searchDeviceById("qwertyuiop"));
+        verify(devices, never()).whereEqualTo(anyString(), any());
+    }
+
+    @Test
+    void shouldThrowDeviceNotFoundWhenTheDocumentDoesNotExistWithTheDeviceIdLayout() {
+        when(deviceDocument.exists()).thenReturn(false);
+
+        assertThrows(DeviceNotFoundException.class, () -> dataBaseService.searchDeviceById("qwertyuiop"));
+    }
+
+    @Test
+    void shouldCreateTheDocumentUnderTheGeneratedIdWithTheDeviceIdLayout() {
+        when(idGenerationService.generateId()).thenReturn("qwertyuiop");
+        when(deviceReference.create(anyMap())).thenReturn(ApiFutures.immediateFuture(null));
+
+        dataBaseService.registerDeviceAsync(DeviceRequest.builder().date("05102021").macAddress("ff:ff:ff:ff:ff:ff").build());
+
+        verify(deviceReference).create(argThat(data -> "qwertyuiop".equals(data.get("id"))
+                && "FF:FF:FF:FF:FF:FF".equals(data.get("macAddress"))));
+        verify(devices, never()).document();
+    }
+
+    @Test
+    void shouldRejectBatchSizesFirestoreDoesNotAccept() {
+        assertThrows(IllegalArgumentException.class, () -> dataBaseService.setBatchSize(0));
+        assertThrows(IllegalArgumentException.class, () -> dataBaseService.setBatchSize(501));
+        dataBaseService.setBatchSize(500);
+    }
+
+    @Test
+    void shouldFailTheStartupWhenTheMigrationCanNotRun() {
+        ReflectionTestUtils.setField(dataBaseService, "firestoreDB", null);
+        ReflectionTestUtils.setField(dataBaseService, "migrateLayout", true);
+
+        IllegalStateException illegalStateException = assertThrows(IllegalStateException.class, dataBaseService::start);
+        assertTrue(illegalStateException.getCause() instanceof FirebaseException);
+        assertFalse(dataBaseService.isRunning());
+    }
+}
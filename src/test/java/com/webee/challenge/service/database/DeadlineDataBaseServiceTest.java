@@ -0,0 +1,82 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseTimeoutException;
+import com.webee.challenge.services.database.impl.DeadlineDataBaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class DeadlineDataBaseServiceTest {
+
+    @Mock
+    private DataBaseService mockDataBaseService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private DeadlineDataBaseService deadlines;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        deadlines = new DeadlineDataBaseService(mockDataBaseService, Duration.ofMillis(50), Duration.ofMillis(0),
+                Duration.ofMillis(50), meterRegistry);
+        device = Device.builder()
+                .date("05102021")
+                .ID("qwertyuiop")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deadlines.close();
+    }
+
+    @Test
+    void shouldFailWithATimeoutWhenTheDatabaseDoesNotAnswer() {
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(new CompletableFuture<>());
+
+        FirebaseException exception = assertThrows(DataBaseTimeoutException.class,
+                () -> deadlines.searchDeviceById("qwertyuiop"));
+
+        assertEquals("The database did not answer within 50 ms", exception.getMessage());
+        assertEquals(1, meterRegistry.get("devices.database.timeouts")
+                .tag("operation", "searchDeviceById").counter().count());
+    }
+
+    @Test
+    void shouldAnswerWhatTheDatabaseAnswersInTime() throws FirebaseException {
+        CompletableFuture<Device> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF")).thenReturn(pending);
+
+        CompletableFuture<Device> lookup = deadlines.searchDeviceByMacAsync("FF:FF:FF:FF:FF:FF");
+        pending.complete(device);
+
+        assertEquals(device, DataBaseFutures.await(lookup));
+        assertEquals(0, meterRegistry.find("devices.database.timeouts").counters().size());
+    }
+
+    @Test
+    void shouldNotGiveADeadlineToTheGroupsWithoutOne() {
+        CompletableFuture<List<Device>> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchAllDevicesAsync()).thenReturn(pending);
+
+        assertSame(pending, deadlines.searchAllDevicesAsync());
+    }
+}
@@ -0,0 +1,143 @@
+package com.webee.challenge.service.database;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.services.database.impl.FirestoreLayoutMigration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.webee.challenge.constants.Constants.COLLECTION;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class FirestoreLayoutMigrationTest {
+
+    @Mock
+    private Firestore firestore;
+
+    @Mock
+    private CollectionReference collection;
+
+    @Mock
+    private Query firstPage;
+
+    @Mock
+    private Query nextPage;
+
+    @Mock
+    private WriteBatch batch;
+
+    @Mock
+    private QueryDocumentSnapshot legacyDocument;
+
+    @Mock
+    private DocumentReference legacyReference;
+
+    @Mock
+    private DocumentReference deviceReference;
+
+    @Mock
+    private DocumentSnapshot storedDocument;
+
+    private FirestoreLayoutMigration migration;
+    private Map<String, Object> data;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        data = new HashMap<>();
+        data.put("id", "qwertyuiop");
+        data.put("macAddress", "FF:FF:FF:FF:FF:FF");
+        data.put("date", "05102021");
+
+        when(firestore.collection(COLLECTION)).thenReturn(collection);
+        when(collection.orderBy(any(FieldPath.class))).thenReturn(firstPage);
+        when(firstPage.limit(anyInt())).thenReturn(firstPage);
+        when(firstPage.startAfter((Object) any())).thenReturn(nextPage);
+        when(collection.document("qwertyuiop")).thenReturn(deviceReference);
+        when(firestore.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFuture(Collections.emptyList()));
+
+        when(legacyDocument.getId()).thenReturn("Xa8f2kLq0pZ");
+        when(legacyDocument.getString("id")).thenReturn("qwertyuiop");
+        when(legacyDocument.getData()).thenReturn(data);
+        when(legacyDocument.getReference()).thenReturn(legacyReference);
+        mockPage(firstPage, Collections.singletonList(legacyDocument));
+        mockPage(nextPage, Collections.emptyList());
+
+        migration = new FirestoreLayoutMigration(firestore, 1000);
+    }
+
+    @Test
+    void shouldMoveTheDeviceUnderItsId() throws FirebaseException {
+        mockStoredDevice(false, null);
+
+        assertEquals(1, migration.migrate());
+
+        verify(batch).create(deviceReference, data);
+        verify(batch).delete(legacyReference);
+        verify(batch).commit();
+    }
+
+    @Test
+    void shouldDeleteTheCopyOfADeviceAlreadyStoredUnderItsId() throws FirebaseException {
+        mockStoredDevice(true, new HashMap<>(data));
+
+        assertEquals(1, migration.migrate());
+
+        verify(batch, never()).create(any(DocumentReference.class), anyMap());
+        verify(batch).delete(legacyReference);
+    }
+
+    @Test
+    void shouldLeaveADifferentDeviceWithTheSameIdWhereItIs() throws FirebaseException {
+        Map<String, Object> otherData = new HashMap<>(data);
+        otherData.put("macAddress", "FF:FF:FF:FF:FF:00");
+        mockStoredDevice(true, otherData);
+
+        assertEquals(0, migration.migrate());
+
+        verify(batch, never()).create(any(DocumentReference.class), anyMap());
+        verify(batch, never()).delete(any(DocumentReference.class));
+        verify(batch, never()).commit();
+    }
+
+    @Test
+    void shouldFailWhenAPageCanNotBeWritten() {
+        mockStoredDevice(false, null);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFailedFuture(new IllegalStateException("Unavailable")));
+
+        assertThrows(FirebaseException.class, migration::migrate);
+    }
+
+    private void mockPage(Query page, List<QueryDocumentSnapshot> documents) {
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+        when(page.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+    }
+
+    private void mockStoredDevice(boolean exists, Map<String, Object> storedData) {
+        when(storedDocument.exists()).thenReturn(exists);
+        when(storedDocument.getId()).thenReturn("qwertyuiop");
+        when(storedDocument.getData()).thenReturn(storedData);
+        when(firestore.getAll(deviceReference)).thenReturn(ApiFutures.immediateFuture(Collections.singletonList(storedDocument)));
+    }
+}
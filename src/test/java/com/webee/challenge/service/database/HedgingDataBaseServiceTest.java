@@ -0,0 +1,109 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.impl.HedgingDataBaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class HedgingDataBaseServiceTest {
+
+    @Mock
+    private DataBaseService mockDataBaseService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private HedgingDataBaseService hedging;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        hedging = new HedgingDataBaseService(mockDataBaseService, 95, Duration.ofMillis(20), meterRegistry);
+        device = Device.builder()
+                .date("05102021")
+                .ID("qwertyuiop")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        hedging.close();
+    }
+
+    @Test
+    void shouldNotHedgeBeforeKnowingTheLatency() {
+        CompletableFuture<Device> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(pending);
+
+        assertSame(pending, hedging.searchDeviceByIdAsync("qwertyuiop"));
+    }
+
+    @Test
+    void shouldSendTheLookupAgainWhenItIsSlowerThanUsual() throws FirebaseException {
+        learnLatency();
+        CompletableFuture<Device> slow = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(slow,
+                CompletableFuture.completedFuture(device));
+
+        assertEquals(device, DataBaseFutures.await(hedging.searchDeviceByIdAsync("qwertyuiop")));
+
+        verify(mockDataBaseService, times(2)).searchDeviceByIdAsync("qwertyuiop");
+        assertEquals(1, meterRegistry.get("devices.database.hedged")
+                .tag("operation", "searchDeviceById").counter().count());
+    }
+
+    @Test
+    void shouldNotSendTheLookupAgainWhenTheDeviceIsNotFound() {
+        learnLatency();
+        CompletableFuture<Device> pending = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(pending);
+
+        CompletableFuture<Device> lookup = hedging.searchDeviceByIdAsync("qwertyuiop");
+        pending.completeExceptionally(new DeviceNotFoundException("Found 0 devices with that ID"));
+
+        assertThrows(DeviceNotFoundException.class, () -> DataBaseFutures.await(lookup));
+        verify(mockDataBaseService, after(100).times(1)).searchDeviceByIdAsync("qwertyuiop");
+    }
+
+    @Test
+    void shouldFailOnlyWhenBothLookupsFail() {
+        learnLatency();
+        CompletableFuture<Device> first = new CompletableFuture<>();
+        CompletableFuture<Device> second = new CompletableFuture<>();
+        when(mockDataBaseService.searchDeviceByIdAsync("qwertyuiop")).thenReturn(first, second);
+
+        CompletableFuture<Device> lookup = hedging.searchDeviceByIdAsync("qwertyuiop");
+        verify(mockDataBaseService, timeout(1000).times(2)).searchDeviceByIdAsync("qwertyuiop");
+        first.completeExceptionally(new FirebaseException("Firestore is unavailable"));
+        assertFalse(lookup.isDone());
+        second.completeExceptionally(new FirebaseException("Firestore is unavailable"));
+
+        assertThrows(FirebaseException.class, () -> DataBaseFutures.await(lookup));
+    }
+
+    /**
+     * Lookups answered at once, so the delay of the hedge is the minimum one
+     */
+    private void learnLatency() {
+        when(mockDataBaseService.searchDeviceByIdAsync("asdfghjkl")).thenReturn(CompletableFuture.completedFuture(device));
+        for (int i = 0; i < 100; i++) {
+            hedging.searchDeviceByIdAsync("asdfghjkl");
+        }
+    }
+}
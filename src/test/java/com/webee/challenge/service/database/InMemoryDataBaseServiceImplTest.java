@@ -0,0 +1,211 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceLookupResult;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryDataBaseServiceImplTest {
+
+    private DataBaseService dataBaseService;
+
+    @BeforeEach
+    public void setUp() {
+        dataBaseService = new InMemoryDataBaseServiceImpl();
+    }
+
+    @Test
+    void shouldFindRegisteredDeviceByMacAndById() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder()
+                .date("10082021")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build());
+
+        Device byMac = dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+        Device byId = dataBaseService.searchDeviceById(byMac.getID());
+
+        assertEquals("10082021", byId.getDate());
+        assertEquals("FF:FF:FF:FF:FF:FF", byId.getMacAddress());
+        assertTrue(byId.getID().matches("[a-z]{10}"));
+    }
+
+    @Test
+    void shouldListAllRegisteredDevices() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build());
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:02").build());
+
+        List<Device> devices = dataBaseService.searchAllDevices();
+
+        assertEquals(2, devices.size());
+    }
+
+    @Test
+    void shouldReturnGeneratedIdsWhenRegisteringSeveralDevices() throws FirebaseException {
+        List<DeviceRegistrationResult> results = dataBaseService.registerDevices(Arrays.asList(
+                DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build(),
+                DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:02").build()));
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isRegistered());
+        assertEquals("FF:FF:FF:FF:FF:02", dataBaseService.searchDeviceById(results.get(1).getID()).getMacAddress());
+    }
+
+    @Test
+    void shouldMarkMissingMacsWhenSearchingSeveralDevices() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build());
+
+        Map<String, DeviceLookupResult> results = dataBaseService.searchDevicesByMacs(
+                Arrays.asList("FF:FF:FF:FF:FF:02", "FF:FF:FF:FF:FF:01", "FF:FF:FF:FF:FF:02"));
+
+        assertEquals(Arrays.asList("FF:FF:FF:FF:FF:02", "FF:FF:FF:FF:FF:01"), new ArrayList<>(results.keySet()));
+        assertFalse(results.get("FF:FF:FF:FF:FF:02").isFound());
+        assertEquals("Found 0 devices with that MAC Address", results.get("FF:FF:FF:FF:FF:02").getMessage());
+        assertTrue(results.get("FF:FF:FF:FF:FF:01").isFound());
+    }
+
+    @Test
+    void shouldNotChangeTheSavedDeviceWhenTheReturnedOneIsChanged() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build());
+        Device device = dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:01");
+
+        device.setMacAddress("FF:FF:FF:FF:FF:02");
+        dataBaseService.searchAllDevices().get(0).setDate("11082021");
+
+        Device saved = dataBaseService.searchDeviceById(device.getID());
+        assertEquals("FF:FF:FF:FF:FF:01", saved.getMacAddress());
+        assertEquals("10082021", saved.getDate());
+    }
+
+    @Test
+    void shouldReturnEveryDeviceOnceWhenReadingByPages() throws FirebaseException {
+        for (int index = 0; index < 5; index++) {
+            dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:0" + index).build());
+        }
+
+        DevicePage firstPage = dataBaseService.searchDevicesPage(2, null);
+        DevicePage secondPage = dataBaseService.searchDevicesPage(2, firstPage.getNextPageToken());
+        DevicePage lastPage = dataBaseService.searchDevicesPage(2, secondPage.getNextPageToken());
+
+        assertEquals(2, firstPage.getDevices().size());
+        assertEquals(2, secondPage.getDevices().size());
+        assertEquals(1, lastPage.getDevices().size());
+        assertNull(lastPage.getNextPageToken());
+        assertTrue(firstPage.getNextPageToken().compareTo(secondPage.getDevices().get(0).getID()) < 0);
+    }
+
+    @Test
+    void shouldFindDeviceByMacRegardlessOfLetterCase() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("ff:aa:0b:24:24:ff").build());
+
+        Device device = dataBaseService.searchDeviceByMac("FF:AA:0B:24:24:FF");
+
+        assertEquals("FF:AA:0B:24:24:FF", device.getMacAddress());
+    }
+
+    @Test
+    void shouldRemoveDeviceFromBothIndexesWhenDeleted() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+        String id = dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF").getID();
+
+        dataBaseService.deleteDevice(id);
+
+        assertThrows(FirebaseException.class, () -> dataBaseService.searchDeviceById(id));
+        assertThrows(FirebaseException.class, () -> dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF"));
+    }
+
+    @Test
+    void shouldThrowFirebaseExceptionWhenDeletingUnknownDevice() {
+        String expectedMessage = "Found 0 devices with that ID";
+        try {
+            dataBaseService.deleteDevice("qwertyuiop");
+            fail();
+        } catch (FirebaseException firebaseException) {
+            assertEquals(expectedMessage, firebaseException.getMessage());
+        }
+    }
+
+    @Test
+    void shouldThrowFirebaseExceptionWhenMacIsDuplicated() throws FirebaseException {
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+
+        String expectedMessage = "Found 2 devices with that MAC Address";
+        try {
+            dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF");
+            fail();
+        } catch (FirebaseException firebaseException) {
+            assertEquals(expectedMessage, firebaseException.getMessage());
+            assertFalse(firebaseException instanceof DeviceNotFoundException);
+        }
+    }
+
+    @Test
+    void shouldRejectDuplicatedMacWhenUniqueMacIsEnabled() throws FirebaseException {
+        ReflectionTestUtils.setField(dataBaseService, "uniqueMac", true);
+        dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+
+        assertThrows(DuplicateMacException.class, () -> dataBaseService.registerDevice(
+                DeviceRequest.builder().date("10082021").macAddress("ff:ff:ff:ff:ff:ff").build()));
+        assertNotNull(dataBaseService.searchDeviceByMac("FF:FF:FF:FF:FF:FF"));
+    }
+
+    @Test
+    void shouldReportDuplicatedMacsWhenRegisteringSeveralDevicesWithUniqueMac() throws FirebaseException {
+        ReflectionTestUtils.setField(dataBaseService, "uniqueMac", true);
+
+        List<DeviceRegistrationResult> results = dataBaseService.registerDevices(Arrays.asList(
+                DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build(),
+                DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build()));
+
+        assertTrue(results.get(0).isRegistered());
+        assertFalse(results.get(1).isRegistered());
+        assertEquals(DuplicateMacException.MESSAGE, results.get(1).getMessage());
+    }
+
+    @Test
+    void shouldRegisterOnlyOneOfConcurrentRegistrationsWithTheSameMac() throws InterruptedException, FirebaseException {
+        ReflectionTestUtils.setField(dataBaseService, "uniqueMac", true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger registered = new AtomicInteger();
+
+        for (int index = 0; index < 64; index++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    dataBaseService.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:FF").build());
+                    registered.incrementAndGet();
+                } catch (FirebaseException | InterruptedException exception) {
+                    // duplicated MAC Address rejected
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, registered.get());
+        assertEquals(1, dataBaseService.searchAllDevices().size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.database.impl.JournalingDataBaseService;
+import com.webee.challenge.services.database.impl.WriteAheadLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class JournalingDataBaseServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final DataBaseService backend = mock(DataBaseService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private JournalingDataBaseService journaling;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        journaling.close();
+    }
+
+    @Test
+    void shouldAcceptMutationsWhileTheDatabaseIsDownAndApplyThemInOrder() throws IOException, FirebaseException, InterruptedException {
+        DeviceRequest deviceRequest = DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build();
+        doThrow(new FirebaseException("Something went wrong while saving the device in the database"))
+                .doNothing()
+                .when(backend).registerDevice(any(DeviceRequest.class));
+        journaling = start();
+
+        journaling.registerDevice(deviceRequest);
+        journaling.deleteDevice("qwertyuiop");
+        waitUntilApplied();
+
+        InOrder inOrder = inOrder(backend);
+        inOrder.verify(backend, times(2)).registerDevice(deviceRequest);
+        inOrder.verify(backend).deleteDevice("qwertyuiop");
+    }
+
+    @Test
+    void shouldDropDeletesOfUnknownDevices() throws IOException, FirebaseException, InterruptedException {
+        doThrow(new DeviceNotFoundException("Found 0 devices with that ID")).when(backend).deleteDevice("qwertyuiop");
+        journaling = start();
+
+        journaling.deleteDevice("qwertyuiop");
+        journaling.deleteDevice("asdfghjklz");
+        waitUntilApplied();
+
+        verify(backend).deleteDevice("asdfghjklz");
+    }
+
+    @Test
+    void shouldDropRegistrationsOfADuplicatedMacAndKeepReplaying() throws IOException, FirebaseException, InterruptedException {
+        DeviceRequest duplicated = DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build();
+        doThrow(new DuplicateMacException()).when(backend).registerDevice(duplicated);
+        journaling = start();
+
+        journaling.registerDevice(duplicated);
+        journaling.deleteDevice("qwertyuiop");
+        waitUntilApplied();
+
+        verify(backend).registerDevice(duplicated);
+        verify(backend).deleteDevice("qwertyuiop");
+        assertEquals(1, meterRegistry.get("devices.wal.dropped").tag("reason", "duplicate_mac").counter().count());
+    }
+
+    @Test
+    void shouldMoveAnEntryToTheDeadLetterFileAfterMaxAttempts() throws IOException, FirebaseException, InterruptedException {
+        doThrow(new FirebaseException("Something went wrong while deleting the device")).when(backend).deleteDevice("qwertyuiop");
+        journaling = start();
+
+        journaling.deleteDevice("qwertyuiop");
+        journaling.deleteDevice("asdfghjklz");
+        waitUntilApplied();
+
+        verify(backend, times(3)).deleteDevice("qwertyuiop");
+        verify(backend).deleteDevice("asdfghjklz");
+        String deadLetters = new String(Files.readAllBytes(directory.resolve("dead-letter.log")), StandardCharsets.UTF_8);
+        assertTrue(deadLetters.startsWith("1\tDELETE\tqwertyuiop\tSomething went wrong while deleting the device"));
+        assertEquals(1, meterRegistry.get("devices.wal.dropped").tag("reason", "max_attempts").counter().count());
+    }
+
+    @Test
+    void shouldHideADeletedDeviceUntilTheDeleteIsApplied() throws IOException, FirebaseException, InterruptedException {
+        Device device = Device.builder().ID("qwertyuiop").date("10082021").macAddress("FF:FF:FF:FF:FF:01").build();
+        CountDownLatch databaseBack = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            databaseBack.await();
+            return null;
+        }).when(backend).deleteDevice("qwertyuiop");
+        when(backend.searchDeviceById("qwertyuiop")).thenReturn(device);
+        when(backend.searchDeviceByMac("FF:FF:FF:FF:FF:01")).thenReturn(device);
+        when(backend.searchAllDevices()).thenReturn(Collections.singletonList(device));
+        journaling = start();
+
+        journaling.deleteDevice("qwertyuiop");
+
+        assertThrows(DeviceNotFoundException.class, () -> journaling.searchDeviceById("qwertyuiop"));
+        assertThrows(DeviceNotFoundException.class, () -> journaling.searchDeviceByMac("FF:FF:FF:FF:FF:01"));
+        assertTrue(journaling.searchAllDevices().isEmpty());
+
+        databaseBack.countDown();
+        waitUntilApplied();
+        assertEquals(device, journaling.searchDeviceById("qwertyuiop"));
+    }
+
+    @Test
+    void shouldRejectMutationsOnceClosed() throws IOException {
+        journaling = start();
+        journaling.close();
+
+        assertThrows(FirebaseException.class, () -> journaling.deleteDevice("qwertyuiop"));
+    }
+
+    @Test
+    void shouldReplayTheEntriesLeftInTheLogOnStart() throws IOException, FirebaseException, InterruptedException {
+        try (WriteAheadLog log = WriteAheadLog.open(directory, 4096)) {
+            log.appendDelete("qwertyuiop");
+        }
+
+        journaling = start();
+        waitUntilApplied();
+
+        verify(backend).deleteDevice("qwertyuiop");
+    }
+
+    private JournalingDataBaseService start() throws IOException {
+        return new JournalingDataBaseService(backend, WriteAheadLog.open(directory, 4096),
+                Duration.ofMillis(10), Duration.ofMillis(10), 3, meterRegistry);
+    }
+
+    private void waitUntilApplied() throws InterruptedException {
+        for (int attempt = 0; attempt < 500 && journaling.getPendingCount() > 0; attempt++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, journaling.getPendingCount());
+    }
+}
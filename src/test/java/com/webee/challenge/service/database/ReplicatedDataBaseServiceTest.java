@@ -0,0 +1,149 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.model.DevicePage;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DataBaseUnavailableException;
+import com.webee.challenge.services.database.DeviceChangeListener;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import com.webee.challenge.services.database.impl.ReplicatedDataBaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ReplicatedDataBaseServiceTest {
+
+    private DataBaseService backend;
+    private ReplicatedDataBaseService replica;
+
+    @BeforeEach
+    public void setUp() throws FirebaseException {
+        backend = spy(new InMemoryDataBaseServiceImpl());
+        backend.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        replica.close();
+    }
+
+    @Test
+    void shouldAnswerReadsFromTheReplicaOnceLoaded() throws FirebaseException, InterruptedException {
+        startReplica(Duration.ofSeconds(30));
+        String id = backend.searchDeviceByMac("FF:FF:FF:FF:FF:01").getID();
+        clearInvocations(backend);
+
+        Device device = replica.searchDeviceById(id);
+
+        assertEquals("FF:FF:FF:FF:FF:01", device.getMacAddress());
+        assertEquals(id, replica.searchDeviceByMac("ff:ff:ff:ff:ff:01").getID());
+        verify(backend, never()).searchDeviceById(anyString());
+        verify(backend, never()).searchDeviceByMac(anyString());
+    }
+
+    @Test
+    void shouldApplyTheChangesWrittenThroughTheDatabase() throws FirebaseException, InterruptedException {
+        startReplica(Duration.ofSeconds(30));
+        clearInvocations(backend);
+
+        replica.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:02").build());
+        String id = replica.searchDeviceByMac("FF:FF:FF:FF:FF:02").getID();
+        replica.deleteDevice(id);
+
+        verify(backend).registerDevice(any(DeviceRequest.class));
+        verify(backend).deleteDevice(id);
+        assertThrows(FirebaseException.class, () -> replica.searchDeviceById(id));
+        assertEquals(1, replica.searchAllDevices().size());
+    }
+
+    @Test
+    void shouldServePagesInIdOrder() throws FirebaseException, InterruptedException {
+        for (int index = 2; index < 5; index++) {
+            backend.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:0" + index).build());
+        }
+        startReplica(Duration.ofSeconds(30));
+
+        DevicePage firstPage = replica.searchDevicesPage(3, null);
+        DevicePage lastPage = replica.searchDevicesPage(3, firstPage.getNextPageToken());
+
+        assertEquals(3, firstPage.getDevices().size());
+        assertEquals(1, lastPage.getDevices().size());
+        assertNull(lastPage.getNextPageToken());
+    }
+
+    @Test
+    void shouldContinueAListingStartedOnTheDatabaseOnTheDatabase() throws FirebaseException, InterruptedException {
+        for (int index = 2; index < 5; index++) {
+            backend.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:0" + index).build());
+        }
+        DevicePage firstPage = backend.searchDevicesPage(3, null);
+        startReplica(Duration.ofSeconds(30));
+        clearInvocations(backend);
+
+        DevicePage lastPage = replica.searchDevicesPage(3, firstPage.getNextPageToken());
+
+        verify(backend).searchDevicesPage(3, firstPage.getNextPageToken());
+        assertEquals(1, lastPage.getDevices().size());
+    }
+
+    @Test
+    void shouldNotContinueAReplicaListingOnTheDatabase() throws FirebaseException, InterruptedException {
+        backend.registerDevice(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:02").build());
+        startReplica(Duration.ZERO);
+        DevicePage firstPage = replica.searchDevicesPage(1, null);
+        ArgumentCaptor<DeviceChangeListener> listener = ArgumentCaptor.forClass(DeviceChangeListener.class);
+        verify(backend, atLeastOnce()).listenToChanges(listener.capture(), eq(true));
+        doAnswer(invocation -> {
+            throw new FirebaseException("Something went wrong while listening to the database");
+        }).when(backend).listenToChanges(any(DeviceChangeListener.class), eq(true));
+
+        listener.getValue().onError(new FirebaseException("Something went wrong while listening to the database"));
+        Thread.sleep(5);
+
+        assertFalse(replica.isServing());
+        assertThrows(DataBaseUnavailableException.class,
+                () -> replica.searchDevicesPage(1, firstPage.getNextPageToken()));
+        verify(backend, never()).searchDevicesPage(anyInt(), anyString());
+    }
+
+    @Test
+    void shouldGoBackToTheDatabaseWhenTheReplicaIsTooStale() throws FirebaseException, InterruptedException {
+        startReplica(Duration.ZERO);
+        ArgumentCaptor<DeviceChangeListener> listener = ArgumentCaptor.forClass(DeviceChangeListener.class);
+        verify(backend, atLeastOnce()).listenToChanges(listener.capture(), eq(true));
+        doAnswer(invocation -> {
+            throw new FirebaseException("Something went wrong while listening to the database");
+        }).when(backend).listenToChanges(any(DeviceChangeListener.class), eq(true));
+
+        listener.getValue().onError(new FirebaseException("Something went wrong while listening to the database"));
+        Thread.sleep(5);
+        String id = replica.searchDeviceByMac("FF:FF:FF:FF:FF:01").getID();
+
+        assertFalse(replica.isServing());
+        verify(backend).searchDeviceByMac("FF:FF:FF:FF:FF:01");
+        assertEquals(id, replica.searchDeviceById(id).getID());
+    }
+
+    private void startReplica(Duration maxStaleness) throws InterruptedException {
+        replica = new ReplicatedDataBaseService(backend, maxStaleness, Duration.ofSeconds(30), new SimpleMeterRegistry());
+        replica.start();
+        for (int attempt = 0; attempt < 500 && !replica.isServing(); attempt++) {
+            Thread.sleep(10);
+        }
+        assertTrue(replica.isServing());
+    }
+}
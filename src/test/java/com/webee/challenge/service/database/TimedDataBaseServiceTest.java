@@ -0,0 +1,93 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.Device;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.database.impl.TimedDataBaseService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class TimedDataBaseServiceTest {
+
+    @Mock
+    private DataBaseService mockDataBaseService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private TimedDataBaseService timedDataBaseService;
+    private Device device;
+
+    @BeforeEach
+    public void setUp() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        timedDataBaseService = new TimedDataBaseService(mockDataBaseService, "memory", meterRegistry);
+        device = Device.builder()
+                .date("05102021")
+                .ID("qwertyuiop")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+    }
+
+    @Test
+    void shouldTimeQueriesBySuccess() throws FirebaseException {
+        when(mockDataBaseService.searchDeviceById("qwertyuiop")).thenReturn(device);
+
+        timedDataBaseService.searchDeviceById("qwertyuiop");
+        timedDataBaseService.searchDeviceById("qwertyuiop");
+
+        assertEquals(2, timer("searchDeviceById", "query", "success").count());
+    }
+
+    @Test
+    void shouldTimeFailedOperationsAsErrors() throws FirebaseException {
+        when(mockDataBaseService.searchDeviceById("asdfghjklz"))
+                .thenThrow(new DeviceNotFoundException("Found 0 devices with that ID"));
+
+        assertThrows(DeviceNotFoundException.class, () -> timedDataBaseService.searchDeviceById("asdfghjklz"));
+
+        assertEquals(1, timer("searchDeviceById", "query", "error").count());
+        assertNull(meterRegistry.find(TimedDataBaseService.TIMER).tag("outcome", "success").timer());
+    }
+
+    @Test
+    void shouldTimeAsyncWritesWhenTheyComplete() {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        when(mockDataBaseService.deleteDeviceAsync("qwertyuiop")).thenReturn(pending);
+
+        CompletableFuture<Void> result = timedDataBaseService.deleteDeviceAsync("qwertyuiop");
+
+        assertNull(meterRegistry.find(TimedDataBaseService.TIMER).timer());
+        pending.complete(null);
+        result.join();
+        assertEquals(1, timer("deleteDevice", "write", "success").count());
+    }
+
+    @Test
+    void shouldTimeAsyncFailuresAsErrors() {
+        when(mockDataBaseService.searchAllDevicesAsync())
+                .thenReturn(DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+
+        timedDataBaseService.searchAllDevicesAsync().exceptionally(exc -> null).join();
+
+        assertEquals(1, timer("searchAllDevices", "query", "error").count());
+    }
+
+    private Timer timer(String operation, String kind, String outcome) {
+        return meterRegistry.get(TimedDataBaseService.TIMER)
+                .tags("backend", "memory", "operation", operation, "kind", kind, "outcome", outcome)
+                .timer();
+    }
+}
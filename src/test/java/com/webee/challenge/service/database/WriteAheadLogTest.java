@@ -0,0 +1,95 @@
+package com.webee.challenge.service.database;
+
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.impl.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRecoverTheEntriesNotAppliedAfterReopening() throws IOException {
+        try (WriteAheadLog log = WriteAheadLog.open(directory, SEGMENT_SIZE)) {
+            log.appendRegister(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:01").build());
+            log.appendDelete("qwertyuiop");
+            log.markApplied(1);
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(directory, SEGMENT_SIZE)) {
+            WriteAheadLog.Entry entry = log.next(log.getLastApplied());
+
+            assertEquals(1, log.getPendingCount());
+            assertEquals(2, entry.getSequence());
+            assertEquals(WriteAheadLog.Operation.DELETE, entry.getOperation());
+            assertEquals("qwertyuiop", entry.getId());
+            assertNull(log.next(2));
+        }
+    }
+
+    @Test
+    void shouldRotateSegmentsAndDeleteTheAppliedOnes() throws IOException {
+        try (WriteAheadLog log = WriteAheadLog.open(directory, SEGMENT_SIZE)) {
+            for (int index = 0; index < 20; index++) {
+                log.appendRegister(DeviceRequest.builder().date("10082021").macAddress("FF:FF:FF:FF:FF:" + (10 + index)).build());
+            }
+            int segments = log.getSegmentCount();
+
+            log.markApplied(19);
+
+            assertTrue(segments > 2);
+            assertEquals(1, log.getSegmentCount());
+            assertEquals("FF:FF:FF:FF:FF:29", log.next(19).getDeviceRequest().getMacAddress());
+            assertEquals(1, countSegmentFiles());
+        }
+    }
+
+    @Test
+    void shouldDiscardTheTornEntryAndKeepAppendingAfterTheLastValidOne() throws IOException {
+        try (WriteAheadLog log = WriteAheadLog.open(directory, SEGMENT_SIZE)) {
+            log.appendDelete("qwertyuiop");
+            log.appendDelete("asdfghjklz");
+        }
+        corruptLastByteOfSecondEntry();
+
+        try (WriteAheadLog log = WriteAheadLog.open(directory, SEGMENT_SIZE)) {
+            assertEquals(1, log.getPendingCount());
+            assertEquals(2, log.appendDelete("zxcvbnmasd"));
+            assertEquals("zxcvbnmasd", log.next(1).getId());
+        }
+    }
+
+    private void corruptLastByteOfSecondEntry() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(path -> path.getFileName().toString().endsWith(".log")).findFirst().get();
+            try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                int firstLength = file.readInt();
+                file.seek(8 + firstLength);
+                int secondLength = file.readInt();
+                long lastByte = 8 + firstLength + 8 + secondLength - 1;
+                file.seek(lastByte);
+                byte value = file.readByte();
+                file.seek(lastByte);
+                file.writeByte(value ^ 0xFF);
+            }
+        }
+    }
+
+    private long countSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+}
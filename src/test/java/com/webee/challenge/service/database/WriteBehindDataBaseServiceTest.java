@@ -0,0 +1,117 @@
+package com.webee.challenge.service.database;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.model.DeviceRegistrationResult;
+import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DataBaseOverloadedException;
+import com.webee.challenge.services.database.DataBaseService;
+import com.webee.challenge.services.database.DuplicateMacException;
+import com.webee.challenge.services.database.impl.InMemoryDataBaseServiceImpl;
+import com.webee.challenge.services.database.impl.WriteBehindDataBaseService;
+import com.webee.challenge.services.database.impl.WriteBehindDataBaseService.Acknowledgement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class WriteBehindDataBaseServiceTest {
+
+    private final CompletableFuture<List<DeviceRegistrationResult>> pendingCommit = new CompletableFuture<>();
+    private WriteBehindDataBaseService writeBehind;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        pendingCommit.completeExceptionally(new FirebaseException("Something went wrong while saving the device in the database"));
+        writeBehind.close();
+    }
+
+    @Test
+    void shouldCommitRegistrationsWaitingTogetherInOneBatch() throws FirebaseException {
+        DataBaseService backend = spy(new InMemoryDataBaseServiceImpl());
+        writeBehind = new WriteBehindDataBaseService(backend, 10, 3, Duration.ofSeconds(5),
+                Acknowledgement.COMMIT, new SimpleMeterRegistry());
+
+        CompletableFuture<Void> first = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:01"));
+        CompletableFuture<Void> second = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:02"));
+        CompletableFuture<Void> third = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:03"));
+        CompletableFuture.allOf(first, second, third).join();
+
+        verify(backend, times(1)).registerDevicesAsync(anyList());
+        assertEquals(3, backend.searchAllDevices().size());
+    }
+
+    @Test
+    void shouldRejectRegistrationsWhenTheQueueIsFull() {
+        DataBaseService backend = mock(DataBaseService.class);
+        when(backend.registerDevicesAsync(anyList())).thenReturn(pendingCommit);
+        writeBehind = new WriteBehindDataBaseService(backend, 1, 10, Duration.ZERO,
+                Acknowledgement.COMMIT, new SimpleMeterRegistry());
+
+        CompletableFuture<Void> committing = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:01"));
+        verify(backend, timeout(1000)).registerDevicesAsync(anyList());
+        CompletableFuture<Void> queued = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:02"));
+        CompletableFuture<Void> rejected = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:03"));
+
+        assertFalse(committing.isDone());
+        assertFalse(queued.isDone());
+        FirebaseException exception = assertThrows(FirebaseException.class, () -> DataBaseFutures.await(rejected));
+        assertTrue(exception instanceof DataBaseOverloadedException);
+    }
+
+    @Test
+    void shouldFailTheRegistrationOfADuplicatedMacWithItsException() {
+        DataBaseService backend = new InMemoryDataBaseServiceImpl();
+        ReflectionTestUtils.setField(backend, "uniqueMac", true);
+        writeBehind = new WriteBehindDataBaseService(backend, 10, 2, Duration.ofSeconds(5),
+                Acknowledgement.COMMIT, new SimpleMeterRegistry());
+
+        CompletableFuture<Void> first = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:01"));
+        CompletableFuture<Void> duplicated = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:01"));
+
+        first.join();
+        assertThrows(DuplicateMacException.class, () -> DataBaseFutures.await(duplicated));
+    }
+
+    @Test
+    void shouldAcknowledgeOnEnqueueBeforeTheBatchIsCommitted() {
+        DataBaseService backend = mock(DataBaseService.class);
+        when(backend.registerDevicesAsync(anyList())).thenReturn(pendingCommit);
+        writeBehind = new WriteBehindDataBaseService(backend, 10, 10, Duration.ZERO,
+                Acknowledgement.ENQUEUE, new SimpleMeterRegistry());
+
+        CompletableFuture<Void> registered = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:01"));
+        verify(backend, timeout(1000)).registerDevicesAsync(anyList());
+
+        assertTrue(registered.isDone());
+        assertFalse(registered.isCompletedExceptionally());
+        assertFalse(pendingCommit.isDone());
+    }
+
+    @Test
+    void shouldRejectRegistrationsOnceClosed() throws IOException {
+        DataBaseService backend = mock(DataBaseService.class);
+        writeBehind = new WriteBehindDataBaseService(backend, 10, 10, Duration.ZERO,
+                Acknowledgement.COMMIT, new SimpleMeterRegistry());
+
+        writeBehind.close();
+        CompletableFuture<Void> registered = writeBehind.registerDeviceAsync(deviceRequest("FF:FF:FF:FF:FF:01"));
+
+        assertThrows(FirebaseException.class, () -> DataBaseFutures.await(registered));
+        assertEquals(0, writeBehind.getPendingCount());
+        verify(backend, never()).registerDevicesAsync(anyList());
+    }
+
+    private static DeviceRequest deviceRequest(String macAddress) {
+        return DeviceRequest.builder().date("10082021").macAddress(macAddress).build();
+    }
+}
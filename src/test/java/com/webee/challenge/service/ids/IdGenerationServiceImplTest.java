@@ -0,0 +1,118 @@
+package com.webee.challenge.service.ids;
+
+import com.webee.challenge.services.ids.IdGenerationService;
+import com.webee.challenge.services.ids.impl.IdGenerationServiceImpl;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdGenerationServiceImplTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 1_250_000;
+
+    @Test
+    void shouldGenerateTenLowerCaseLetters() {
+        IdGenerationService idGenerationService = new IdGenerationServiceImpl();
+
+        for (int index = 0; index < 1000; index++) {
+            assertTrue(idGenerationService.generateId().matches("[a-z]{10}"));
+        }
+    }
+
+    /**
+     * 10 million IDs, about 80 MB: run with mvn test -Pstress
+     */
+    @Test
+    @Tag("stress")
+    void shouldNotRepeatIdsGeneratedByManyThreads() throws Exception {
+        IdGenerationService idGenerationService = new IdGenerationServiceImpl();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long[][] generated = new long[THREADS][];
+
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int thread = 0; thread < THREADS; thread++) {
+            int slot = thread;
+            futures[thread] = executor.submit(() -> {
+                long[] ids = new long[IDS_PER_THREAD];
+                for (int index = 0; index < IDS_PER_THREAD; index++) {
+                    ids[index] = decode(idGenerationService.generateId());
+                }
+                generated[slot] = ids;
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(0, countRepeated(generated));
+    }
+
+    @Test
+    void shouldNotRepeatIdsBetweenNodes() {
+        IdGenerationService firstNode = new IdGenerationServiceImpl(0, 1);
+        IdGenerationService secondNode = new IdGenerationServiceImpl(1, 1);
+        long[][] generated = {new long[500_000], new long[500_000]};
+
+        for (int index = 0; index < 500_000; index++) {
+            generated[0][index] = decode(firstNode.generateId());
+            generated[1][index] = decode(secondNode.generateId());
+        }
+
+        assertEquals(0, countRepeated(generated));
+    }
+
+    @Test
+    void shouldNotRepeatTheIdsOfTheSecondBeforeARestart() {
+        long[][] generated = new long[2][1000];
+        IdGenerationService beforeRestart = new IdGenerationServiceImpl(0, 0);
+        for (int index = 0; index < 1000; index++) {
+            generated[0][index] = decode(beforeRestart.generateId());
+        }
+
+        IdGenerationService afterRestart = new IdGenerationServiceImpl(0, 0);
+        for (int index = 0; index < 1000; index++) {
+            generated[1][index] = decode(afterRestart.generateId());
+        }
+
+        assertEquals(0, countRepeated(generated));
+    }
+
+    @Test
+    void shouldRequireTheNodeId() {
+        assertThrows(IllegalStateException.class, () -> new IdGenerationServiceImpl(null, 0));
+    }
+
+    @Test
+    void shouldRejectNodeIdThatDoesNotFitInNodeBits() {
+        assertThrows(IllegalArgumentException.class, () -> new IdGenerationServiceImpl(2, 1));
+    }
+
+    private static long countRepeated(long[][] generated) {
+        long[] all = Arrays.stream(generated).flatMapToLong(Arrays::stream).toArray();
+        Arrays.parallelSort(all);
+
+        long repeated = 0;
+        for (int index = 1; index < all.length; index++) {
+            if (all[index] == all[index - 1]) {
+                repeated++;
+            }
+        }
+        return repeated;
+    }
+
+    private static long decode(String id) {
+        long value = 0;
+        for (int index = 0; index < id.length(); index++) {
+            value = value * 26 + (id.charAt(index) - 'a');
+        }
+        return value;
+    }
+}
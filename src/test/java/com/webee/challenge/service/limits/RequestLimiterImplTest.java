@@ -0,0 +1,111 @@
+package com.webee.challenge.service.limits;
+
+import com.google.firebase.FirebaseException;
+import com.webee.challenge.services.database.DataBaseFutures;
+import com.webee.challenge.services.database.DeviceNotFoundException;
+import com.webee.challenge.services.limits.RequestLimiter;
+import com.webee.challenge.services.limits.RequestLimiter.EndpointGroup;
+import com.webee.challenge.services.limits.impl.RequestLimiterImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestLimiterImplTest {
+
+    @Test
+    void shouldShedRequestsOverTheLimit() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 2, 1, 10, 0.5, 500, 3, new SimpleMeterRegistry());
+
+        RequestLimiter.Permit first = limiter.tryAcquire(EndpointGroup.LOOKUP);
+        RequestLimiter.Permit second = limiter.tryAcquire(EndpointGroup.LOOKUP);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(limiter.tryAcquire(EndpointGroup.LOOKUP));
+        assertNotNull(limiter.tryAcquire(EndpointGroup.WRITE));
+        assertEquals(3, limiter.getRetryAfterSeconds());
+    }
+
+    @Test
+    void shouldGiveThePermitBackWhenTheDatabaseAnswers() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 1, 1, 1, 0.5, 500, 1, new SimpleMeterRegistry());
+        CompletableFuture<String> databaseCall = new CompletableFuture<>();
+
+        limiter.tryAcquire(EndpointGroup.SCAN).track(() -> databaseCall);
+        assertNull(limiter.tryAcquire(EndpointGroup.SCAN));
+        databaseCall.complete("devices");
+
+        assertNotNull(limiter.tryAcquire(EndpointGroup.SCAN));
+    }
+
+    @Test
+    void shouldGiveThePermitBackWhenTheDatabaseCallThrows() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 1, 1, 1, 0.5, 500, 1, new SimpleMeterRegistry());
+
+        CompletableFuture<String> databaseCall = limiter.tryAcquire(EndpointGroup.SCAN).track(() -> {
+            throw new IllegalStateException("Firestore is not initialized");
+        });
+
+        assertTrue(databaseCall.isCompletedExceptionally());
+        assertNotNull(limiter.tryAcquire(EndpointGroup.SCAN));
+    }
+
+    @Test
+    void shouldKeepThePermitUntilTheRequestIsDone() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 1, 1, 1, 0.5, 500, 1, new SimpleMeterRegistry());
+        CompletableFuture<Void> streamed = new CompletableFuture<>();
+
+        limiter.tryAcquire(EndpointGroup.SCAN).holdUntil(streamed).track(() -> CompletableFuture.completedFuture("page"));
+        assertNull(limiter.tryAcquire(EndpointGroup.SCAN));
+        streamed.complete(null);
+
+        assertNotNull(limiter.tryAcquire(EndpointGroup.SCAN));
+    }
+
+    @Test
+    void shouldDecreaseTheLimitWhenTheDatabaseFails() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 10, 2, 100, 0.5, 500, 1, new SimpleMeterRegistry());
+
+        limiter.tryAcquire(EndpointGroup.WRITE).track(() -> DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+        assertEquals(5, limiter.getLimit(EndpointGroup.WRITE));
+
+        limiter.tryAcquire(EndpointGroup.WRITE).track(() -> DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+        limiter.tryAcquire(EndpointGroup.WRITE).track(() -> DataBaseFutures.failed(new FirebaseException("Firestore is unavailable")));
+        assertEquals(2, limiter.getLimit(EndpointGroup.WRITE));
+    }
+
+    @Test
+    void shouldNotDecreaseTheLimitWhenTheDeviceIsNotFound() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 10, 2, 100, 0.5, 500, 1, new SimpleMeterRegistry());
+
+        limiter.tryAcquire(EndpointGroup.LOOKUP)
+                .track(() -> DataBaseFutures.failed(new DeviceNotFoundException("Found 0 devices with that ID")));
+
+        assertEquals(10, limiter.getLimit(EndpointGroup.LOOKUP));
+    }
+
+    @Test
+    void shouldIncreaseTheLimitOnlyWhileItIsInUse() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(true, 2, 1, 100, 0.5, 500, 1, new SimpleMeterRegistry());
+        CompletableFuture<String> databaseCall = new CompletableFuture<>();
+
+        limiter.tryAcquire(EndpointGroup.LOOKUP).track(() -> databaseCall);
+        limiter.tryAcquire(EndpointGroup.LOOKUP).track(() -> CompletableFuture.completedFuture("device"));
+        assertEquals(3, limiter.getLimit(EndpointGroup.LOOKUP));
+        databaseCall.complete("device");
+
+        limiter.tryAcquire(EndpointGroup.LOOKUP).track(() -> CompletableFuture.completedFuture("device"));
+        assertEquals(3, limiter.getLimit(EndpointGroup.LOOKUP));
+    }
+
+    @Test
+    void shouldGrantEveryRequestWhenDisabled() {
+        RequestLimiterImpl limiter = new RequestLimiterImpl(false, 1, 1, 1, 0.5, 500, 1, new SimpleMeterRegistry());
+
+        assertNotNull(limiter.tryAcquire(EndpointGroup.WRITE));
+        assertNotNull(limiter.tryAcquire(EndpointGroup.WRITE));
+    }
+}
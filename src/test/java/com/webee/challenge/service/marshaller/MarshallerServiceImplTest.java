@@ -1,20 +1,29 @@
 package com.webee.challenge.service.marshaller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.webee.challenge.configuration.Configurations;
 import com.webee.challenge.model.Device;
 import com.webee.challenge.model.DeviceRequest;
+import com.webee.challenge.services.marshaller.MarshallingFormat;
 import com.webee.challenge.services.marshaller.impl.MarshallerServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -29,6 +38,7 @@ public class MarshallerServiceImplTest {
     @BeforeEach
     public void setUp() {
         initMocks(this);
+        ReflectionTestUtils.setField(marshallerService, "mapper", mockMapper);
     }
 
     @Test
@@ -79,43 +89,64 @@ public class MarshallerServiceImplTest {
     }
 
     @Test
-    void shouldMarshallDeviceListSuccessfullyWhenOnlyOneDevice() throws JsonProcessingException {
-        Device device = Device.builder()
-                .date("05-10-2021")
-                .ID("qwertyuiop")
-                .macAddress("FF:FF:FF:FF:FF:FF")
-                .build();
+    void shouldMarshallDeviceListAsCompactJsonArray() throws JsonProcessingException {
+        ReflectionTestUtils.setField(marshallerService, "mapper", new Configurations().jsonMarshaller());
         List<Device> deviceList = new ArrayList<>();
-        deviceList.add(device);
-
-        when(mockMapper.writeValueAsString(device)).thenReturn("Device Marshalled OK");
+        deviceList.add(Device.builder().date("05-10-2021").ID("qwertyuiop").macAddress("FF:FF:FF:FF:FF:FF").build());
+        deviceList.add(Device.builder().date("05-10-2021").ID("asdfghjklz").macAddress("FF:FF:FF:FF:FF:01").build());
 
         String result = marshallerService.marshallDeviceList(deviceList);
 
-        assertEquals("Device Marshalled OK", result);
+        String expected = "[{\"date\":\"05-10-2021\",\"macAddress\":\"FF:FF:FF:FF:FF:FF\",\"id\":\"qwertyuiop\"},"
+                + "{\"date\":\"05-10-2021\",\"macAddress\":\"FF:FF:FF:FF:FF:01\",\"id\":\"asdfghjklz\"}]";
+        assertEquals(new ObjectMapper().readTree(expected), new ObjectMapper().readTree(result));
+        assertFalse(result.contains("\n"));
     }
 
     @Test
-    void shouldMarshallDeviceListSuccessfullyWhenMoreThanOneDevice() throws JsonProcessingException {
-        Device device1 = Device.builder()
-                .date("05-10-2021")
-                .ID("qwertyuiop")
-                .macAddress("FF:FF:FF:FF:FF:FF")
-                .build();
-        Device device2 = Device.builder()
-                .date("05-10-2021")
-                .ID("qwertyuiop")
-                .macAddress("FF:FF:FF:FF:FF:FF")
-                .build();
+    void shouldWriteDeviceListAsJsonArrayToTheStream() throws IOException {
+        ReflectionTestUtils.setField(marshallerService, "mapper", new Configurations().jsonMarshaller());
         List<Device> deviceList = new ArrayList<>();
-        deviceList.add(device1);
-        deviceList.add(device2);
+        deviceList.add(Device.builder().date("05-10-2021").ID("qwertyuiop").macAddress("FF:FF:FF:FF:FF:FF").build());
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        ByteArrayOutputStream pretty = new ByteArrayOutputStream();
 
-        when(mockMapper.writeValueAsString(device1)).thenReturn("Device1 OK");
-        when(mockMapper.writeValueAsString(device1)).thenReturn("Device2 OK");
+        marshallerService.writeDeviceList(deviceList, compact, false);
+        marshallerService.writeDeviceList(deviceList, pretty, true);
 
-        String result = marshallerService.marshallDeviceList(deviceList);
+        assertEquals(marshallerService.marshallDeviceList(deviceList), compact.toString("UTF-8"));
+        assertTrue(pretty.toString("UTF-8").startsWith("[ {"));
+        assertTrue(pretty.size() > compact.size());
+    }
+
+    @Test
+    void shouldWriteDeviceListAsXmlToTheStream() throws IOException {
+        ReflectionTestUtils.setField(marshallerService, "xmlMapper", new Configurations().xmlMarshaller());
+        List<Device> deviceList = new ArrayList<>();
+        deviceList.add(Device.builder().date("05-10-2021").ID("qwertyuiop").macAddress("FF:FF:FF:FF:FF:FF").build());
+        deviceList.add(Device.builder().date("05-10-2021").ID("asdfghjklz").macAddress("FF:FF:FF:FF:FF:01").build());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        marshallerService.writeDeviceList(deviceList, outputStream, MarshallingFormat.XML, false);
+
+        JsonNode devices = new XmlMapper().readTree(outputStream.toByteArray()).get("device");
+        assertTrue(outputStream.toString("UTF-8").startsWith("<devices><device>"));
+        assertEquals(2, devices.size());
+        assertEquals("asdfghjklz", devices.get(1).get("id").asText());
+    }
+
+    @Test
+    void shouldWriteDeviceListAsSmileToTheStream() throws IOException {
+        ObjectMapper smileMapper = new Configurations().smileMarshaller();
+        ReflectionTestUtils.setField(marshallerService, "smileMapper", smileMapper);
+        List<Device> deviceList = new ArrayList<>();
+        deviceList.add(Device.builder().date("05-10-2021").ID("qwertyuiop").macAddress("FF:FF:FF:FF:FF:FF").build());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        marshallerService.writeDeviceList(deviceList, outputStream, MarshallingFormat.SMILE, true);
 
-        assertEquals("{Device2 OK,Device2 OK}", result);
+        Device[] devices = smileMapper.readValue(outputStream.toByteArray(), Device[].class);
+        assertEquals(1, devices.length);
+        assertEquals(deviceList.get(0), devices[0]);
     }
-}
\ No newline at end of file
+}
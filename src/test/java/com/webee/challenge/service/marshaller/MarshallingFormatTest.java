@@ -0,0 +1,44 @@
+package com.webee.challenge.service.marshaller;
+
+import com.webee.challenge.services.marshaller.MarshallingFormat;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MarshallingFormatTest {
+
+    @Test
+    void shouldUseJsonWhenThereIsNoAcceptHeader() {
+        assertEquals(MarshallingFormat.JSON, MarshallingFormat.negotiate(null));
+        assertEquals(MarshallingFormat.JSON, MarshallingFormat.negotiate("*/*"));
+    }
+
+    @Test
+    void shouldUseXmlWhenAcceptHeaderAsksForIt() {
+        assertEquals(MarshallingFormat.XML, MarshallingFormat.negotiate("application/xml"));
+        assertEquals(MarshallingFormat.XML, MarshallingFormat.negotiate("text/xml, */*;q=0.1"));
+    }
+
+    @Test
+    void shouldUseTheMostPreferredFormat() {
+        assertEquals(MarshallingFormat.JSON, MarshallingFormat.negotiate("application/xml;q=0.8, application/json"));
+        assertEquals(MarshallingFormat.XML, MarshallingFormat.negotiate("application/json;q=0.8, application/xml"));
+    }
+
+    @Test
+    void shouldUseJsonWhenAcceptHeaderIsNotValid() {
+        assertEquals(MarshallingFormat.JSON, MarshallingFormat.negotiate("not a media type"));
+    }
+
+    @Test
+    void shouldUseBinaryFormatsWhenAcceptHeaderAsksForThem() {
+        assertEquals(MarshallingFormat.SMILE, MarshallingFormat.negotiate("application/x-jackson-smile"));
+        assertEquals(MarshallingFormat.CBOR, MarshallingFormat.negotiate("application/cbor, application/json;q=0.5"));
+    }
+
+    @Test
+    void shouldSkipFormatsThatAreNotSupported() {
+        assertEquals(MarshallingFormat.JSON,
+                MarshallingFormat.negotiate("application/cbor, application/json;q=0.5", MarshallingFormat.TEXT_FORMATS));
+    }
+}
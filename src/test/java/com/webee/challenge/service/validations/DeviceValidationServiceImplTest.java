@@ -3,6 +3,7 @@ package com.webee.challenge.service.validations;
 import com.webee.challenge.model.DeviceRequest;
 import com.webee.challenge.services.validations.DeviceValidationService;
 import com.webee.challenge.services.validations.impl.DeviceValidationServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -24,6 +25,11 @@ public class DeviceValidationServiceImplTest {
         assertDoesNotThrow(() -> deviceValidationService.validateMac("FF:FF:FF:FF:FF:FF"));
     }
 
+    @Test
+    void shouldValidateLowerCaseMacOk() {
+        assertDoesNotThrow(() -> deviceValidationService.validateMac("ff:0a:ff:ff:ff:ff"));
+    }
+
     @Test
     void shouldThrowValidationExceptionWhenInvalidMac() {
         assertThrows(ValidationException.class, () -> deviceValidationService.validateMac("Invalid MAC Address"));
@@ -117,5 +123,18 @@ public class DeviceValidationServiceImplTest {
         }
     }
 
+    @Test
+    void shouldTimeTheDeviceValidationOnlyOnce() throws ValidationException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DeviceValidationService timedValidationService = new DeviceValidationServiceImpl(meterRegistry);
+        DeviceRequest deviceRequest = DeviceRequest.builder()
+                .date("10082020")
+                .macAddress("FF:FF:FF:FF:FF:FF")
+                .build();
+
+        timedValidationService.validateDeviceRequest(deviceRequest);
 
+        assertEquals(1, meterRegistry.get("devices.validation").tag("target", "device").timer().count());
+        assertEquals(0, meterRegistry.get("devices.validation").tag("target", "mac").timer().count());
+    }
 }